@@ -1,6 +1,8 @@
 package fr.coppernic.lib.utils.os
 
 import android.content.Context
+import android.content.ContextWrapper
+import android.content.pm.PackageManager
 import androidx.test.core.app.ApplicationProvider
 import fr.coppernic.lib.utils.log.LogDefines
 import org.amshove.kluent.shouldBeTrue
@@ -11,9 +13,22 @@ import org.junit.Before
 import org.junit.BeforeClass
 import org.junit.Test
 import timber.log.Timber
+import java.util.Locale
 
 class AccessProtectionHelperAndroidTest {
 
+    /**
+     * Counts lookups of packages, all made through package manager
+     */
+    private class CountingContext(base: Context) : ContextWrapper(base) {
+        var lookups = 0
+
+        override fun getPackageManager(): PackageManager {
+            lookups++
+            return super.getPackageManager()
+        }
+    }
+
     private lateinit var accessProtectionHelper: AccessProtectionHelper
     private lateinit var context: Context
 
@@ -51,7 +66,7 @@ class AccessProtectionHelperAndroidTest {
     @Test
     fun allowed() {
         accessProtectionHelper = AccessProtectionHelper(context,
-                mapOf("E6D539D9E495619B32D32C7CFFB1FEAE1EFA86726CE6F23668E4FB6D1D80F122".toLowerCase() to setOf("fr.coppernic.lib.utils.test".toRegex()))
+                mapOf("E6D539D9E495619B32D32C7CFFB1FEAE1EFA86726CE6F23668E4FB6D1D80F122".toLowerCase(Locale.ROOT) to setOf("fr.coppernic.lib.utils.test".toRegex()))
         )
 
         accessProtectionHelper.arePackagesAllowed(setOf(context.packageName)).shouldBeTrue()
@@ -61,7 +76,7 @@ class AccessProtectionHelperAndroidTest {
     fun allowedSeveral() {
         accessProtectionHelper = AccessProtectionHelper(context,
                 mapOf(
-                        "E6D539D9E495619B32D32C7CFFB1FEAE1EFA86726CE6F23668E4FB6D1D80F122".toLowerCase()
+                        "E6D539D9E495619B32D32C7CFFB1FEAE1EFA86726CE6F23668E4FB6D1D80F122".toLowerCase(Locale.ROOT)
                                 to setOf(
                                 "or.example.com".toRegex(),
                                 "prout.com".toRegex(),
@@ -72,4 +87,52 @@ class AccessProtectionHelperAndroidTest {
         )
         accessProtectionHelper.arePackagesAllowed(setOf(context.packageName)).shouldBeTrue()
     }
+
+    @Test
+    fun cachedDecision() {
+        val counting = CountingContext(context)
+        accessProtectionHelper = AccessProtectionHelper(counting,
+                mapOf("E6D539D9E495619B32D32C7CFFB1FEAE1EFA86726CE6F23668E4FB6D1D80F122".toLowerCase(Locale.ROOT) to setOf("fr.coppernic.lib.utils.test".toRegex()))
+        )
+        val uid = AppHelper.getPackageUid(context)
+        accessProtectionHelper.register()
+        try {
+            accessProtectionHelper.isUidAllowed(uid).shouldBeTrue()
+            val lookups = counting.lookups
+            assertThat(lookups > 0, equalTo(true))
+
+            accessProtectionHelper.isUidAllowed(uid).shouldBeTrue()
+            assertThat(counting.lookups, equalTo(lookups))
+
+            accessProtectionHelper.invalidate(uid)
+            accessProtectionHelper.isUidAllowed(uid).shouldBeTrue()
+            assertThat(counting.lookups, equalTo(2 * lookups))
+        } finally {
+            accessProtectionHelper.unregister()
+        }
+    }
+
+    @Test
+    fun signaturesDifferingByCase() {
+        accessProtectionHelper = AccessProtectionHelper(context, mapOf(
+                "E6D539D9E495619B32D32C7CFFB1FEAE1EFA86726CE6F23668E4FB6D1D80F122" to setOf("NOPE".toRegex()),
+                "e6d539d9e495619b32d32c7cffb1feae1efa86726ce6f23668e4fb6d1d80f122" to setOf("fr.coppernic.lib.utils.test".toRegex())
+        ))
+
+        accessProtectionHelper.arePackagesAllowed(setOf(context.packageName)).shouldBeTrue()
+    }
+
+    @Test
+    fun cacheSize() {
+        accessProtectionHelper = AccessProtectionHelper(context, emptyMap())
+        assertThat(accessProtectionHelper.cacheSize, equalTo(0))
+        accessProtectionHelper.register()
+        try {
+            assertThat(accessProtectionHelper.cacheSize, equalTo(AccessProtectionHelper.DEFAULT_CACHE_SIZE))
+        } finally {
+            accessProtectionHelper.unregister()
+        }
+        assertThat(AccessProtectionHelper(context, emptyMap(), 8).cacheSize, equalTo(8))
+        assertThat(AccessProtectionHelper(context, emptyMap(), 0).cacheSize, equalTo(0))
+    }
 }
@@ -0,0 +1,120 @@
+package fr.coppernic.lib.utils.core;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link ByteArrayMap} holding at most a given number of entries.
+ * <p>
+ * When a new entry is added to a full map, the least recently used entry is evicted. Both
+ * {@code get()} and {@code put()} count as a use. Override {@link #entryEvicted} to be notified of
+ * evictions.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @param <V> Type of values
+ */
+public class ByteArrayLruMap<V> extends ByteArrayMap<V> {
+
+    private static final int NONE = -1;
+
+    private final int mMaxSize;
+    private int[] mPrev;
+    private int[] mNext;
+    /**
+     * Least recently used entry
+     */
+    private int mHead = NONE;
+    /**
+     * Most recently used entry
+     */
+    private int mTail = NONE;
+
+    /**
+     * @param maxSize Maximum number of entries
+     */
+    public ByteArrayLruMap(int maxSize) {
+        super(Math.min(Preconditions.checkArgumentPositive(maxSize, "maxSize <= 0"), 1024));
+        mMaxSize = maxSize;
+        int capacity = Math.max(Math.min(maxSize, 1024), 2);
+        mPrev = new int[capacity];
+        mNext = new int[capacity];
+    }
+
+    /**
+     * @return Maximum number of entries
+     */
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Called when an entry is evicted to make room for a new one. Key is given as a slice of an
+     * internal buffer. It shall not be modified nor kept after the call.
+     *
+     * @param keyBuffer Buffer containing the key
+     * @param keyOffset Offset of the key in buffer
+     * @param keyLength Length of the key
+     * @param value     Value that was associated to key
+     */
+    protected void entryEvicted(@NonNull byte[] keyBuffer, int keyOffset, int keyLength, V value) {
+    }
+
+    @Override
+    void onEntryAdded(int entry) {
+        link(entry);
+        if (size() > mMaxSize) {
+            int eldest = mHead;
+            entryEvicted(slab(), keyOffsetAt(eldest), keyLengthAt(eldest), valueAt(eldest));
+            removeEntry(eldest);
+        }
+    }
+
+    @Override
+    void onEntryAccessed(int entry) {
+        if (entry != mTail) {
+            unlink(entry);
+            link(entry);
+        }
+    }
+
+    @Override
+    void onEntryRemoved(int entry) {
+        unlink(entry);
+    }
+
+    @Override
+    void onCapacityChanged(int capacity) {
+        mPrev = Arrays.copyOf(mPrev, capacity);
+        mNext = Arrays.copyOf(mNext, capacity);
+    }
+
+    private void link(int entry) {
+        mPrev[entry] = mTail;
+        mNext[entry] = NONE;
+        if (mTail == NONE) {
+            mHead = entry;
+        } else {
+            mNext[mTail] = entry;
+        }
+        mTail = entry;
+    }
+
+    private void unlink(int entry) {
+        int prev = mPrev[entry];
+        int next = mNext[entry];
+        if (prev == NONE) {
+            mHead = next;
+        } else {
+            mNext[prev] = next;
+        }
+        if (next == NONE) {
+            mTail = prev;
+        } else {
+            mPrev[next] = prev;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package fr.coppernic.lib.utils.core;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static fr.coppernic.lib.utils.core.Preconditions.checkSlice;
+
+/**
+ * Hash map whose keys are byte arrays compared by content, such as card UIDs or APDU prefixes.
+ * <p>
+ * Keys are copied in a single contiguous byte slab and are looked up with open addressing, so that
+ * there is no need to wrap them in a {@link String} or a {@link java.nio.ByteBuffer} to get a
+ * meaningful {@code equals()}/{@code hashCode()}. All methods accept a {@code (key, offset, len)}
+ * slice so that a key can be looked up directly in a bigger frame without copying it. Lookups do not
+ * allocate.
+ * </p>
+ * <p>
+ * Keys are hashed with {@link XxHash64}. {@code null} keys are not supported, {@code null} values
+ * are.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @param <V> Type of values
+ * @see ByteArraySet
+ * @see ByteArrayLruMap
+ */
+public class ByteArrayMap<V> {
+
+    /**
+     * Receive entries of a map.
+     * <p>
+     * Key is given as a slice of an internal buffer. It shall not be modified nor kept after the call.
+     *
+     * @param <V> Type of values
+     */
+    public interface Visitor<V> {
+        void onEntry(@NonNull byte[] keyBuffer, int keyOffset, int keyLength, V value);
+    }
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+
+    /**
+     * Slots of the hash table. Contains entry index + 1, or {@link #EMPTY}. There are always at
+     * least twice more slots than entries.
+     */
+    private int[] mTable;
+    private int[] mHashes;
+    private int[] mOffsets;
+    private int[] mLengths;
+    private Object[] mValues;
+    /**
+     * Number of entry indexes used so far, removed or not
+     */
+    private int mEntryCount;
+    private int mFreeHead = -1;
+    private int mSize;
+
+    private byte[] mSlab;
+    private int mSlabUsed;
+    private int mSlabGarbage;
+
+    public ByteArrayMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of entries that can be stored before growing internal arrays
+     */
+    public ByteArrayMap(int capacity) {
+        Preconditions.checkArgumentNonnegative(capacity, "capacity must not be negative");
+        capacity = Math.max(capacity, 2);
+        mTable = new int[tableSizeFor(capacity)];
+        mHashes = new int[capacity];
+        mOffsets = new int[capacity];
+        mLengths = new int[capacity];
+        mValues = new Object[capacity];
+        mSlab = new byte[capacity * 8];
+    }
+
+    /**
+     * @return Number of entries in this map
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @Nullable
+    public V get(@NonNull byte[] key) {
+        return get(key, 0, key.length);
+    }
+
+    /**
+     * Get the value associated with the key found in {@code key[offset, offset + len[}.
+     *
+     * @param key    Buffer containing the key
+     * @param offset Offset of the key in buffer
+     * @param len    Length of the key
+     * @return value or null if there is no such key
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(@NonNull byte[] key, int offset, int len) {
+        int e = findEntry(key, offset, len);
+        if (e < 0) {
+            return null;
+        }
+        onEntryAccessed(e);
+        return (V) mValues[e];
+    }
+
+    public boolean containsKey(@NonNull byte[] key) {
+        return containsKey(key, 0, key.length);
+    }
+
+    public boolean containsKey(@NonNull byte[] key, int offset, int len) {
+        return findEntry(key, offset, len) >= 0;
+    }
+
+    @Nullable
+    public V put(@NonNull byte[] key, V value) {
+        return put(key, 0, key.length, value);
+    }
+
+    /**
+     * Associate {@code value} to the key found in {@code key[offset, offset + len[}. Key is copied.
+     *
+     * @param key    Buffer containing the key
+     * @param offset Offset of the key in buffer
+     * @param len    Length of the key
+     * @param value  Value to store
+     * @return previous value or null if there was none
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V put(@NonNull byte[] key, int offset, int len, V value) {
+        checkSlice(key.length, offset, len);
+        int hash = hash(key, offset, len);
+        int slot = findSlot(key, offset, len, hash);
+        if (mTable[slot] != EMPTY) {
+            int e = mTable[slot] - 1;
+            V old = (V) mValues[e];
+            mValues[e] = value;
+            onEntryAccessed(e);
+            return old;
+        }
+
+        if ((mSize + 1) * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+            slot = findSlot(key, offset, len, hash);
+        }
+        int e = newEntry();
+        int keyOffset = allocateKey(len);
+        System.arraycopy(key, offset, mSlab, keyOffset, len);
+        mHashes[e] = hash;
+        mOffsets[e] = keyOffset;
+        mLengths[e] = len;
+        mValues[e] = value;
+        mTable[slot] = e + 1;
+        mSize++;
+        onEntryAdded(e);
+        return null;
+    }
+
+    @Nullable
+    public V remove(@NonNull byte[] key) {
+        return remove(key, 0, key.length);
+    }
+
+    /**
+     * Remove the key found in {@code key[offset, offset + len[}.
+     *
+     * @param key    Buffer containing the key
+     * @param offset Offset of the key in buffer
+     * @param len    Length of the key
+     * @return value that was associated with this key, or null if there was none
+     */
+    @Nullable
+    public V remove(@NonNull byte[] key, int offset, int len) {
+        checkSlice(key.length, offset, len);
+        int slot = findSlot(key, offset, len, hash(key, offset, len));
+        if (mTable[slot] == EMPTY) {
+            return null;
+        }
+        return removeSlot(slot);
+    }
+
+    /**
+     * Remove all entries. Internal buffers are kept.
+     */
+    public void clear() {
+        for (int e = 0; e < mEntryCount; e++) {
+            if (mLengths[e] != REMOVED) {
+                onEntryRemoved(e);
+            }
+        }
+        Arrays.fill(mTable, EMPTY);
+        Arrays.fill(mValues, null);
+        mEntryCount = 0;
+        mFreeHead = -1;
+        mSize = 0;
+        mSlabUsed = 0;
+        mSlabGarbage = 0;
+    }
+
+    /**
+     * Call {@code visitor} for each entry of this map.
+     * <p>
+     * Map shall not be modified during the visit.
+     *
+     * @param visitor Visitor of entries
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(@NonNull Visitor<V> visitor) {
+        for (int e = 0; e < mEntryCount; e++) {
+            if (mLengths[e] != REMOVED) {
+                visitor.onEntry(mSlab, mOffsets[e], mLengths[e], (V) mValues[e]);
+            }
+        }
+    }
+
+    // Hooks used by ByteArrayLruMap
+
+    void onEntryAdded(int entry) {
+    }
+
+    void onEntryAccessed(int entry) {
+    }
+
+    void onEntryRemoved(int entry) {
+    }
+
+    void onCapacityChanged(int capacity) {
+    }
+
+    /**
+     * Remove an entry from its index.
+     */
+    @Nullable
+    V removeEntry(int entry) {
+        int slot = findSlot(mSlab, mOffsets[entry], mLengths[entry], mHashes[entry]);
+        return removeSlot(slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int entry) {
+        return (V) mValues[entry];
+    }
+
+    byte[] slab() {
+        return mSlab;
+    }
+
+    int keyOffsetAt(int entry) {
+        return mOffsets[entry];
+    }
+
+    int keyLengthAt(int entry) {
+        return mLengths[entry];
+    }
+
+    // Internals
+
+    private static int tableSizeFor(int capacity) {
+        int n = 4;
+        while (n < capacity * 2) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    private static int hash(byte[] key, int offset, int len) {
+        long h = XxHash64.hash(key, offset, len, 0);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int findEntry(byte[] key, int offset, int len) {
+        checkSlice(key.length, offset, len);
+        int t = mTable[findSlot(key, offset, len, hash(key, offset, len))];
+        return t - 1;
+    }
+
+    /**
+     * @return slot containing the key, or empty slot where it shall be inserted
+     */
+    private int findSlot(byte[] key, int offset, int len, int hash) {
+        final int mask = mTable.length - 1;
+        int i = hash & mask;
+        while (true) {
+            int t = mTable[i];
+            if (t == EMPTY) {
+                return i;
+            }
+            int e = t - 1;
+            if (mHashes[e] == hash && mLengths[e] == len && keyEquals(mOffsets[e], key, offset, len)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int slabOffset, byte[] key, int offset, int len) {
+        final byte[] slab = mSlab;
+        for (int i = 0; i < len; i++) {
+            if (slab[slabOffset + i] != key[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeSlot(int slot) {
+        int e = mTable[slot] - 1;
+        V old = (V) mValues[e];
+
+        // Backward shift deletion keeps probe sequences unbroken without tombstones
+        final int mask = mTable.length - 1;
+        int i = slot;
+        int j = slot;
+        mTable[i] = EMPTY;
+        while (true) {
+            j = (j + 1) & mask;
+            int t = mTable[j];
+            if (t == EMPTY) {
+                break;
+            }
+            int home = mHashes[t - 1] & mask;
+            boolean stay = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stay) {
+                mTable[i] = t;
+                mTable[j] = EMPTY;
+                i = j;
+            }
+        }
+
+        onEntryRemoved(e);
+        mSlabGarbage += mLengths[e];
+        mLengths[e] = REMOVED;
+        mValues[e] = null;
+        mOffsets[e] = mFreeHead;
+        mFreeHead = e;
+        mSize--;
+        return old;
+    }
+
+    private int newEntry() {
+        if (mFreeHead >= 0) {
+            int e = mFreeHead;
+            mFreeHead = mOffsets[e];
+            return e;
+        }
+        if (mEntryCount == mHashes.length) {
+            int capacity = mHashes.length * 2;
+            mHashes = Arrays.copyOf(mHashes, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+            onCapacityChanged(capacity);
+        }
+        return mEntryCount++;
+    }
+
+    private int allocateKey(int len) {
+        if (mSlabUsed + len > mSlab.length) {
+            if (mSlabGarbage * 2 >= mSlabUsed) {
+                compactSlab();
+            }
+            if (mSlabUsed + len > mSlab.length) {
+                mSlab = Arrays.copyOf(mSlab, Math.max(mSlab.length * 2, mSlabUsed + len));
+            }
+        }
+        int offset = mSlabUsed;
+        mSlabUsed += len;
+        return offset;
+    }
+
+    private void compactSlab() {
+        byte[] slab = new byte[mSlab.length];
+        int used = 0;
+        for (int e = 0; e < mEntryCount; e++) {
+            int len = mLengths[e];
+            if (len != REMOVED) {
+                System.arraycopy(mSlab, mOffsets[e], slab, used, len);
+                mOffsets[e] = used;
+                used += len;
+            }
+        }
+        mSlab = slab;
+        mSlabUsed = used;
+        mSlabGarbage = 0;
+    }
+
+    private void rehash(int tableSize) {
+        int[] table = new int[tableSize];
+        final int mask = tableSize - 1;
+        for (int e = 0; e < mEntryCount; e++) {
+            if (mLengths[e] != REMOVED) {
+                int i = mHashes[e] & mask;
+                while (table[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = e + 1;
+            }
+        }
+        mTable = table;
+    }
+}
@@ -0,0 +1,105 @@
+package fr.coppernic.lib.utils.core;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Set of byte arrays compared by content, such as card UIDs.
+ * <p>
+ * Backed by a {@link ByteArrayMap}: keys are copied in a contiguous slab and can be looked up from a
+ * {@code (key, offset, len)} slice without copying.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+public final class ByteArraySet {
+
+    /**
+     * Receive elements of a set.
+     * <p>
+     * Element is given as a slice of an internal buffer. It shall not be modified nor kept after the
+     * call.
+     */
+    public interface Visitor {
+        void onElement(@NonNull byte[] buffer, int offset, int length);
+    }
+
+    private final ByteArrayMap<Boolean> mMap;
+
+    public ByteArraySet() {
+        mMap = new ByteArrayMap<>();
+    }
+
+    /**
+     * @param capacity Number of elements that can be stored before growing internal arrays
+     */
+    public ByteArraySet(int capacity) {
+        mMap = new ByteArrayMap<>(capacity);
+    }
+
+    public int size() {
+        return mMap.size();
+    }
+
+    public boolean isEmpty() {
+        return mMap.isEmpty();
+    }
+
+    public boolean contains(@NonNull byte[] element) {
+        return mMap.containsKey(element);
+    }
+
+    public boolean contains(@NonNull byte[] element, int offset, int len) {
+        return mMap.containsKey(element, offset, len);
+    }
+
+    /**
+     * @param element element to add. It is copied.
+     * @return true if the set did not already contain the element
+     */
+    public boolean add(@NonNull byte[] element) {
+        return add(element, 0, element.length);
+    }
+
+    /**
+     * @param element Buffer containing the element to add. Element is copied.
+     * @param offset  Offset of the element in buffer
+     * @param len     Length of the element
+     * @return true if the set did not already contain the element
+     */
+    public boolean add(@NonNull byte[] element, int offset, int len) {
+        return mMap.put(element, offset, len, Boolean.TRUE) == null;
+    }
+
+    /**
+     * @return true if the set contained the element
+     */
+    public boolean remove(@NonNull byte[] element) {
+        return remove(element, 0, element.length);
+    }
+
+    /**
+     * @return true if the set contained the element
+     */
+    public boolean remove(@NonNull byte[] element, int offset, int len) {
+        return mMap.remove(element, offset, len) != null;
+    }
+
+    public void clear() {
+        mMap.clear();
+    }
+
+    /**
+     * Call {@code visitor} for each element of this set. Set shall not be modified during the visit.
+     *
+     * @param visitor Visitor of elements
+     */
+    public void forEach(@NonNull final Visitor visitor) {
+        mMap.forEach(new ByteArrayMap.Visitor<Boolean>() {
+            @Override
+            public void onEntry(@NonNull byte[] keyBuffer, int keyOffset, int keyLength, Boolean value) {
+                visitor.onElement(keyBuffer, keyOffset, keyLength);
+            }
+        });
+    }
+}
@@ -1,12 +1,18 @@
 package fr.coppernic.lib.utils.core;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import androidx.annotation.NonNull;
 
+import static fr.coppernic.lib.utils.core.Preconditions.checkSlice;
+
 /**
  * Provide hashing functions using the Modified Bernstein hash
+ * <p>
+ * Methods taking an {@code (array, offset, len)} triple or a {@link ByteBuffer} do not allocate. For
+ * a faster and better distributed 64 bits hash of byte data, see {@link XxHash64}.
  */
 public final class HashHelpers {
 
@@ -64,6 +70,130 @@ public final class HashHelpers {
         return h;
     }
 
+    /**
+     * Hash a slice of an array uniformly using the Modified Bernstein hash.
+     * <p>
+     * Gives the same result as {@link #hashCode(int...)} called with a copy of the slice.
+     *
+     * @param array  array of integers
+     * @param offset index of the first element to hash
+     * @param len    number of elements to hash
+     * @return the numeric hash code
+     * @throws ArrayIndexOutOfBoundsException if the slice is outside of the array
+     */
+    public static int hashCode(int[] array, int offset, int len) {
+        if (array == null) {
+            return 0;
+        }
+        checkSlice(array.length, offset, len);
+
+        int h = 1;
+        for (int i = offset, end = offset + len; i < end; i++) {
+            h = ((h << 5) - h) ^ array[i]; // (h * 31) XOR x
+        }
+
+        return h;
+    }
+
+    /**
+     * Hash a slice of an array uniformly using the Modified Bernstein hash.
+     * <p>
+     * Each long is folded in an int the same way as {@link Long#hashCode()}.
+     *
+     * @param array  array of longs
+     * @param offset index of the first element to hash
+     * @param len    number of elements to hash
+     * @return the numeric hash code
+     * @throws ArrayIndexOutOfBoundsException if the slice is outside of the array
+     */
+    public static int hashCode(long[] array, int offset, int len) {
+        if (array == null) {
+            return 0;
+        }
+        checkSlice(array.length, offset, len);
+
+        int h = 1;
+        for (int i = offset, end = offset + len; i < end; i++) {
+            long l = array[i];
+            int x = (int) (l ^ (l >>> 32));
+            h = ((h << 5) - h) ^ x; // (h * 31) XOR x
+        }
+
+        return h;
+    }
+
+    /**
+     * Hash a slice of an array uniformly using the Modified Bernstein hash.
+     *
+     * @param array  array of bytes
+     * @param offset index of the first element to hash
+     * @param len    number of elements to hash
+     * @return the numeric hash code
+     * @throws ArrayIndexOutOfBoundsException if the slice is outside of the array
+     */
+    public static int hashCode(byte[] array, int offset, int len) {
+        if (array == null) {
+            return 0;
+        }
+        checkSlice(array.length, offset, len);
+
+        int h = 1;
+        for (int i = offset, end = offset + len; i < end; i++) {
+            h = ((h << 5) - h) ^ array[i]; // (h * 31) XOR x
+        }
+
+        return h;
+    }
+
+    /**
+     * Hash remaining bytes of a buffer uniformly using the Modified Bernstein hash.
+     * <p>
+     * Bytes between position and limit are hashed. Buffer's position is not modified. Gives the same
+     * result as {@link #hashCode(byte[], int, int)} on the same bytes.
+     *
+     * @param buffer buffer of bytes
+     * @return the numeric hash code
+     */
+    public static int hashCode(ByteBuffer buffer) {
+        if (buffer == null) {
+            return 0;
+        }
+        if (buffer.hasArray()) {
+            return hashCode(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        int h = 1;
+        for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+            h = ((h << 5) - h) ^ buffer.get(i); // (h * 31) XOR x
+        }
+
+        return h;
+    }
+
+    /**
+     * Compute the 64 bits xxHash of a slice of an array, with a seed of 0.
+     *
+     * @param array  array of bytes
+     * @param offset index of the first byte to hash
+     * @param len    number of bytes to hash
+     * @return the 64 bits hash
+     * @see XxHash64
+     */
+    public static long hash64(byte[] array, int offset, int len) {
+        return XxHash64.hash(array, offset, len, 0);
+    }
+
+    /**
+     * Compute the 64 bits xxHash of an array, with a seed of 0.
+     *
+     * @param array array of bytes
+     * @return the 64 bits hash
+     * @see XxHash64
+     */
+    public static long hash64(byte[] array) {
+        return XxHash64.hash(array, 0, array.length, 0);
+    }
+
     /**
      * Hash every element uniformly using the Modified Bernstein hash.
      *
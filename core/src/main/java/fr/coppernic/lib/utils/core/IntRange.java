@@ -0,0 +1,264 @@
+package fr.coppernic.lib.utils.core;
+
+/**
+ * Immutable class for describing the range of two int values.
+ * <p>
+ * This is the primitive counterpart of {@link Range}: endpoints are inclusive, the lower endpoint is
+ * always {@code <=} the upper endpoint, and every method has the same semantics as the
+ * {@link Range} one with the same name. Bounds are never boxed and {@link #contains(int)} and
+ * {@link #clamp(int)} do not allocate.
+ * </p>
+ */
+public final class IntRange {
+    private final int mLower;
+    private final int mUpper;
+
+    /**
+     * Create a new immutable range.
+     * <p>
+     * The endpoints are {@code [lower, upper]}; that is the range is bounded. {@code lower} must be
+     * lesser or equal to {@code upper}.
+     * </p>
+     *
+     * @param lower The lower endpoint (inclusive)
+     * @param upper The upper endpoint (inclusive)
+     * @throws IllegalArgumentException if {@code lower} is greater than {@code upper}
+     */
+    public IntRange(final int lower, final int upper) {
+        if (lower > upper) {
+            throw new IllegalArgumentException("lower must be less than or equal to upper");
+        }
+        mLower = lower;
+        mUpper = upper;
+    }
+
+    /**
+     * Create a new immutable range.
+     *
+     * @param lower The lower endpoint (inclusive)
+     * @param upper The upper endpoint (inclusive)
+     * @return a new range
+     * @throws IllegalArgumentException if {@code lower} is greater than {@code upper}
+     */
+    public static IntRange create(final int lower, final int upper) {
+        return new IntRange(lower, upper);
+    }
+
+    /**
+     * Get the lower endpoint.
+     *
+     * @return lower endpoint
+     */
+    public int getLower() {
+        return mLower;
+    }
+
+    /**
+     * Get the upper endpoint.
+     *
+     * @return upper endpoint
+     */
+    public int getUpper() {
+        return mUpper;
+    }
+
+    /**
+     * Checks if the {@code value} is within the bounds of this range.
+     *
+     * @param value value to check
+     * @return {@code true} if the value is within this inclusive range, {@code false} otherwise
+     */
+    public boolean contains(int value) {
+        return value >= mLower && value <= mUpper;
+    }
+
+    /**
+     * Checks if another {@code range} is within the bounds of this range.
+     *
+     * @param range a non-{@code null} range
+     * @return {@code true} if the range is within this inclusive range, {@code false} otherwise
+     * @throws NullPointerException if {@code range} was {@code null}
+     */
+    public boolean contains(IntRange range) {
+        Preconditions.checkNotNull(range, "value must not be null");
+        return range.mLower >= mLower && range.mUpper <= mUpper;
+    }
+
+    /**
+     * Checks if this range and the inclusive range specified by {@code [lower, upper]} share at least
+     * one value.
+     * <p>
+     * Unlike {@link #intersect(int, int)}, this method does not allocate nor throw when ranges are
+     * disjoint.
+     * </p>
+     *
+     * @param lower lower endpoint (inclusive)
+     * @param upper upper endpoint (inclusive)
+     * @return {@code true} if ranges overlap
+     */
+    public boolean overlaps(int lower, int upper) {
+        return lower <= mUpper && upper >= mLower;
+    }
+
+    /**
+     * Checks if this range and another {@code range} share at least one value.
+     *
+     * @param range a non-{@code null} range
+     * @return {@code true} if ranges overlap
+     * @throws NullPointerException if {@code range} was {@code null}
+     */
+    public boolean overlaps(IntRange range) {
+        Preconditions.checkNotNull(range, "range must not be null");
+        return overlaps(range.mLower, range.mUpper);
+    }
+
+    /**
+     * Clamps {@code value} to this range.
+     *
+     * @param value value to clamp
+     * @return {@code value} clamped to this range.
+     */
+    public int clamp(int value) {
+        if (value < mLower) {
+            return mLower;
+        } else if (value > mUpper) {
+            return mUpper;
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * Returns the intersection of this range and another {@code range}.
+     * <p>
+     * If one range includes the other one, the included range is returned as is.
+     * </p>
+     *
+     * @param range a non-{@code null} range
+     * @return the intersection of this range and the other range.
+     * @throws NullPointerException     if {@code range} was {@code null}
+     * @throws IllegalArgumentException if the ranges are disjoint.
+     */
+    public IntRange intersect(IntRange range) {
+        Preconditions.checkNotNull(range, "range must not be null");
+
+        if (range.mLower <= mLower && range.mUpper >= mUpper) {
+            // range includes this
+            return this;
+        } else if (range.mLower >= mLower && range.mUpper <= mUpper) {
+            // this includes range
+            return range;
+        } else {
+            return IntRange.create(Math.max(mLower, range.mLower), Math.min(mUpper, range.mUpper));
+        }
+    }
+
+    /**
+     * Returns the intersection of this range and the inclusive range specified by
+     * {@code [lower, upper]}.
+     *
+     * @param lower lower endpoint (inclusive)
+     * @param upper upper endpoint (inclusive)
+     * @return the intersection of this range and the other range
+     * @throws IllegalArgumentException if the ranges are disjoint.
+     */
+    public IntRange intersect(int lower, int upper) {
+        if (lower <= mLower && upper >= mUpper) {
+            // [lower, upper] includes this
+            return this;
+        } else {
+            return IntRange.create(Math.max(mLower, lower), Math.min(mUpper, upper));
+        }
+    }
+
+    /**
+     * Returns the smallest range that includes this range and another {@code range}.
+     *
+     * @param range a non-{@code null} range
+     * @return the extension of this range and the other range.
+     * @throws NullPointerException if {@code range} was {@code null}
+     */
+    public IntRange extend(IntRange range) {
+        Preconditions.checkNotNull(range, "range must not be null");
+
+        if (range.mLower <= mLower && range.mUpper >= mUpper) {
+            // other includes this
+            return range;
+        } else if (range.mLower >= mLower && range.mUpper <= mUpper) {
+            // this includes other
+            return this;
+        } else {
+            return IntRange.create(Math.min(mLower, range.mLower), Math.max(mUpper, range.mUpper));
+        }
+    }
+
+    /**
+     * Returns the smallest range that includes this range and the inclusive range specified by
+     * {@code [lower, upper]}.
+     *
+     * @param lower lower endpoint (inclusive)
+     * @param upper upper endpoint (inclusive)
+     * @return the extension of this range and the other range.
+     */
+    public IntRange extend(int lower, int upper) {
+        if (lower >= mLower && upper <= mUpper) {
+            // this includes other
+            return this;
+        } else {
+            return IntRange.create(Math.min(mLower, lower), Math.max(mUpper, upper));
+        }
+    }
+
+    /**
+     * Returns the smallest range that includes this range and the {@code value}.
+     *
+     * @param value value to include
+     * @return the extension of this range and the value.
+     */
+    public IntRange extend(int value) {
+        return extend(value, value);
+    }
+
+    /**
+     * @return the equivalent boxed {@link Range}
+     */
+    public Range<Integer> toRange() {
+        return Range.create(mLower, mUpper);
+    }
+
+    /**
+     * Compare two ranges for equality.
+     *
+     * @return {@code true} if the ranges are equal, {@code false} otherwise
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        } else if (this == obj) {
+            return true;
+        } else if (obj instanceof IntRange) {
+            IntRange other = (IntRange) obj;
+            return mLower == other.mLower && mUpper == other.mUpper;
+        }
+        return false;
+    }
+
+    /**
+     * Return the range as a string representation {@code "[lower, upper]"}.
+     *
+     * @return string representation of the range
+     */
+    @Override
+    public String toString() {
+        return "[" + mLower + ", " + mUpper + "]";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return HashHelpers.hashCode(mLower, mUpper);
+    }
+}
@@ -352,6 +352,21 @@ public final class Preconditions {
         return value;
     }
 
+    /**
+     * Ensures that a slice lies within an array or buffer.
+     *
+     * @param length length of array or buffer
+     * @param offset start of slice
+     * @param len    length of slice
+     * @throws ArrayIndexOutOfBoundsException if slice is not within {@code length}
+     */
+    public static void checkSlice(int length, int offset, int len) {
+        if (offset < 0 || len < 0 || offset > length - len) {
+            throw new ArrayIndexOutOfBoundsException(
+                "offset " + offset + ", len " + len + " out of length " + length);
+        }
+    }
+
     /**
      * Ensures that the array is not {@code null}, and none of its elements are {@code null}.
      *
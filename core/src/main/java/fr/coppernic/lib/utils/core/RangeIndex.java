@@ -0,0 +1,327 @@
+package fr.coppernic.lib.utils.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static fr.coppernic.lib.utils.core.Preconditions.checkNotNull;
+
+/**
+ * Immutable index of inclusive ranges answering point and overlap queries in {@code O(log n + k)},
+ * {@code k} being the number of ranges reported.
+ * <p>
+ * Ranges are kept sorted by lower endpoint in primitive arrays, which are the in-order layout of an
+ * implicit balanced binary tree. Each node also stores the maximum upper endpoint of its sub-tree so
+ * that sub-trees that cannot overlap a query are skipped. Queries do not allocate.
+ * </p>
+ * <p>
+ * Each range is identified by its position in the collection or array used to build the index.
+ * Results are reported by ascending lower endpoint.
+ * </p>
+ */
+public final class RangeIndex {
+
+    /**
+     * Receive ranges matching a query.
+     */
+    public interface Visitor {
+        /**
+         * @param id Identifier of the range, that is its position when index was created
+         */
+        void onRange(int id);
+    }
+
+    /**
+     * Below this level, sub-trees are small enough to be scanned linearly.
+     */
+    private static final int SCAN_LEVEL = 3;
+
+    /**
+     * Per thread slot used by {@link #indexOf(long)} to avoid allocating on each query.
+     */
+    private static final ThreadLocal<int[]> FIRST = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private final long[] mLowers;
+    private final long[] mUppers;
+    private final int[] mIds;
+    private final int[] mPositions;
+    private final long[] mMax;
+    private final int mRoot;
+    private final int mLevel;
+
+    private RangeIndex(final long[] lowers, final long[] uppers) {
+        final int n = lowers.length;
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long l1 = lowers[o1];
+                long l2 = lowers[o2];
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+
+        mLowers = new long[n];
+        mUppers = new long[n];
+        mIds = new int[n];
+        mPositions = new int[n];
+        for (int i = 0; i < n; i++) {
+            int id = order[i];
+            mLowers[i] = lowers[id];
+            mUppers[i] = uppers[id];
+            mIds[i] = id;
+            mPositions[id] = i;
+        }
+
+        int level = 0;
+        while ((1 << (level + 1)) - 1 < n) {
+            level++;
+        }
+        mLevel = level;
+        mRoot = (1 << level) - 1;
+        mMax = new long[n == 0 ? 0 : (1 << (level + 1)) - 1];
+        if (n > 0) {
+            buildMax(mRoot, mLevel);
+        }
+    }
+
+    /**
+     * Create an index from ranges. Range identifiers are their position in {@code ranges}.
+     *
+     * @param ranges a non-{@code null} array of non-{@code null} ranges
+     * @return a new index
+     */
+    public static RangeIndex create(@NonNull LongRange... ranges) {
+        checkNotNull(ranges, "ranges must not be null");
+        long[] lowers = new long[ranges.length];
+        long[] uppers = new long[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            LongRange r = checkNotNull(ranges[i], "range must not be null");
+            lowers[i] = r.getLower();
+            uppers[i] = r.getUpper();
+        }
+        return new RangeIndex(lowers, uppers);
+    }
+
+    /**
+     * Create an index from ranges. Range identifiers are their position in {@code ranges}.
+     *
+     * @param ranges a non-{@code null} array of non-{@code null} ranges
+     * @return a new index
+     */
+    public static RangeIndex create(@NonNull IntRange... ranges) {
+        checkNotNull(ranges, "ranges must not be null");
+        long[] lowers = new long[ranges.length];
+        long[] uppers = new long[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            IntRange r = checkNotNull(ranges[i], "range must not be null");
+            lowers[i] = r.getLower();
+            uppers[i] = r.getUpper();
+        }
+        return new RangeIndex(lowers, uppers);
+    }
+
+    /**
+     * Create an index from ranges. Range identifiers are their position in iteration order.
+     *
+     * @param ranges a non-{@code null} collection of non-{@code null} ranges
+     * @return a new index
+     */
+    public static RangeIndex create(@NonNull Collection<LongRange> ranges) {
+        checkNotNull(ranges, "ranges must not be null");
+        return create(ranges.toArray(new LongRange[0]));
+    }
+
+    /**
+     * Create an index from endpoints. {@code lowers[i]} and {@code uppers[i]} describe range
+     * {@code i}.
+     *
+     * @param lowers Lower endpoints (inclusive)
+     * @param uppers Upper endpoints (inclusive)
+     * @return a new index
+     * @throws IllegalArgumentException if arrays do not have the same length or if a lower endpoint
+     *                                  is greater than its upper endpoint
+     */
+    public static RangeIndex create(@NonNull long[] lowers, @NonNull long[] uppers) {
+        checkNotNull(lowers, "lowers must not be null");
+        checkNotNull(uppers, "uppers must not be null");
+        Preconditions.checkArgument(lowers.length == uppers.length,
+                                    "lowers and uppers must have the same length");
+        for (int i = 0; i < lowers.length; i++) {
+            if (lowers[i] > uppers[i]) {
+                throw new IllegalArgumentException("lower must be less than or equal to upper");
+            }
+        }
+        return new RangeIndex(lowers.clone(), uppers.clone());
+    }
+
+    /**
+     * @return Number of ranges in this index
+     */
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * Get the first range containing {@code value}, first meaning the one with the smallest lower
+     * endpoint.
+     *
+     * @param value Value to look for
+     * @return range identifier or -1 if no range contains this value
+     */
+    public int indexOf(long value) {
+        if (mIds.length == 0) {
+            return -1;
+        }
+        int[] found = FIRST.get();
+        return visit(mRoot, mLevel, value, value, found, null, 0, 1) == 0 ? -1 : found[0];
+    }
+
+    /**
+     * @param value Value to look for
+     * @return true if at least one range contains {@code value}
+     */
+    public boolean contains(long value) {
+        return mIds.length != 0 && visit(mRoot, mLevel, value, value, null, null, 0, 1) != 0;
+    }
+
+    /**
+     * Count ranges overlapping {@code [lower, upper]}.
+     *
+     * @param lower lower endpoint (inclusive)
+     * @param upper upper endpoint (inclusive)
+     * @return number of overlapping ranges
+     */
+    public int count(long lower, long upper) {
+        if (mIds.length == 0) {
+            return 0;
+        }
+        return visit(mRoot, mLevel, lower, upper, null, null, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get identifiers of ranges overlapping {@code [lower, upper]}.
+     * <p>
+     * At most {@code out.length} identifiers are written in {@code out}, but the returned value is
+     * always the total number of overlapping ranges, so that caller can detect that {@code out} is
+     * too small.
+     * </p>
+     *
+     * @param lower lower endpoint (inclusive)
+     * @param upper upper endpoint (inclusive)
+     * @param out   Array receiving range identifiers
+     * @return number of overlapping ranges
+     */
+    public int query(long lower, long upper, @NonNull int[] out) {
+        checkNotNull(out, "out must not be null");
+        if (mIds.length == 0) {
+            return 0;
+        }
+        return visit(mRoot, mLevel, lower, upper, out, null, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Call {@code visitor} for each range overlapping {@code [lower, upper]}.
+     *
+     * @param lower   lower endpoint (inclusive)
+     * @param upper   upper endpoint (inclusive)
+     * @param visitor Visitor called for each overlapping range
+     * @return number of overlapping ranges
+     */
+    public int query(long lower, long upper, @NonNull Visitor visitor) {
+        checkNotNull(visitor, "visitor must not be null");
+        if (mIds.length == 0) {
+            return 0;
+        }
+        return visit(mRoot, mLevel, lower, upper, null, visitor, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param id Range identifier
+     * @return Lower endpoint of range
+     */
+    public long getLower(int id) {
+        return mLowers[mPositions[id]];
+    }
+
+    /**
+     * @param id Range identifier
+     * @return Upper endpoint of range
+     */
+    public long getUpper(int id) {
+        return mUppers[mPositions[id]];
+    }
+
+    private long buildMax(int x, int k) {
+        final int n = mIds.length;
+        long max = x < n ? mUppers[x] : Long.MIN_VALUE;
+        if (k > 0) {
+            int half = 1 << (k - 1);
+            max = Math.max(max, buildMax(x - half, k - 1));
+            max = Math.max(max, buildMax(x + half, k - 1));
+        }
+        mMax[x] = max;
+        return max;
+    }
+
+    /**
+     * In-order traversal of the sub-tree rooted at {@code x} of level {@code k}.
+     *
+     * @return updated count of reported ranges
+     */
+    private int visit(int x, int k, long lower, long upper,
+                      @Nullable int[] out, @Nullable Visitor visitor, int count, int limit) {
+        if (mMax[x] < lower) {
+            // Nothing in this sub-tree goes up to lower
+            return count;
+        }
+        final int n = mIds.length;
+        if (k <= SCAN_LEVEL) {
+            int end = Math.min(x + (1 << k) - 1, n - 1);
+            for (int i = x - (1 << k) + 1; i <= end && mLowers[i] <= upper; i++) {
+                if (mUppers[i] >= lower) {
+                    count = report(mIds[i], out, visitor, count);
+                    if (count >= limit) {
+                        return count;
+                    }
+                }
+            }
+            return count;
+        }
+        int half = 1 << (k - 1);
+        count = visit(x - half, k - 1, lower, upper, out, visitor, count, limit);
+        if (count >= limit || x >= n || mLowers[x] > upper) {
+            return count;
+        }
+        if (mUppers[x] >= lower) {
+            count = report(mIds[x], out, visitor, count);
+            if (count >= limit) {
+                return count;
+            }
+        }
+        return visit(x + half, k - 1, lower, upper, out, visitor, count, limit);
+    }
+
+    private static int report(int id, @Nullable int[] out, @Nullable Visitor visitor, int count) {
+        if (out != null && count < out.length) {
+            out[count] = id;
+        }
+        if (visitor != null) {
+            visitor.onRange(id);
+        }
+        return count + 1;
+    }
+
+}
@@ -0,0 +1,344 @@
+package fr.coppernic.lib.utils.core;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Non cryptographic 64 bits hash, implementing the xxHash64 algorithm.
+ * <p>
+ * See <a href="https://github.com/Cyan4973/xxHash">xxHash</a>. Data is consumed 8 bytes at a time,
+ * which makes it a lot faster than a byte per byte hash on card UIDs or payloads. Output is the same
+ * as the reference implementation.
+ * <p>
+ * Static methods hash a whole slice at once. An instance hashes data incrementally:
+ * <pre>   {@code
+ *
+ *   XxHash64 h = new XxHash64();
+ *   h.update(header, 0, header.length);
+ *   h.update(payload, 0, payload.length);
+ *   long hash = h.getValue();
+ * }</pre>
+ * <p>
+ * Instances are not thread safe. No method allocates memory.
+ */
+public final class XxHash64 implements Checksum {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private final long seed;
+    private final byte[] memory = new byte[STRIPE];
+    private int memorySize;
+    private long totalLen;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+
+    /**
+     * Create an incremental hash with a seed of 0
+     */
+    public XxHash64() {
+        this(0);
+    }
+
+    /**
+     * Create an incremental hash
+     *
+     * @param seed Seed of the hash
+     */
+    public XxHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    /**
+     * Hash a slice of an array
+     *
+     * @param array  array of bytes
+     * @param offset index of the first byte to hash
+     * @param len    number of bytes to hash
+     * @param seed   Seed of the hash
+     * @return 64 bits hash
+     * @throws ArrayIndexOutOfBoundsException if the slice is outside of the array
+     */
+    public static long hash(@NonNull byte[] array, int offset, int len, long seed) {
+        Preconditions.checkSlice(array.length, offset, len);
+
+        final int end = offset + len;
+        int p = offset;
+        long h;
+
+        if (len >= STRIPE) {
+            long a1 = seed + PRIME1 + PRIME2;
+            long a2 = seed + PRIME2;
+            long a3 = seed;
+            long a4 = seed - PRIME1;
+            final int limit = end - STRIPE;
+            do {
+                a1 = round(a1, readLong(array, p));
+                a2 = round(a2, readLong(array, p + 8));
+                a3 = round(a3, readLong(array, p + 16));
+                a4 = round(a4, readLong(array, p + 24));
+                p += STRIPE;
+            } while (p <= limit);
+            h = mergeAccumulators(a1, a2, a3, a4);
+        } else {
+            h = seed + PRIME5;
+        }
+
+        h += len;
+        return finish(h, array, p, end);
+    }
+
+    /**
+     * Hash remaining bytes of a buffer. Buffer's position is not modified.
+     *
+     * @param buffer buffer of bytes
+     * @param seed   Seed of the hash
+     * @return 64 bits hash
+     */
+    public static long hash(@NonNull ByteBuffer buffer, long seed) {
+        if (buffer.hasArray()) {
+            return hash(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), seed);
+        }
+
+        final int end = buffer.limit();
+        final int len = buffer.remaining();
+        int p = buffer.position();
+        long h;
+
+        if (len >= STRIPE) {
+            long a1 = seed + PRIME1 + PRIME2;
+            long a2 = seed + PRIME2;
+            long a3 = seed;
+            long a4 = seed - PRIME1;
+            final int limit = end - STRIPE;
+            do {
+                a1 = round(a1, readLong(buffer, p));
+                a2 = round(a2, readLong(buffer, p + 8));
+                a3 = round(a3, readLong(buffer, p + 16));
+                a4 = round(a4, readLong(buffer, p + 24));
+                p += STRIPE;
+            } while (p <= limit);
+            h = mergeAccumulators(a1, a2, a3, a4);
+        } else {
+            h = seed + PRIME5;
+        }
+
+        h += len;
+        while (p + 8 <= end) {
+            h ^= round(0, readLong(buffer, p));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            p += 8;
+        }
+        if (p + 4 <= end) {
+            h ^= (readInt(buffer, p) & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            p += 4;
+        }
+        while (p < end) {
+            h ^= (buffer.get(p) & 0xFF) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+            p++;
+        }
+        return avalanche(h);
+    }
+
+    @Override
+    public void update(int b) {
+        memory[memorySize++] = (byte) b;
+        totalLen++;
+        if (memorySize == STRIPE) {
+            consumeStripe(memory, 0);
+            memorySize = 0;
+        }
+    }
+
+    /**
+     * Add all bytes of array to the hash
+     *
+     * @param b array of bytes
+     */
+    public void update(@NonNull byte[] b) {
+        update(b, 0, b.length);
+    }
+
+    @Override
+    public void update(@NonNull byte[] b, int off, int len) {
+        Preconditions.checkSlice(b.length, off, len);
+        totalLen += len;
+
+        if (memorySize + len < STRIPE) {
+            System.arraycopy(b, off, memory, memorySize, len);
+            memorySize += len;
+            return;
+        }
+
+        final int end = off + len;
+        int p = off;
+        if (memorySize > 0) {
+            int fill = STRIPE - memorySize;
+            System.arraycopy(b, p, memory, memorySize, fill);
+            consumeStripe(memory, 0);
+            p += fill;
+            memorySize = 0;
+        }
+        while (p <= end - STRIPE) {
+            consumeStripe(b, p);
+            p += STRIPE;
+        }
+        if (p < end) {
+            memorySize = end - p;
+            System.arraycopy(b, p, memory, 0, memorySize);
+        }
+    }
+
+    /**
+     * Add remaining bytes of buffer to the hash. Buffer's position is moved to its limit.
+     *
+     * @param buffer buffer of bytes
+     */
+    public void update(@NonNull ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            while (buffer.hasRemaining()) {
+                int n = Math.min(buffer.remaining(), STRIPE - memorySize);
+                buffer.get(memory, memorySize, n);
+                memorySize += n;
+                totalLen += n;
+                if (memorySize == STRIPE) {
+                    consumeStripe(memory, 0);
+                    memorySize = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the hash of all bytes given so far. Hash can still be updated after this call.
+     *
+     * @return 64 bits hash
+     */
+    @Override
+    public long getValue() {
+        long h;
+        if (totalLen >= STRIPE) {
+            h = mergeAccumulators(v1, v2, v3, v4);
+        } else {
+            h = seed + PRIME5;
+        }
+        h += totalLen;
+        return finish(h, memory, 0, memorySize);
+    }
+
+    @Override
+    public void reset() {
+        v1 = seed + PRIME1 + PRIME2;
+        v2 = seed + PRIME2;
+        v3 = seed;
+        v4 = seed - PRIME1;
+        totalLen = 0;
+        memorySize = 0;
+    }
+
+    private void consumeStripe(byte[] b, int p) {
+        v1 = round(v1, readLong(b, p));
+        v2 = round(v2, readLong(b, p + 8));
+        v3 = round(v3, readLong(b, p + 16));
+        v4 = round(v4, readLong(b, p + 24));
+    }
+
+    private static long finish(long h, byte[] b, int p, int end) {
+        while (p + 8 <= end) {
+            h ^= round(0, readLong(b, p));
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            p += 8;
+        }
+        if (p + 4 <= end) {
+            h ^= (readInt(b, p) & 0xFFFFFFFFL) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            p += 4;
+        }
+        while (p < end) {
+            h ^= (b[p] & 0xFF) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+            p++;
+        }
+        return avalanche(h);
+    }
+
+    private static long mergeAccumulators(long a1, long a2, long a3, long a4) {
+        long h = Long.rotateLeft(a1, 1) + Long.rotateLeft(a2, 7)
+                 + Long.rotateLeft(a3, 12) + Long.rotateLeft(a4, 18);
+        h = mergeRound(h, a1);
+        h = mergeRound(h, a2);
+        h = mergeRound(h, a3);
+        h = mergeRound(h, a4);
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long readLong(byte[] b, int p) {
+        return (b[p] & 0xFFL)
+               | (b[p + 1] & 0xFFL) << 8
+               | (b[p + 2] & 0xFFL) << 16
+               | (b[p + 3] & 0xFFL) << 24
+               | (b[p + 4] & 0xFFL) << 32
+               | (b[p + 5] & 0xFFL) << 40
+               | (b[p + 6] & 0xFFL) << 48
+               | (b[p + 7] & 0xFFL) << 56;
+    }
+
+    private static int readInt(byte[] b, int p) {
+        return (b[p] & 0xFF)
+               | (b[p + 1] & 0xFF) << 8
+               | (b[p + 2] & 0xFF) << 16
+               | (b[p + 3] & 0xFF) << 24;
+    }
+
+    private static long readLong(ByteBuffer b, int p) {
+        return (b.get(p) & 0xFFL)
+               | (b.get(p + 1) & 0xFFL) << 8
+               | (b.get(p + 2) & 0xFFL) << 16
+               | (b.get(p + 3) & 0xFFL) << 24
+               | (b.get(p + 4) & 0xFFL) << 32
+               | (b.get(p + 5) & 0xFFL) << 40
+               | (b.get(p + 6) & 0xFFL) << 48
+               | (b.get(p + 7) & 0xFFL) << 56;
+    }
+
+    private static int readInt(ByteBuffer b, int p) {
+        return (b.get(p) & 0xFF)
+               | (b.get(p + 1) & 0xFF) << 8
+               | (b.get(p + 2) & 0xFF) << 16
+               | (b.get(p + 3) & 0xFF) << 24;
+    }
+}
@@ -1,5 +1,7 @@
 package fr.coppernic.lib.utils.crypto;
 
+import java.security.GeneralSecurityException;
+
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -33,64 +35,18 @@ public final class Aes {
     }
 
     public static byte[] getCmac(byte[] key, byte[] message) {
-        int constBsize = 16;
-        boolean flag;
-        byte[] mLast;
-        byte r = (byte) (message.length % constBsize);
-        // Step 1.
-        byte[][] k = generateSubkey(key);
-
-        // Step 2.
-        float val = message.length / (float) constBsize;
-        int n = (int) Math.ceil(val);
-
-        // Step 3.
-        if (n == 0) {
-            n = 1;
-            flag = false;
-        } else {
-            flag = r == 0;
-        }
-
-        // Step 4.
-        if (flag) {
-
-            byte[] mN = new byte[constBsize];
-
-            System.arraycopy(message, constBsize * (n - 1), mN, 0, constBsize);
-
-            mLast = xor(mN, k[0]);
-        } else {
-            byte[] mN = new byte[constBsize];
-            System.arraycopy(message, (n - 1) * constBsize, mN, 0, r);
-            mN[r] = (byte) 0x80;
-            mLast = xor(mN, k[1]);
-        }
-
-        // Step 5.
-        byte[] x = new byte[constBsize];
-        System.arraycopy(IV, 0, x, 0, constBsize);
-        byte[] y;
-        // Step6.
-        for (int i = 0; i < n - 1; i++) {
-
-            byte[] mI = new byte[constBsize];
-            System.arraycopy(message, 16 * i, mI, 0, constBsize);
-
-            y = xor(x, mI);
-            try {
-                x = encrypt(y, key);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-
-        y = xor(mLast, x);
-
+        Cmac cmac = null;
         try {
-            return encrypt(y, key);
+            cmac = new Cmac(newEcbCipher(key));
+            byte[] out = new byte[Cmac.BLOCK_SIZE];
+            cmac.compute(message, 0, message.length, out, 0);
+            return out;
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (cmac != null) {
+                cmac.wipe();
+            }
         }
 
         return new byte[]{};
@@ -98,6 +54,9 @@ public final class Aes {
 
     /**
      * Returns MAC truncation used for SAM AV2 host authentication
+     * <p>
+     * Subkeys are derived on each call, use {@link KeyHandle#mactAll(java.util.List)} to
+     * authenticate several messages with the same key.
      *
      * @param key     Key
      * @param message Message
@@ -105,11 +64,9 @@ public final class Aes {
      */
     public static byte[] getMact(byte[] key, byte[] message) {
         byte[] cmac = getCmac(key, message);
-        byte[] mact = new byte[8];
-        for (int i = 0; i < 8; i++) {
-            int index = 2 * i + 1;
-            mact[i] = cmac[index];
-        }
+        byte[] mact = new byte[Cmac.MACT_SIZE];
+        Cmac.truncate(cmac, 0, mact, 0);
+        BytesHelper.clearMemoryWithZero(cmac);
         return mact;
     }
 
@@ -160,15 +117,24 @@ public final class Aes {
 
         k[1] = oneBitToLeft(k[0]);
         // Step 3.
-        if ((k[1][0] & 0x80) == 0x80) {
+        if ((k[0][0] & 0x80) == 0x80) {
             k[1] = xor(k[1], RB);
         }
 
         // Step 4.
-        LogDefines.LOG.debug("L = " + BytesHelper.byteArrayToString(l, l.length));
-        LogDefines.LOG.debug("K1 = " + BytesHelper.byteArrayToString(k[0], k[0].length));
-        LogDefines.LOG.debug("K2 = " + BytesHelper.byteArrayToString(k[1], k[1].length));
+        if (LogDefines.verbose) {
+            LogDefines.LOG.debug("L = " + BytesHelper.byteArrayToString(l, l.length));
+            LogDefines.LOG.debug("K1 = " + BytesHelper.byteArrayToString(k[0], k[0].length));
+            LogDefines.LOG.debug("K2 = " + BytesHelper.byteArrayToString(k[1], k[1].length));
+        }
+        BytesHelper.clearMemoryWithZero(l);
 
         return k;
     }
+
+    private static Cipher newEcbCipher(byte[] key) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        return cipher;
+    }
 }
@@ -0,0 +1,113 @@
+package fr.coppernic.lib.utils.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+
+/**
+ * AES-CMAC as described in NIST SP 800-38B and RFC 4493.
+ * <p>
+ * Subkeys are derived once, then all scratch blocks are reused between computations and wiped after
+ * each of them. Instances are not thread safe.
+ */
+final class Cmac {
+
+    static final int BLOCK_SIZE = 16;
+    static final int MACT_SIZE = 8;
+
+    private static final byte RB = (byte) 0x87;
+
+    /**
+     * AES/ECB/NoPadding cipher initialized in encrypt mode
+     */
+    private final Cipher mCipher;
+    private final byte[] mK1 = new byte[BLOCK_SIZE];
+    private final byte[] mK2 = new byte[BLOCK_SIZE];
+    private final byte[] mX = new byte[BLOCK_SIZE];
+
+    Cmac(Cipher cipher) throws GeneralSecurityException {
+        mCipher = cipher;
+        // L = AES(K, 0)
+        encryptBlock(mX);
+        shiftLeft(mX, mK1);
+        shiftLeft(mK1, mK2);
+        Arrays.fill(mX, (byte) 0);
+    }
+
+    /**
+     * Compute CMAC of {@code message[offset, offset + len[} and write it in
+     * {@code out[outOffset, outOffset + 16[}.
+     */
+    void compute(byte[] message, int offset, int len, byte[] out, int outOffset)
+        throws GeneralSecurityException {
+        final byte[] x = mX;
+        final int n = len == 0 ? 1 : (len + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final boolean complete = len != 0 && len % BLOCK_SIZE == 0;
+
+        try {
+            Arrays.fill(x, (byte) 0);
+            int p = offset;
+            for (int i = 0; i < n - 1; i++) {
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    x[j] ^= message[p + j];
+                }
+                encryptBlock(x);
+                p += BLOCK_SIZE;
+            }
+
+            int r = offset + len - p;
+            if (complete) {
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    x[j] ^= message[p + j] ^ mK1[j];
+                }
+            } else {
+                for (int j = 0; j < r; j++) {
+                    x[j] ^= message[p + j];
+                }
+                x[r] ^= (byte) 0x80;
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    x[j] ^= mK2[j];
+                }
+            }
+            encryptBlock(x);
+            System.arraycopy(x, 0, out, outOffset, BLOCK_SIZE);
+        } finally {
+            Arrays.fill(x, (byte) 0);
+        }
+    }
+
+    /**
+     * Wipe subkeys. Instance shall not be used anymore.
+     */
+    void wipe() {
+        Arrays.fill(mK1, (byte) 0);
+        Arrays.fill(mK2, (byte) 0);
+        Arrays.fill(mX, (byte) 0);
+    }
+
+    /**
+     * MAC truncation used for SAM AV2 host authentication: odd bytes of CMAC
+     */
+    static void truncate(byte[] cmac, int offset, byte[] out, int outOffset) {
+        for (int i = 0; i < MACT_SIZE; i++) {
+            out[outOffset + i] = cmac[offset + 2 * i + 1];
+        }
+    }
+
+    private void encryptBlock(byte[] block) throws GeneralSecurityException {
+        mCipher.doFinal(block, 0, BLOCK_SIZE, block, 0);
+    }
+
+    private static void shiftLeft(byte[] in, byte[] out) {
+        int carry = 0;
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            int b = in[i] & 0xFF;
+            out[i] = (byte) ((b << 1) | carry);
+            carry = b >>> 7;
+        }
+        if ((in[0] & 0x80) != 0) {
+            out[BLOCK_SIZE - 1] ^= RB;
+        }
+    }
+}
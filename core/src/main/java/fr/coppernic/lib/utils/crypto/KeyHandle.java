@@ -0,0 +1,542 @@
+package fr.coppernic.lib.utils.crypto;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static fr.coppernic.lib.utils.core.Preconditions.checkNotNull;
+import static fr.coppernic.lib.utils.core.Preconditions.checkSlice;
+
+/**
+ * Handle on an AES key, keeping key material out of the Java heap as much as possible.
+ * <p>
+ * Key bytes are copied in a direct buffer when handle is created, so caller can wipe its own copy
+ * right away. They are only exposed through {@link #use(Operation)}, as a read only view that shall
+ * not be kept after the call.
+ * </p>
+ * <p>
+ * Ciphers and CMAC subkeys are created once on first use and reused by all operations, so that
+ * there is no key copy nor key schedule per operation. Scratch buffers are wiped after each
+ * operation. {@link #close()} wipes key and subkeys and releases ciphers:
+ * <pre>   {@code
+ *
+ *   KeyHandle key = KeyHandle.create(keyBytes);
+ *   BytesHelper.clearMemoryWithZero(keyBytes);
+ *   try {
+ *       byte[] mact = key.mact(message);
+ *   } finally {
+ *       key.close();
+ *   }
+ * }</pre>
+ * <p>
+ * Many messages can be authenticated in one call with {@link #cmacAll(List)} or
+ * {@link #mactAll(byte[], int[], int[], byte[], int, Executor)}, which also accept an executor to
+ * share big batches between threads.
+ * </p>
+ * <p>
+ * Security provider keeps its own copy of the key until ciphers are garbage collected, this copy is
+ * out of reach of this class.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class KeyHandle implements Closeable {
+
+    /**
+     * Operation needing key bytes
+     *
+     * @param <T> Type of result
+     */
+    public interface Operation<T> {
+        /**
+         * @param key Read only view of key bytes. It shall not be kept after the call.
+         * @return result of operation
+         * @throws GeneralSecurityException if operation fails
+         */
+        T run(@NonNull ByteBuffer key) throws GeneralSecurityException;
+    }
+
+    private static final String ALGORITHM = "AES";
+    /**
+     * Minimum number of messages given to each thread of a parallel batch
+     */
+    private static final int MIN_BATCH_PER_TASK = 32;
+
+    private final ByteBuffer mKey;
+    private Cipher mEncrypt;
+    private Cipher mDecrypt;
+    private Cmac mCmac;
+    private final byte[] mBlock = new byte[Cmac.BLOCK_SIZE];
+    private boolean mClosed;
+
+    private KeyHandle(byte[] key, int offset, int len) {
+        mKey = ByteBuffer.allocateDirect(len);
+        mKey.put(key, offset, len);
+        mKey.clear();
+    }
+
+    /**
+     * Create a handle on an AES key. Key is copied.
+     *
+     * @param key AES key of 16, 24 or 32 bytes
+     * @return a new handle
+     * @throws IllegalArgumentException if key length is not valid
+     */
+    @NonNull
+    public static KeyHandle create(@NonNull byte[] key) {
+        checkNotNull(key, "key must not be null");
+        return create(key, 0, key.length);
+    }
+
+    /**
+     * Create a handle on the AES key found in {@code key[offset, offset + len[}. Key is copied.
+     *
+     * @param key    Buffer containing the key
+     * @param offset Offset of key in buffer
+     * @param len    Key length, 16, 24 or 32 bytes
+     * @return a new handle
+     * @throws IllegalArgumentException if key length is not valid
+     */
+    @NonNull
+    public static KeyHandle create(@NonNull byte[] key, int offset, int len) {
+        checkNotNull(key, "key must not be null");
+        if (len != 16 && len != 24 && len != 32) {
+            throw new IllegalArgumentException("Invalid AES key length : " + len);
+        }
+        checkSlice(key.length, offset, len);
+        return new KeyHandle(key, offset, len);
+    }
+
+    /**
+     * @return Key length in bytes
+     */
+    public int length() {
+        return mKey.capacity();
+    }
+
+    /**
+     * Run an operation needing raw key bytes
+     *
+     * @param operation Operation to run
+     * @param <T>       Type of result
+     * @return result of operation
+     * @throws GeneralSecurityException if operation fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    public <T> T use(@NonNull Operation<T> operation) throws GeneralSecurityException {
+        checkOpen();
+        return operation.run(mKey.asReadOnlyBuffer());
+    }
+
+    /**
+     * AES/CBC/NoPadding encryption with a zero IV, same as {@link Aes#encrypt(byte[], byte[])}
+     *
+     * @param plainText Data to encrypt, length shall be a multiple of 16
+     * @return cipher text
+     * @throws GeneralSecurityException if encryption fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    @NonNull
+    public byte[] encrypt(@NonNull byte[] plainText) throws GeneralSecurityException {
+        checkOpen();
+        if (mEncrypt == null) {
+            mEncrypt = newCipher("AES/CBC/NoPadding", Cipher.ENCRYPT_MODE, true);
+        }
+        // doFinal() resets cipher to its initial state, IV included
+        return mEncrypt.doFinal(plainText);
+    }
+
+    /**
+     * AES/CBC/NoPadding decryption with a zero IV, same as {@link Aes#decrypt(byte[], byte[])}
+     *
+     * @param cipherText Data to decrypt, length shall be a multiple of 16
+     * @return plain text
+     * @throws GeneralSecurityException if decryption fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    @NonNull
+    public byte[] decrypt(@NonNull byte[] cipherText) throws GeneralSecurityException {
+        checkOpen();
+        if (mDecrypt == null) {
+            mDecrypt = newCipher("AES/CBC/NoPadding", Cipher.DECRYPT_MODE, true);
+        }
+        return mDecrypt.doFinal(cipherText);
+    }
+
+    /**
+     * @param message Message to authenticate
+     * @return AES-CMAC of message, 16 bytes
+     * @throws GeneralSecurityException if computation fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    @NonNull
+    public byte[] cmac(@NonNull byte[] message) throws GeneralSecurityException {
+        byte[] out = new byte[Cmac.BLOCK_SIZE];
+        cmac(message, 0, message.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Compute AES-CMAC of {@code message[offset, offset + len[} and write its 16 bytes in
+     * {@code out} at {@code outOffset}.
+     *
+     * @param message   Buffer containing message
+     * @param offset    Offset of message
+     * @param len       Message length
+     * @param out       Buffer receiving CMAC
+     * @param outOffset Offset of CMAC in {@code out}
+     * @throws GeneralSecurityException if computation fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    public void cmac(@NonNull byte[] message, int offset, int len, @NonNull byte[] out, int outOffset)
+        throws GeneralSecurityException {
+        checkSlice(message.length, offset, len);
+        checkSlice(out.length, outOffset, Cmac.BLOCK_SIZE);
+        cmac().compute(message, offset, len, out, outOffset);
+    }
+
+    /**
+     * @param message Message to authenticate
+     * @return MAC truncation of message, as in {@link Aes#getMact(byte[], byte[])}, 8 bytes
+     * @throws GeneralSecurityException if computation fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    @NonNull
+    public byte[] mact(@NonNull byte[] message) throws GeneralSecurityException {
+        byte[] out = new byte[Cmac.MACT_SIZE];
+        mact(message, 0, message.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Compute MAC truncation of {@code message[offset, offset + len[} and write its 8 bytes in
+     * {@code out} at {@code outOffset}.
+     *
+     * @param message   Buffer containing message
+     * @param offset    Offset of message
+     * @param len       Message length
+     * @param out       Buffer receiving MAC
+     * @param outOffset Offset of MAC in {@code out}
+     * @throws GeneralSecurityException if computation fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    public void mact(@NonNull byte[] message, int offset, int len, @NonNull byte[] out, int outOffset)
+        throws GeneralSecurityException {
+        checkSlice(message.length, offset, len);
+        checkSlice(out.length, outOffset, Cmac.MACT_SIZE);
+        try {
+            cmac().compute(message, offset, len, mBlock, 0);
+            Cmac.truncate(mBlock, 0, out, outOffset);
+        } finally {
+            Arrays.fill(mBlock, (byte) 0);
+        }
+    }
+
+    /**
+     * Compute AES-CMAC of all messages with the same key schedule.
+     *
+     * @param messages Messages to authenticate
+     * @return CMACs of messages, 16 bytes each, in order
+     * @throws GeneralSecurityException if computation fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    @NonNull
+    public byte[] cmacAll(@NonNull List<byte[]> messages) throws GeneralSecurityException {
+        byte[] out = new byte[messages.size() * Cmac.BLOCK_SIZE];
+        batch(new ListBatch(messages), out, 0, false, null);
+        return out;
+    }
+
+    /**
+     * Compute AES-CMAC of messages found in {@code buffer[offsets[i], offsets[i] + lengths[i][}, and
+     * write them one after the other in {@code out} from {@code outOffset}.
+     *
+     * @param buffer    Buffer containing messages
+     * @param offsets   Offsets of messages
+     * @param lengths   Lengths of messages
+     * @param out       Buffer receiving CMACs, 16 bytes per message
+     * @param outOffset Offset of first CMAC in {@code out}
+     * @param executor  If not null, big batches are shared between tasks run on this executor
+     * @throws GeneralSecurityException if computation fails
+     * @throws IllegalStateException    if handle is closed
+     */
+    public void cmacAll(@NonNull byte[] buffer, @NonNull int[] offsets, @NonNull int[] lengths,
+                        @NonNull byte[] out, int outOffset, @Nullable Executor executor)
+        throws GeneralSecurityException {
+        batch(new SliceBatch(buffer, offsets, lengths), out, outOffset, false, executor);
+    }
+
+    /**
+     * Compute MAC truncation of all messages with the same key schedule.
+     *
+     * @param messages Messages to authenticate
+     * @return MACs of messages, 8 bytes each, in order
+     * @throws GeneralSecurityException if computation fails
+     * @throws IllegalStateException    if handle is closed
+     * @see #mact(byte[])
+     */
+    @NonNull
+    public byte[] mactAll(@NonNull List<byte[]> messages) throws GeneralSecurityException {
+        byte[] out = new byte[messages.size() * Cmac.MACT_SIZE];
+        batch(new ListBatch(messages), out, 0, true, null);
+        return out;
+    }
+
+    /**
+     * Compute MAC truncation of messages found in {@code buffer[offsets[i], offsets[i] + lengths[i][},
+     * and write them one after the other in {@code out} from {@code outOffset}.
+     *
+     * @param buffer    Buffer containing messages
+     * @param offsets   Offsets of messages
+     * @param lengths   Lengths of messages
+     * @param out       Buffer receiving MACs, 8 bytes per message
+     * @param outOffset Offset of first MAC in {@code out}
+     * @param executor  If not null, big batches are shared between tasks run on this executor
+     * @throws GeneralSecurityException if computation fails
+     * @throws IllegalStateException    if handle is closed
+     * @see #mact(byte[])
+     */
+    public void mactAll(@NonNull byte[] buffer, @NonNull int[] offsets, @NonNull int[] lengths,
+                        @NonNull byte[] out, int outOffset, @Nullable Executor executor)
+        throws GeneralSecurityException {
+        batch(new SliceBatch(buffer, offsets, lengths), out, outOffset, true, executor);
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Wipe key material and release ciphers. Handle cannot be used anymore after this call.
+     */
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        for (int i = 0; i < mKey.capacity(); i++) {
+            mKey.put(i, (byte) 0);
+        }
+        if (mCmac != null) {
+            mCmac.wipe();
+            mCmac = null;
+        }
+        Arrays.fill(mBlock, (byte) 0);
+        mEncrypt = null;
+        mDecrypt = null;
+    }
+
+    /**
+     * Messages of a batch
+     */
+    private interface Batch {
+        int size();
+
+        byte[] array(int i);
+
+        int offset(int i);
+
+        int length(int i);
+    }
+
+    private static final class ListBatch implements Batch {
+        private final List<byte[]> mMessages;
+
+        ListBatch(List<byte[]> messages) {
+            mMessages = checkNotNull(messages, "messages must not be null");
+        }
+
+        @Override
+        public int size() {
+            return mMessages.size();
+        }
+
+        @Override
+        public byte[] array(int i) {
+            return checkNotNull(mMessages.get(i), "message must not be null");
+        }
+
+        @Override
+        public int offset(int i) {
+            return 0;
+        }
+
+        @Override
+        public int length(int i) {
+            return mMessages.get(i).length;
+        }
+    }
+
+    private static final class SliceBatch implements Batch {
+        private final byte[] mBuffer;
+        private final int[] mOffsets;
+        private final int[] mLengths;
+
+        SliceBatch(byte[] buffer, int[] offsets, int[] lengths) {
+            mBuffer = checkNotNull(buffer, "buffer must not be null");
+            mOffsets = checkNotNull(offsets, "offsets must not be null");
+            mLengths = checkNotNull(lengths, "lengths must not be null");
+            if (offsets.length != lengths.length) {
+                throw new IllegalArgumentException("offsets and lengths must have the same length");
+            }
+        }
+
+        @Override
+        public int size() {
+            return mOffsets.length;
+        }
+
+        @Override
+        public byte[] array(int i) {
+            return mBuffer;
+        }
+
+        @Override
+        public int offset(int i) {
+            return mOffsets[i];
+        }
+
+        @Override
+        public int length(int i) {
+            return mLengths[i];
+        }
+    }
+
+    private void batch(final Batch batch, final byte[] out, final int outOffset, final boolean truncate,
+                       @Nullable Executor executor) throws GeneralSecurityException {
+        checkOpen();
+        final int n = batch.size();
+        final int macSize = truncate ? Cmac.MACT_SIZE : Cmac.BLOCK_SIZE;
+        for (int i = 0; i < n; i++) {
+            checkSlice(batch.array(i).length, batch.offset(i), batch.length(i));
+        }
+        checkSlice(out.length, outOffset, n * macSize);
+
+        int tasks = executor == null ? 1
+                                     : Math.min(Runtime.getRuntime().availableProcessors(),
+                                                n / MIN_BATCH_PER_TASK);
+        if (tasks <= 1) {
+            batch(cmac(), mBlock, batch, 0, n, out, outOffset, truncate);
+            return;
+        }
+
+        // Cipher instances are not thread safe, so each other task has its own key schedule
+        final int perTask = (n + tasks - 1) / tasks;
+        final CountDownLatch latch = new CountDownLatch(tasks - 1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int t = 1; t < tasks; t++) {
+            final int from = t * perTask;
+            final int to = Math.min(n, from + perTask);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Cmac cmac = null;
+                    byte[] block = new byte[Cmac.BLOCK_SIZE];
+                    try {
+                        cmac = new Cmac(newCipher("AES/ECB/NoPadding", Cipher.ENCRYPT_MODE, false));
+                        batch(cmac, block, batch, from, to, out, outOffset, truncate);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        if (cmac != null) {
+                            cmac.wipe();
+                        }
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            batch(cmac(), mBlock, batch, 0, Math.min(n, perTask), out, outOffset, truncate);
+        } finally {
+            awaitUninterruptibly(latch);
+        }
+
+        Throwable e = error.get();
+        if (e instanceof GeneralSecurityException) {
+            throw (GeneralSecurityException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+    }
+
+    private static void batch(Cmac cmac, byte[] block, Batch batch, int from, int to,
+                              byte[] out, int outOffset, boolean truncate) throws GeneralSecurityException {
+        try {
+            for (int i = from; i < to; i++) {
+                if (truncate) {
+                    cmac.compute(batch.array(i), batch.offset(i), batch.length(i), block, 0);
+                    Cmac.truncate(block, 0, out, outOffset + i * Cmac.MACT_SIZE);
+                } else {
+                    cmac.compute(batch.array(i), batch.offset(i), batch.length(i),
+                                 out, outOffset + i * Cmac.BLOCK_SIZE);
+                }
+            }
+        } finally {
+            Arrays.fill(block, (byte) 0);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Cmac cmac() throws GeneralSecurityException {
+        checkOpen();
+        if (mCmac == null) {
+            mCmac = new Cmac(newCipher("AES/ECB/NoPadding", Cipher.ENCRYPT_MODE, false));
+        }
+        return mCmac;
+    }
+
+    private Cipher newCipher(String transformation, int mode, boolean iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(transformation);
+        byte[] key = new byte[mKey.capacity()];
+        try {
+            mKey.duplicate().get(key);
+            SecretKeySpec spec = new SecretKeySpec(key, ALGORITHM);
+            if (iv) {
+                cipher.init(mode, spec, new IvParameterSpec(Aes.IV));
+            } else {
+                cipher.init(mode, spec);
+            }
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+        return cipher;
+    }
+
+    private void checkOpen() {
+        if (mClosed) {
+            throw new IllegalStateException("Key handle is closed");
+        }
+    }
+}
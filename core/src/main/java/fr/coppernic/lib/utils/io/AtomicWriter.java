@@ -0,0 +1,497 @@
+package fr.coppernic.lib.utils.io;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static fr.coppernic.lib.utils.BuildConfig.DEBUG;
+import static fr.coppernic.lib.utils.log.LogDefines.LOG;
+
+/**
+ * Writes files atomically and durably.
+ * <p>
+ * Data is written in a temporary file next to the target, synced to storage, then renamed over the
+ * target and the directory is synced. After a power cut, the target holds either its old or its
+ * new content, never a truncated one.
+ * </p>
+ * <p>
+ * Static {@code write} methods do all of this in the calling thread. An instance does group commit:
+ * writes done within a time window are batched, all temporary files are written before being
+ * synced, and each directory is synced once per batch. When the same file is written several
+ * times in a window, only the last content is written and all callers are notified when it is
+ * durable:
+ * <pre>   {@code
+ *
+ *   AtomicWriter.getDefault().commit(configFile, bytes);
+ * }</pre>
+ * <p>
+ * A symbolic link is followed, its target is replaced. Temporary file gets mode of file it
+ * replaces, from Lollipop only.
+ * </p>
+ * <p>
+ * Directories are synced from Lollipop only, and failures to sync them are ignored since some
+ * file systems like vfat do not support it.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class AtomicWriter implements Closeable {
+
+    /**
+     * Notified when a write is durable or has failed. Called on writer thread.
+     */
+    public interface Callback {
+        /**
+         * @param file  File written
+         * @param error Error if file has not been written, null otherwise
+         */
+        void onCommit(@NonNull File file, @Nullable IOException error);
+    }
+
+    public static final long DEFAULT_WINDOW_MS = 20;
+    /**
+     * A batch is written without waiting for the end of window when it holds that many bytes
+     */
+    private static final int MAX_BATCH_BYTES = 1024 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static AtomicWriter sDefault;
+
+    private final long mWindowMs;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Object mLock = new Object();
+    private LinkedHashMap<File, Pending> mPending = new LinkedHashMap<>();
+    private int mPendingBytes;
+    private boolean mScheduled;
+    private boolean mClosed;
+
+    /**
+     * @param windowMs Time in ms during which writes are batched
+     */
+    public AtomicWriter(long windowMs) {
+        mWindowMs = windowMs;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread t = new Thread(r, "AtomicWriter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return Writer with a window of {@link #DEFAULT_WINDOW_MS}
+     */
+    @NonNull
+    public static synchronized AtomicWriter getDefault() {
+        if (sDefault == null) {
+            sDefault = new AtomicWriter(DEFAULT_WINDOW_MS);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Write data atomically in file and wait until it is durable.
+     *
+     * @param f    File to write
+     * @param data Data to write
+     * @throws IOException if file cannot be written, file is left untouched then
+     */
+    public static void write(@NonNull File f, @NonNull byte[] data) throws IOException {
+        write(f, data, 0, data.length);
+    }
+
+    /**
+     * Write data atomically in file and wait until it is durable.
+     *
+     * @param f      File to write
+     * @param data   Data to write
+     * @param offset Offset of data
+     * @param len    Length of data
+     * @throws IOException if file cannot be written, file is left untouched then
+     */
+    public static void write(@NonNull File f, @NonNull byte[] data, int offset, int len) throws IOException {
+        f = resolveLink(f);
+        File tmp = createTemp(f);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            writeFully(out.getChannel(), data, offset, len);
+            out.getChannel().force(true);
+            out.close();
+            out = null;
+            rename(tmp, f);
+        } finally {
+            if (out != null) {
+                Closeables.closeQuietly(out);
+                deleteTemp(tmp);
+            }
+        }
+        syncDirectory(f.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Write all data of input stream atomically in file and wait until it is durable.
+     * <p>
+     * Input stream is not closed by this method
+     *
+     * @param f  File to write
+     * @param is Data to write
+     * @throws IOException if file cannot be written or stream cannot be read, file is left
+     *                     untouched then
+     */
+    public static void write(@NonNull File f, @NonNull InputStream is) throws IOException {
+        f = resolveLink(f);
+        File tmp = createTemp(f);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            BytesHelper.copyStream(is, out);
+            out.getChannel().force(true);
+            out.close();
+            out = null;
+            rename(tmp, f);
+        } finally {
+            if (out != null) {
+                Closeables.closeQuietly(out);
+                deleteTemp(tmp);
+            }
+        }
+        syncDirectory(f.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Write data atomically in file in next batch and wait until it is durable.
+     *
+     * @param f    File to write
+     * @param data Data to write. It is copied.
+     * @throws IOException          if file cannot be written, file is left untouched then
+     * @throws InterruptedException if interrupted while waiting. Write goes on in background.
+     */
+    public void commit(@NonNull File f, @NonNull byte[] data) throws IOException, InterruptedException {
+        Waiter waiter = new Waiter();
+        commitAsync(f, data, waiter);
+        waiter.mDone.await();
+        if (waiter.mError != null) {
+            throw waiter.mError;
+        }
+    }
+
+    /**
+     * Write data atomically in file in next batch.
+     *
+     * @param f        File to write
+     * @param data     Data to write. It is copied.
+     * @param callback Callback notified when data is durable, can be null
+     * @throws IllegalStateException if writer is closed
+     */
+    public void commitAsync(@NonNull File f, @NonNull byte[] data, @Nullable Callback callback) {
+        File file = f.getAbsoluteFile();
+        Pending pending = new Pending(file, Arrays.copyOf(data, data.length));
+        if (callback != null) {
+            pending.mCallbacks.add(callback);
+        }
+        synchronized (mLock) {
+            if (mClosed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            Pending previous = mPending.remove(file);
+            if (previous != null) {
+                // Only last content is written, previous callers are notified with it
+                pending.mCallbacks.addAll(0, previous.mCallbacks);
+                mPendingBytes -= previous.mData.length;
+            }
+            mPending.put(file, pending);
+            mPendingBytes += data.length;
+            if (mPendingBytes >= MAX_BATCH_BYTES) {
+                scheduleLocked(0);
+            } else if (!mScheduled) {
+                scheduleLocked(mWindowMs);
+            }
+        }
+    }
+
+    /**
+     * Write pending batch now, without waiting for the end of window.
+     */
+    public void flush() {
+        synchronized (mLock) {
+            if (!mPending.isEmpty()) {
+                scheduleLocked(0);
+            }
+        }
+    }
+
+    /**
+     * Write pending batch and stop writer thread. Writer cannot be used anymore.
+     */
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (!mPending.isEmpty()) {
+                scheduleLocked(0);
+            }
+        }
+        mExecutor.shutdown();
+    }
+
+    private void scheduleLocked(long delayMs) {
+        mScheduled = true;
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runBatch();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void runBatch() {
+        List<Pending> batch;
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(mPending.values());
+            mPending = new LinkedHashMap<>();
+            mPendingBytes = 0;
+            mScheduled = false;
+        }
+        if (DEBUG) {
+            LOG.trace("Write batch of {} files", batch.size());
+        }
+
+        try {
+            writeBatch(batch);
+        } finally {
+            for (Pending p : batch) {
+                for (Callback callback : p.mCallbacks) {
+                    try {
+                        callback.onCommit(p.mFile, p.mError);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Callback of {} failed", p.mFile.getPath(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeBatch(List<Pending> batch) {
+        // Data of all files is written before first sync, so that storage handles it at once
+        for (Pending p : batch) {
+            FileOutputStream out = null;
+            try {
+                p.mTarget = resolveLink(p.mFile);
+                p.mTemp = createTemp(p.mTarget);
+                out = new FileOutputStream(p.mTemp);
+                writeFully(out.getChannel(), p.mData, 0, p.mData.length);
+                p.mOut = out;
+                out = null;
+            } catch (IOException e) {
+                p.fail(e);
+            } catch (RuntimeException e) {
+                p.fail(new IOException(e));
+            } finally {
+                Closeables.closeQuietly(out);
+            }
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        for (Pending p : batch) {
+            if (p.mOut != null) {
+                try {
+                    p.mOut.getChannel().force(true);
+                    p.mOut.close();
+                    p.mOut = null;
+                    rename(p.mTemp, p.mTarget);
+                    dirs.add(p.mTarget.getParentFile());
+                } catch (IOException e) {
+                    p.fail(e);
+                } catch (RuntimeException e) {
+                    p.fail(new IOException(e));
+                }
+            }
+        }
+        for (File dir : dirs) {
+            syncDirectory(dir);
+        }
+    }
+
+    private static File createTemp(File f) throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        if (dir == null || !dir.isDirectory()) {
+            throw new FileNotFoundException("No directory for " + f.getPath());
+        }
+        File tmp = File.createTempFile("." + f.getName() + ".", TEMP_SUFFIX, dir);
+        copyMode(f, tmp);
+        return tmp;
+    }
+
+    /**
+     * @return true if file can be replaced by a new one without changing what it is : it does not
+     * exist yet, or it is a regular file owned by this process, not a link, in a writable directory
+     */
+    static boolean isReplaceable(@NonNull File f) {
+        File dir = f.getAbsoluteFile().getParentFile();
+        if (dir == null || !dir.canWrite()) {
+            return false;
+        }
+        if (!f.exists()) {
+            return !isLink(f);
+        }
+        if (!f.isFile() || isLink(f)) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                return Os.stat(f.getPath()).st_uid == Os.getuid();
+            } catch (ErrnoException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLink(File f) {
+        try {
+            File abs = f.getAbsoluteFile();
+            File dir = abs.getParentFile();
+            if (dir == null) {
+                return false;
+            }
+            File file = new File(dir.getCanonicalFile(), abs.getName());
+            return !file.getCanonicalFile().equals(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Target of link, or file itself if it is not a link
+     */
+    private static File resolveLink(File f) throws IOException {
+        return isLink(f) ? f.getCanonicalFile() : f;
+    }
+
+    /**
+     * Give temporary file the permissions of file it replaces
+     */
+    private static void copyMode(File f, File tmp) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || !f.exists()) {
+            return;
+        }
+        try {
+            StructStat st = Os.stat(f.getPath());
+            Os.chmod(tmp.getPath(), st.st_mode & 07777);
+        } catch (ErrnoException e) {
+            if (DEBUG) {
+                LOG.debug("Cannot copy mode of {}: {}", f.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    private static void deleteTemp(File tmp) {
+        if (tmp != null && tmp.exists() && !tmp.delete()) {
+            LOG.warn("Cannot delete {}", tmp.getPath());
+        }
+    }
+
+    private static void rename(File tmp, File f) throws IOException {
+        if (!tmp.renameTo(f)) {
+            deleteTemp(tmp);
+            throw new IOException("Cannot rename " + tmp.getPath() + " to " + f.getPath());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] data, int offset, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, len);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Sync directory entries, so that a rename survives a power cut
+     */
+    static void syncDirectory(@Nullable File dir) {
+        if (dir == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        FileDescriptor fd = null;
+        try {
+            fd = Os.open(dir.getPath(), OsConstants.O_RDONLY, 0);
+            Os.fsync(fd);
+        } catch (ErrnoException e) {
+            if (DEBUG) {
+                LOG.debug("Cannot sync {}: {}", dir.getPath(), e.getMessage());
+            }
+        } finally {
+            if (fd != null) {
+                try {
+                    Os.close(fd);
+                } catch (ErrnoException ignore) {
+                }
+            }
+        }
+    }
+
+    private static final class Pending {
+        final File mFile;
+        final byte[] mData;
+        final List<Callback> mCallbacks = new ArrayList<>(1);
+        File mTarget;
+        File mTemp;
+        FileOutputStream mOut;
+        IOException mError;
+
+        Pending(File file, byte[] data) {
+            mFile = file;
+            mData = data;
+        }
+
+        void fail(IOException e) {
+            Closeables.closeQuietly(mOut);
+            mOut = null;
+            deleteTemp(mTemp);
+            mError = e;
+        }
+    }
+
+    private static final class Waiter implements Callback {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile IOException mError;
+
+        @Override
+        public void onCommit(@NonNull File file, @Nullable IOException error) {
+            mError = error;
+            mDone.countDown();
+        }
+    }
+}
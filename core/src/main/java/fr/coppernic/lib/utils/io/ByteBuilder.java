@@ -0,0 +1,481 @@
+package fr.coppernic.lib.utils.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+import static fr.coppernic.lib.utils.core.Preconditions.checkSlice;
+
+/**
+ * Growable array of bytes, used to build frames without allocating a new array for each added byte.
+ * <p>
+ * Capacity grows geometrically, so appending n bytes one by one is O(n). Bytes can also be inserted
+ * or removed in place, and numbers written in big or little endian, appended or over existing bytes.
+ * </p>
+ * <p>
+ * Short lived builders can be taken from a per thread pool with {@link #obtain()} and given back with
+ * {@link #recycle()}, so that their backing array is reused:
+ * <pre>   {@code
+ *
+ *   ByteBuilder b = ByteBuilder.obtain();
+ *   try {
+ *       b.append(CLA).append(INS).appendShort(offset, true).append(data);
+ *       return b.toByteArray();
+ *   } finally {
+ *       b.recycle();
+ *   }
+ * }</pre>
+ * <p>
+ * This class is not thread safe.
+ */
+@SuppressWarnings({"WeakerAccess", "UnusedReturnValue"})
+public final class ByteBuilder {
+
+    private static final int DEFAULT_CAPACITY = 64;
+    /**
+     * Builders with a bigger capacity are not kept in pool, not to retain too much memory
+     */
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final ThreadLocal<ByteBuilder> POOL = new ThreadLocal<>();
+
+    private byte[] mBuffer;
+    private int mSize;
+
+    public ByteBuilder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Initial capacity
+     */
+    public ByteBuilder(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        mBuffer = new byte[capacity];
+    }
+
+    /**
+     * Get an empty builder from the pool of current thread, or a new one if pool is empty.
+     *
+     * @return an empty builder
+     */
+    @NonNull
+    public static ByteBuilder obtain() {
+        ByteBuilder builder = POOL.get();
+        if (builder != null) {
+            POOL.set(null);
+            return builder;
+        }
+        return new ByteBuilder();
+    }
+
+    /**
+     * Clear this builder and give it back to the pool of current thread. Builder shall not be used
+     * anymore after this call.
+     */
+    public void recycle() {
+        mSize = 0;
+        if (mBuffer.length <= MAX_POOLED_CAPACITY && POOL.get() == null) {
+            POOL.set(this);
+        }
+    }
+
+    /**
+     * @return Number of bytes in builder
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return Number of bytes that can be stored without growing
+     */
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * Remove all bytes. Capacity is kept.
+     *
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder clear() {
+        mSize = 0;
+        return this;
+    }
+
+    /**
+     * Make sure that at least {@code capacity} bytes can be stored without growing.
+     *
+     * @param capacity Minimum capacity
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            long newCapacity = Math.max(capacity, (long) mBuffer.length * 2);
+            if (newCapacity > MAX_ARRAY_SIZE) {
+                if (capacity > MAX_ARRAY_SIZE) {
+                    throw new OutOfMemoryError("Required capacity too large : " + capacity);
+                }
+                newCapacity = MAX_ARRAY_SIZE;
+            }
+            mBuffer = Arrays.copyOf(mBuffer, (int) newCapacity);
+        }
+    }
+
+    /**
+     * @param index Index of byte
+     * @return byte at index
+     * @throws IndexOutOfBoundsException if index is not in [0, size[
+     */
+    public byte get(int index) {
+        checkIndex(index, mSize);
+        return mBuffer[index];
+    }
+
+    /**
+     * @param index Index of byte
+     * @param b     New value of byte at index
+     * @throws IndexOutOfBoundsException if index is not in [0, size[
+     */
+    public void set(int index, byte b) {
+        checkIndex(index, mSize);
+        mBuffer[index] = b;
+    }
+
+    @NonNull
+    public ByteBuilder append(byte b) {
+        ensureCapacity(mSize + 1);
+        mBuffer[mSize++] = b;
+        return this;
+    }
+
+    @NonNull
+    public ByteBuilder append(@NonNull byte[] data) {
+        return append(data, 0, data.length);
+    }
+
+    @NonNull
+    public ByteBuilder append(@NonNull byte[] data, int offset, int len) {
+        checkSlice(data.length, offset, len);
+        ensureCapacity(mSize + len);
+        System.arraycopy(data, offset, mBuffer, mSize, len);
+        mSize += len;
+        return this;
+    }
+
+    /**
+     * Append remaining bytes of buffer. Buffer's position is moved to its limit.
+     *
+     * @param data Buffer to append
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder append(@NonNull ByteBuffer data) {
+        int len = data.remaining();
+        ensureCapacity(mSize + len);
+        data.get(mBuffer, mSize, len);
+        mSize += len;
+        return this;
+    }
+
+    /**
+     * Append {@code count} times the same byte
+     *
+     * @param b     Value to append
+     * @param count Number of bytes to append
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder appendRepeated(byte b, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative");
+        }
+        ensureCapacity(mSize + count);
+        Arrays.fill(mBuffer, mSize, mSize + count, b);
+        mSize += count;
+        return this;
+    }
+
+    /**
+     * @param value     value to append on 2 bytes
+     * @param bigEndian byte order: true big endian, false little endian
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder appendShort(int value, boolean bigEndian) {
+        ensureCapacity(mSize + 2);
+        putShort(mBuffer, mSize, value, bigEndian);
+        mSize += 2;
+        return this;
+    }
+
+    /**
+     * @param value     value to append on 4 bytes
+     * @param bigEndian byte order: true big endian, false little endian
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder appendInt(int value, boolean bigEndian) {
+        ensureCapacity(mSize + 4);
+        putInt(mBuffer, mSize, value, bigEndian);
+        mSize += 4;
+        return this;
+    }
+
+    /**
+     * @param value     value to append on 8 bytes
+     * @param bigEndian byte order: true big endian, false little endian
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder appendLong(long value, boolean bigEndian) {
+        ensureCapacity(mSize + 8);
+        putLong(mBuffer, mSize, value, bigEndian);
+        mSize += 8;
+        return this;
+    }
+
+    /**
+     * Overwrite 2 bytes already in builder, for instance a length field known once frame is built.
+     *
+     * @param index     Index of first byte. {@code index + 2} shall not be greater than size
+     * @param value     value to put on 2 bytes
+     * @param bigEndian byte order: true big endian, false little endian
+     * @return this builder
+     * @throws IndexOutOfBoundsException if bytes are not in [0, size[
+     */
+    @NonNull
+    public ByteBuilder putShort(int index, int value, boolean bigEndian) {
+        checkSlice(mSize, index, 2);
+        putShort(mBuffer, index, value, bigEndian);
+        return this;
+    }
+
+    /**
+     * Overwrite 4 bytes already in builder.
+     *
+     * @param index     Index of first byte. {@code index + 4} shall not be greater than size
+     * @param value     value to put on 4 bytes
+     * @param bigEndian byte order: true big endian, false little endian
+     * @return this builder
+     * @throws IndexOutOfBoundsException if bytes are not in [0, size[
+     */
+    @NonNull
+    public ByteBuilder putInt(int index, int value, boolean bigEndian) {
+        checkSlice(mSize, index, 4);
+        putInt(mBuffer, index, value, bigEndian);
+        return this;
+    }
+
+    /**
+     * Overwrite 8 bytes already in builder.
+     *
+     * @param index     Index of first byte. {@code index + 8} shall not be greater than size
+     * @param value     value to put on 8 bytes
+     * @param bigEndian byte order: true big endian, false little endian
+     * @return this builder
+     * @throws IndexOutOfBoundsException if bytes are not in [0, size[
+     */
+    @NonNull
+    public ByteBuilder putLong(int index, long value, boolean bigEndian) {
+        checkSlice(mSize, index, 8);
+        putLong(mBuffer, index, value, bigEndian);
+        return this;
+    }
+
+    /**
+     * Insert a byte, shifting following bytes in place.
+     *
+     * @param index Where to insert. Shall be in [0, size]
+     * @param b     Byte to insert
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder insert(int index, byte b) {
+        checkIndex(index, mSize + 1);
+        ensureCapacity(mSize + 1);
+        System.arraycopy(mBuffer, index, mBuffer, index + 1, mSize - index);
+        mBuffer[index] = b;
+        mSize++;
+        return this;
+    }
+
+    /**
+     * Insert bytes, shifting following bytes in place.
+     *
+     * @param index  Where to insert. Shall be in [0, size]
+     * @param data   Buffer containing bytes to insert
+     * @param offset Offset of bytes in data
+     * @param len    Number of bytes to insert
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder insert(int index, @NonNull byte[] data, int offset, int len) {
+        checkIndex(index, mSize + 1);
+        checkSlice(data.length, offset, len);
+        ensureCapacity(mSize + len);
+        System.arraycopy(mBuffer, index, mBuffer, index + len, mSize - index);
+        System.arraycopy(data, offset, mBuffer, index, len);
+        mSize += len;
+        return this;
+    }
+
+    /**
+     * Remove bytes, shifting following bytes in place.
+     *
+     * @param index First byte to remove
+     * @param len   Number of bytes to remove
+     * @return this builder
+     */
+    @NonNull
+    public ByteBuilder remove(int index, int len) {
+        checkSlice(mSize, index, len);
+        System.arraycopy(mBuffer, index + len, mBuffer, index, mSize - index - len);
+        mSize -= len;
+        return this;
+    }
+
+    /**
+     * Remove all occurrences of a byte value, in a single pass.
+     *
+     * @param b Value to remove
+     * @return Number of bytes removed
+     */
+    public int removeAll(byte b) {
+        int w = 0;
+        for (int r = 0; r < mSize; r++) {
+            byte v = mBuffer[r];
+            if (v != b) {
+                mBuffer[w++] = v;
+            }
+        }
+        int removed = mSize - w;
+        mSize = w;
+        return removed;
+    }
+
+    /**
+     * @param b    Value to find
+     * @param from Index from which to search
+     * @return index of first occurrence of b from {@code from}, or -1
+     */
+    public int indexOf(byte b, int from) {
+        for (int i = Math.max(from, 0); i < mSize; i++) {
+            if (mBuffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get a view of bytes in {@code [offset, offset + len[}.
+     * <p>
+     * View shares content with this builder, until builder needs to grow. It shall not be used after
+     * the builder is modified.
+     *
+     * @param offset Offset of first byte
+     * @param len    Number of bytes
+     * @return a byte buffer view
+     */
+    @NonNull
+    public ByteBuffer slice(int offset, int len) {
+        checkSlice(mSize, offset, len);
+        return ByteBuffer.wrap(mBuffer, offset, len).slice();
+    }
+
+    /**
+     * @return a view of all bytes, see {@link #slice(int, int)}
+     */
+    @NonNull
+    public ByteBuffer asByteBuffer() {
+        return slice(0, mSize);
+    }
+
+    /**
+     * @return a copy of bytes of this builder
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer, mSize);
+    }
+
+    /**
+     * Copy bytes of {@code [offset, offset + len[} in a new array
+     *
+     * @param offset Offset of first byte
+     * @param len    Number of bytes
+     * @return a new array
+     */
+    @NonNull
+    public byte[] toByteArray(int offset, int len) {
+        checkSlice(mSize, offset, len);
+        return Arrays.copyOfRange(mBuffer, offset, offset + len);
+    }
+
+    /**
+     * Write all bytes in output stream
+     *
+     * @param out Output stream
+     * @throws IOException if write fails
+     */
+    public void writeTo(@NonNull OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mSize);
+    }
+
+    @Override
+    public String toString() {
+        return BytesHelper.byteArrayToString(mBuffer, mSize);
+    }
+
+    static void putShort(byte[] array, int offset, int value, boolean bigEndian) {
+        if (bigEndian) {
+            array[offset] = (byte) (value >> 8);
+            array[offset + 1] = (byte) value;
+        } else {
+            array[offset] = (byte) value;
+            array[offset + 1] = (byte) (value >> 8);
+        }
+    }
+
+    static void putInt(byte[] array, int offset, int value, boolean bigEndian) {
+        if (bigEndian) {
+            array[offset] = (byte) (value >> 24);
+            array[offset + 1] = (byte) (value >> 16);
+            array[offset + 2] = (byte) (value >> 8);
+            array[offset + 3] = (byte) value;
+        } else {
+            array[offset] = (byte) value;
+            array[offset + 1] = (byte) (value >> 8);
+            array[offset + 2] = (byte) (value >> 16);
+            array[offset + 3] = (byte) (value >> 24);
+        }
+    }
+
+    static void putLong(byte[] array, int offset, long value, boolean bigEndian) {
+        if (bigEndian) {
+            putInt(array, offset, (int) (value >>> 32), true);
+            putInt(array, offset + 4, (int) value, true);
+        } else {
+            putInt(array, offset, (int) value, false);
+            putInt(array, offset + 4, (int) (value >>> 32), false);
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+}
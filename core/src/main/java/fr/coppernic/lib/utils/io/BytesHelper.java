@@ -13,6 +13,8 @@ import java.util.Collection;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import static fr.coppernic.lib.utils.core.Preconditions.checkSlice;
+
 /**
  * Class containing method performing some basic tasks with bytes
  * <p>It is advised to use a special lib to handle bytes such as okio from square {@see https://github.com/square/okio}
@@ -90,6 +92,36 @@ public final class BytesHelper {
         return -1;
     }
 
+    /**
+     * Returns the index of a sub-array in a buffer, for instance a file mapped with
+     * {@link FileHelper#map(java.io.File)}. Buffer's position is not modified.
+     *
+     * @param buffer Buffer where the sub-array to find may be
+     * @param bytes  Sub-array to find
+     * @param offset Absolute index from which to search
+     * @return the absolute index of the sub-array found, or -1 if not found.
+     */
+    public static int findBytesInBuffer(@NonNull ByteBuffer buffer, @NonNull byte[] bytes, int offset) {
+        if (bytes.length == 0) {
+            return offset <= buffer.limit() ? offset : -1;
+        }
+        final byte first = bytes[0];
+        final int last = buffer.limit() - bytes.length;
+        for (int i = Math.max(offset, 0); i <= last; i++) {
+            if (buffer.get(i) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < bytes.length && buffer.get(i + j) == bytes[j]) {
+                j++;
+            }
+            if (j == bytes.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Return the first index of a char in a char array
      *
@@ -268,23 +300,11 @@ public final class BytesHelper {
      * @return true if they are the same, false otherwise
      */
     public static boolean arrayCmp(byte[] a1, byte[] a2) {
-
-        boolean ret = true;
-
         if (a1 != null && a2 != null) {
-            if (a1.length != a2.length) {
-                return false;
-            }
-            for (int i = 0; i < Math.min(a1.length, a2.length); i++) {
-                if (a1[i] != a2[i]) {
-                    return false;
-                }
-            }
+            return a1.length == a2.length && equals(a1, 0, a2, 0, a1.length);
         } else {
-            ret = a1 == null && a2 == null;
+            return a1 == null && a2 == null;
         }
-
-        return ret;
     }
 
     /**
@@ -298,37 +318,173 @@ public final class BytesHelper {
      * @return true if they are the same, false otherwise
      */
     public static boolean arrayCmpSoft(byte[] a1, byte[] a2) {
+        if (a1 != null && a2 != null) {
+            return equals(a1, 0, a2, 0, Math.min(a1.length, a2.length));
+        } else {
+            return a1 == null && a2 == null;
+        }
+    }
 
-        boolean ret = true;
-
+    /**
+     * Compare two arrays
+     * <p>
+     * If arrays do not have the same size, arrays are considered not equal
+     *
+     * @param a1 First array
+     * @param a2 Second array
+     * @return true if they are the same, false otherwise
+     */
+    public static boolean arrayCmp(int[] a1, int[] a2) {
         if (a1 != null && a2 != null) {
-            for (int i = 0; i < Math.min(a1.length, a2.length); i++) {
+            if (a1.length != a2.length) {
+                return false;
+            }
+            final int len = a1.length;
+            for (int i = 0; i < len; i++) {
                 if (a1[i] != a2[i]) {
                     return false;
                 }
             }
+            return true;
         } else {
-            ret = a1 == null && a2 == null;
+            return a1 == null && a2 == null;
         }
+    }
 
-        return ret;
+    /**
+     * Find the first index at which two arrays differ.
+     *
+     * @param a1 First array
+     * @param a2 Second array
+     * @return -1 if arrays are the same, index of first different byte otherwise. If one array is a
+     * prefix of the other one, the length of the shortest array is returned.
+     */
+    public static int mismatch(@NonNull byte[] a1, @NonNull byte[] a2) {
+        final int len = Math.min(a1.length, a2.length);
+        int i = mismatch(a1, 0, a2, 0, len);
+        if (i < 0 && a1.length != a2.length) {
+            return len;
+        }
+        return i;
     }
 
-    public static boolean arrayCmp(int[] a1, int[] a2) {
+    /**
+     * Find the first index at which {@code a1[off1, off1 + len[} and {@code a2[off2, off2 + len[}
+     * differ.
+     * <p>
+     * Bounds are checked once before the loop, so that the loop itself only compares bytes.
+     *
+     * @param a1   First array
+     * @param off1 Offset in first array
+     * @param a2   Second array
+     * @param off2 Offset in second array
+     * @param len  Number of bytes to compare
+     * @return -1 if ranges are the same, index of first different byte relative to the offsets
+     * otherwise
+     * @throws IndexOutOfBoundsException if a range is outside of its array
+     */
+    public static int mismatch(@NonNull byte[] a1, int off1, @NonNull byte[] a2, int off2, int len) {
+        checkSlice(a1.length, off1, len);
+        checkSlice(a2.length, off2, len);
+        for (int i = 0; i < len; i++) {
+            if (a1[off1 + i] != a2[off2 + i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        boolean ret = true;
+    /**
+     * Compare {@code a1[off1, off1 + len[} and {@code a2[off2, off2 + len[}.
+     *
+     * @param a1   First array
+     * @param off1 Offset in first array
+     * @param a2   Second array
+     * @param off2 Offset in second array
+     * @param len  Number of bytes to compare
+     * @return true if ranges contain the same bytes
+     * @throws IndexOutOfBoundsException if a range is outside of its array
+     */
+    public static boolean equals(@NonNull byte[] a1, int off1, @NonNull byte[] a2, int off2, int len) {
+        return mismatch(a1, off1, a2, off2, len) < 0;
+    }
 
-        if (a1 != null && a2 != null) {
-            for (int i = 0; i < Math.min(a1.length, a2.length); i++) {
-                if (a1[i] != a2[i]) {
-                    return false;
-                }
-            }
-        } else {
-            ret = a1 == null && a2 == null;
+    /**
+     * Compare lexicographically two arrays, bytes being considered as unsigned.
+     *
+     * @param a1 First array
+     * @param a2 Second array
+     * @return 0 if arrays are the same, a negative value if a1 is before a2, a positive value
+     * otherwise
+     */
+    public static int compare(@NonNull byte[] a1, @NonNull byte[] a2) {
+        return compare(a1, 0, a1.length, a2, 0, a2.length);
+    }
+
+    /**
+     * Compare lexicographically {@code a1[off1, off1 + len1[} and {@code a2[off2, off2 + len2[},
+     * bytes being considered as unsigned. If one range is a prefix of the other one, the shortest is
+     * the first.
+     *
+     * @param a1   First array
+     * @param off1 Offset in first array
+     * @param len1 Number of bytes of first range
+     * @param a2   Second array
+     * @param off2 Offset in second array
+     * @param len2 Number of bytes of second range
+     * @return 0 if ranges are the same, a negative value if first range is before second one, a
+     * positive value otherwise
+     * @throws IndexOutOfBoundsException if a range is outside of its array
+     */
+    public static int compare(@NonNull byte[] a1, int off1, int len1,
+                              @NonNull byte[] a2, int off2, int len2) {
+        checkSlice(a1.length, off1, len1);
+        checkSlice(a2.length, off2, len2);
+        int i = mismatch(a1, off1, a2, off2, Math.min(len1, len2));
+        if (i >= 0) {
+            return (a1[off1 + i] & 0xFF) - (a2[off2 + i] & 0xFF);
+        }
+        return len1 - len2;
+    }
+
+    /**
+     * Compare two arrays in a time that does not depend on their content.
+     * <p>
+     * To be used to check MACs, cryptograms or keys, where an early exit on the first different byte
+     * would tell an attacker how many bytes are right. Only the length of arrays may leak.
+     *
+     * @param a1 First array
+     * @param a2 Second array
+     * @return true if both arrays are not null and contain the same bytes
+     */
+    public static boolean secureEquals(@Nullable byte[] a1, @Nullable byte[] a2) {
+        if (a1 == null || a2 == null || a1.length != a2.length) {
+            return false;
         }
+        return secureEquals(a1, 0, a2, 0, a1.length);
+    }
 
-        return ret;
+    /**
+     * Compare {@code a1[off1, off1 + len[} and {@code a2[off2, off2 + len[} in a time that does not
+     * depend on their content.
+     *
+     * @param a1   First array
+     * @param off1 Offset in first array
+     * @param a2   Second array
+     * @param off2 Offset in second array
+     * @param len  Number of bytes to compare
+     * @return true if ranges contain the same bytes
+     * @throws IndexOutOfBoundsException if a range is outside of its array
+     * @see #secureEquals(byte[], byte[])
+     */
+    public static boolean secureEquals(@NonNull byte[] a1, int off1, @NonNull byte[] a2, int off2, int len) {
+        checkSlice(a1.length, off1, len);
+        checkSlice(a2.length, off2, len);
+        int diff = 0;
+        for (int i = 0; i < len; i++) {
+            diff |= a1[off1 + i] ^ a2[off2 + i];
+        }
+        return diff == 0;
     }
 
     /**
@@ -373,11 +529,9 @@ public final class BytesHelper {
     private static byte[] fillByteArrayWithZero(byte[] value, boolean bigEndian, int finalSize) {
         if (null != value) {
             if (value.length < finalSize) {
-                if (bigEndian) {
-                    value = appendTwoByteArrays(new byte[finalSize - value.length], value);
-                } else {
-                    value = appendTwoByteArrays(value, new byte[finalSize - value.length]);
-                }
+                byte[] filled = new byte[finalSize];
+                System.arraycopy(value, 0, filled, bigEndian ? finalSize - value.length : 0, value.length);
+                value = filled;
             }
         }
         return value;
@@ -391,27 +545,22 @@ public final class BytesHelper {
      * @return byte array
      */
     public static byte[] intToByteArray(int value, boolean bigEndian) {
-        ByteBuffer b = ByteBuffer.allocate(4);
-        b.order(bigEndian ? ByteOrder.BIG_ENDIAN
-                          : ByteOrder.LITTLE_ENDIAN); // optional, the initial order of a byte buffer is always BIG_ENDIAN.
-        b.putInt(value);
-        return b.array();
+        byte[] b = new byte[SIZE_INT];
+        ByteBuilder.putInt(b, 0, value, bigEndian);
+        return b;
     }
 
     /**
-     * Converts an integer in a 4 bytes array
+     * Converts a long in a 8 bytes array
      *
-     * @param value     integer to convert
+     * @param value     long to convert
      * @param bigEndian byte order: true big endian, false little endian
      * @return byte array
      */
     public static byte[] longToByteArray(long value, boolean bigEndian) {
-        ByteBuffer b = ByteBuffer.allocate(4);
-        b.order(bigEndian ? ByteOrder.BIG_ENDIAN
-                          : ByteOrder.LITTLE_ENDIAN); // optional, the initial order of a byte buffer is always BIG_ENDIAN.
-        b.putLong(value);
-
-        return b.array();
+        byte[] b = new byte[SIZE_LONG];
+        ByteBuilder.putLong(b, 0, value, bigEndian);
+        return b;
     }
 
     // / **** Stream **** ///
@@ -510,35 +659,23 @@ public final class BytesHelper {
     }
 
     /**
-     * Removes a byte from an array
+     * Removes all occurrences of a byte from an array
      *
      * @param array    the array to filter
      * @param valToRmv the value to remove
      * @return An array with valToRmv byte removed if present
      */
     public static byte[] removeFromArray(byte[] array, byte valToRmv) {
-        int i = 0;
-        boolean found = false;
-        byte[] endArray = null;
-
-        while ((i < array.length) && (!found)) {
-            if (array[i] == valToRmv) {
-                byte[] tempArray = new byte[array.length - i - 1];
-                System.arraycopy(array, i + 1, tempArray, 0, tempArray.length);
-                endArray = removeFromArray(tempArray, valToRmv);
-                found = true;
-            }
-            i++;
+        if (findByteInArray(array, valToRmv, 0) < 0) {
+            return array;
         }
-
-        if (found) {
-            byte[] newArray = new byte[array.length - 1];
-            System.arraycopy(array, 0, newArray, 0, i - 1);
-            System.arraycopy(endArray, 0, newArray, i - 1, endArray.length);
-            return (newArray);
+        ByteBuilder b = ByteBuilder.obtain();
+        try {
+            b.append(array).removeAll(valToRmv);
+            return b.toByteArray();
+        } finally {
+            b.recycle();
         }
-        return array;
-
     }
 
     /**
@@ -611,5 +748,4 @@ public final class BytesHelper {
         }
         return res;
     }
-
 }
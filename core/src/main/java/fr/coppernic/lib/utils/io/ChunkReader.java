@@ -0,0 +1,111 @@
+package fr.coppernic.lib.utils.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reads a stream chunk by chunk in the same buffer.
+ * <p>
+ * To be used by consumers that only need to see data once, like hashing, parsing or searching, so
+ * that the whole content is never held in memory:
+ * <pre>   {@code
+ *
+ *   ChunkReader reader = ChunkReader.open(file, 64 * 1024);
+ *   try {
+ *       while (reader.next()) {
+ *           digest.update(reader.buffer(), 0, reader.length());
+ *       }
+ *   } finally {
+ *       reader.close();
+ *   }
+ * }</pre>
+ * <p>
+ * Each chunk is full, except the last one. This class is not thread safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ChunkReader implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream mInput;
+    private final byte[] mBuffer;
+    private int mLength;
+    private long mPosition;
+    private boolean mEof;
+
+    /**
+     * @param input     Stream to read. It is closed by {@link #close()}.
+     * @param chunkSize Size of chunks
+     */
+    public ChunkReader(@NonNull InputStream input, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        mInput = input;
+        mBuffer = new byte[chunkSize];
+    }
+
+    /**
+     * @param file      File to read
+     * @param chunkSize Size of chunks
+     * @return a reader on file
+     * @throws IOException if file cannot be opened
+     */
+    @NonNull
+    public static ChunkReader open(@NonNull File file, int chunkSize) throws IOException {
+        return new ChunkReader(new FileInputStream(file), chunkSize);
+    }
+
+    /**
+     * Read next chunk in {@link #buffer()}. Previous chunk is overwritten.
+     *
+     * @return true if a chunk has been read, false at end of stream
+     * @throws IOException if stream cannot be read
+     */
+    public boolean next() throws IOException {
+        mPosition += mLength;
+        mLength = 0;
+        while (!mEof && mLength < mBuffer.length) {
+            int n = mInput.read(mBuffer, mLength, mBuffer.length - mLength);
+            if (n < 0) {
+                mEof = true;
+            } else {
+                mLength += n;
+            }
+        }
+        return mLength > 0;
+    }
+
+    /**
+     * @return Buffer containing current chunk, from 0 to {@link #length()}. It is reused for next
+     * chunk.
+     */
+    @NonNull
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return Number of bytes of current chunk
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * @return Position of current chunk in stream
+     */
+    public long position() {
+        return mPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+}
@@ -0,0 +1,414 @@
+package fr.coppernic.lib.utils.io;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.util.LruCache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static fr.coppernic.lib.utils.BuildConfig.DEBUG;
+import static fr.coppernic.lib.utils.log.LogDefines.LOG;
+
+/**
+ * Resolves columns of content Uris with as few queries as possible.
+ * <p>
+ * All columns needed for an Uri are fetched in one query, and results are kept in a small LRU
+ * cache. Cached entries are invalidated when provider notifies a change of the Uri or of one of
+ * its parents. Authorities that do not let us observe them are not cached.
+ * </p>
+ * <p>
+ * {@link #resolveAll(Collection, String...)} resolves Uris ending with a numerical id, like
+ * {@code content://media/external/images/media/42}, with one query on their parent Uri and a
+ * {@code _id IN (...)} selection. Uris that are not returned by such a query, or whose provider
+ * refuses it, are resolved one by one.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ColumnResolver implements Closeable {
+
+    /**
+     * Columns needed by {@link FileHelper} to find a file behind an Uri
+     */
+    public static final String[] FILE_COLUMNS = new String[]{
+        MediaStore.Files.FileColumns.DATA, OpenableColumns.DISPLAY_NAME
+    };
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    /**
+     * Number of ids in one IN clause, under SQLite limit of 999 arguments
+     */
+    private static final int MAX_IN_ARGS = 500;
+
+    private static ColumnResolver sInstance;
+
+    private final ContentResolver mResolver;
+    private final LruCache<Uri, Columns> mCache;
+    private final Map<String, ContentObserver> mObservers = new HashMap<>();
+    /**
+     * Authorities that cannot be observed, so never cached
+     */
+    private final Set<String> mUnobservable = new HashSet<>();
+    /**
+     * Incremented on each invalidation, so that a query racing with it is not cached
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private boolean mClosed;
+
+    /**
+     * Columns of an Uri
+     */
+    public static final class Columns {
+        private final Map<String, String> mValues;
+
+        Columns(Map<String, String> values) {
+            mValues = values;
+        }
+
+        /**
+         * @param column Column name
+         * @return true if column has been queried, even if provider gave no value
+         */
+        public boolean has(@NonNull String column) {
+            return mValues.containsKey(column);
+        }
+
+        /**
+         * @param column Column name
+         * @return Value of column, or empty string if it is unknown or null
+         */
+        @NonNull
+        public String getString(@NonNull String column) {
+            String s = mValues.get(column);
+            return s == null || s.equals("null") ? "" : s;
+        }
+
+        boolean hasAll(String[] columns) {
+            for (String column : columns) {
+                if (!mValues.containsKey(column)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "Columns" + mValues;
+        }
+    }
+
+    /**
+     * @param context   Context
+     * @param cacheSize Maximum number of Uris in cache
+     */
+    public ColumnResolver(@NonNull Context context, int cacheSize) {
+        mResolver = context.getContentResolver();
+        mCache = new LruCache<>(cacheSize);
+    }
+
+    /**
+     * @param context Context
+     * @return Resolver shared in process, with a cache of {@link #DEFAULT_CACHE_SIZE} Uris
+     */
+    @NonNull
+    public static synchronized ColumnResolver get(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new ColumnResolver(context.getApplicationContext(), DEFAULT_CACHE_SIZE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get some columns of an Uri, in one query at most.
+     *
+     * @param uri     Uri
+     * @param columns Columns needed
+     * @return Columns of Uri. Columns not supported by provider have no value.
+     */
+    @NonNull
+    public Columns resolve(@NonNull Uri uri, @NonNull String... columns) {
+        Columns cached = mCache.get(uri);
+        if (cached != null && cached.hasAll(columns)) {
+            return cached;
+        }
+        int generation = mGeneration.get();
+        Columns res = query(uri, union(cached, columns));
+        cache(uri, res, generation);
+        return res;
+    }
+
+    /**
+     * Get some columns of several Uris, with one query per provider collection when possible.
+     *
+     * @param uris    Uris
+     * @param columns Columns needed
+     * @return Columns of each Uri, in the order of uris
+     */
+    @NonNull
+    public Map<Uri, Columns> resolveAll(@NonNull Collection<Uri> uris, @NonNull String... columns) {
+        Map<Uri, Columns> res = new LinkedHashMap<>();
+        Map<Uri, List<Uri>> byParent = new LinkedHashMap<>();
+        List<Uri> single = new ArrayList<>();
+        for (Uri uri : uris) {
+            Columns cached = mCache.get(uri);
+            if (cached != null && cached.hasAll(columns)) {
+                res.put(uri, cached);
+                continue;
+            }
+            res.put(uri, null);
+            Uri parent = getParent(uri);
+            if (parent == null) {
+                single.add(uri);
+            } else {
+                List<Uri> children = byParent.get(parent);
+                if (children == null) {
+                    children = new ArrayList<>();
+                    byParent.put(parent, children);
+                }
+                children.add(uri);
+            }
+        }
+        int generation = mGeneration.get();
+        for (Map.Entry<Uri, List<Uri>> e : byParent.entrySet()) {
+            List<Uri> children = e.getValue();
+            if (children.size() == 1) {
+                single.addAll(children);
+                continue;
+            }
+            for (int from = 0; from < children.size(); from += MAX_IN_ARGS) {
+                List<Uri> chunk = children.subList(from, Math.min(children.size(), from + MAX_IN_ARGS));
+                Map<String, Columns> rows = queryIn(e.getKey(), chunk, columns);
+                for (Uri uri : chunk) {
+                    Columns c = rows.get(uri.getLastPathSegment());
+                    if (c == null) {
+                        single.add(uri);
+                    } else {
+                        res.put(uri, c);
+                        cache(uri, c, generation);
+                    }
+                }
+            }
+        }
+        for (Uri uri : single) {
+            res.put(uri, resolve(uri, columns));
+        }
+        return res;
+    }
+
+    /**
+     * Remove an Uri and all Uris below it from cache.
+     *
+     * @param uri Uri to invalidate, null to clear the whole cache
+     */
+    public void invalidate(@Nullable Uri uri) {
+        mGeneration.incrementAndGet();
+        if (uri == null) {
+            mCache.evictAll();
+            return;
+        }
+        String prefix = uri.toString();
+        for (Uri cached : mCache.snapshot().keySet()) {
+            String s = cached.toString();
+            if (s.startsWith(prefix) && (s.length() == prefix.length() || s.charAt(prefix.length()) == '/')) {
+                mCache.remove(cached);
+            }
+        }
+    }
+
+    /**
+     * Clear cache and stop observing providers. Resolver can still be used, but nothing is cached
+     * anymore.
+     */
+    @Override
+    public void close() {
+        synchronized (mObservers) {
+            for (ContentObserver observer : mObservers.values()) {
+                mResolver.unregisterContentObserver(observer);
+            }
+            mObservers.clear();
+            mClosed = true;
+        }
+        mCache.evictAll();
+    }
+
+    private void cache(Uri uri, Columns columns, int generation) {
+        if (observe(uri.getAuthority()) && generation == mGeneration.get()) {
+            mCache.put(uri, columns);
+        }
+    }
+
+    /**
+     * @return true if changes of authority are observed
+     */
+    private boolean observe(@Nullable String authority) {
+        synchronized (mObservers) {
+            if (mObservers.containsKey(authority)) {
+                return true;
+            }
+            if (authority == null || mClosed || mUnobservable.contains(authority)) {
+                return false;
+            }
+            ContentObserver observer = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange, @Nullable Uri uri) {
+                    if (DEBUG) {
+                        LOG.trace("Invalidate {}", uri);
+                    }
+                    invalidate(uri);
+                }
+            };
+            try {
+                mResolver.registerContentObserver(new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT)
+                                                      .authority(authority).build(), true, observer);
+            } catch (SecurityException e) {
+                LOG.warn("Cannot observe {}, it will not be cached: {}", authority, e.getMessage());
+                mUnobservable.add(authority);
+                return false;
+            }
+            mObservers.put(authority, observer);
+            return true;
+        }
+    }
+
+    private Columns query(Uri uri, String[] columns) {
+        Map<String, String> values = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(uri, columns, null, null, null);
+            read(cursor, columns, values);
+        } catch (IllegalArgumentException e) {
+            // Some providers reject unknown columns, get others one by one
+            if (DEBUG) {
+                LOG.debug("Query of {} failed, query columns one by one: {}", uri, e.getMessage());
+            }
+            for (String column : columns) {
+                String[] projection = new String[]{column};
+                Closeables.closeQuietly(cursor);
+                cursor = null;
+                try {
+                    cursor = mResolver.query(uri, projection, null, null, null);
+                    read(cursor, projection, values);
+                } catch (IllegalArgumentException ignore) {
+                    values.put(column, null);
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(cursor);
+        }
+        return new Columns(values);
+    }
+
+    private static void read(@Nullable Cursor cursor, String[] columns, Map<String, String> values) {
+        boolean found = cursor != null && cursor.moveToFirst();
+        for (String column : columns) {
+            int index = found ? cursor.getColumnIndex(column) : -1;
+            values.put(column, index < 0 ? null : cursor.getString(index));
+        }
+    }
+
+    /**
+     * @return Columns of rows found, by id
+     */
+    private Map<String, Columns> queryIn(Uri parent, List<Uri> children, String[] columns) {
+        String[] projection = new String[columns.length + 1];
+        System.arraycopy(columns, 0, projection, 0, columns.length);
+        projection[columns.length] = BaseColumns._ID;
+        String[] ids = new String[children.size()];
+        StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = children.get(i).getLastPathSegment();
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(parent, projection, selection.toString(), ids, null);
+            if (cursor == null) {
+                return Collections.emptyMap();
+            }
+            int idIndex = cursor.getColumnIndex(BaseColumns._ID);
+            if (idIndex < 0) {
+                return Collections.emptyMap();
+            }
+            int[] indexes = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                indexes[i] = cursor.getColumnIndex(columns[i]);
+            }
+            Map<String, Columns> rows = new HashMap<>();
+            while (cursor.moveToNext()) {
+                Map<String, String> values = new HashMap<>();
+                for (int i = 0; i < columns.length; i++) {
+                    values.put(columns[i], indexes[i] < 0 ? null : cursor.getString(indexes[i]));
+                }
+                rows.put(cursor.getString(idIndex), new Columns(values));
+            }
+            return rows;
+        } catch (RuntimeException e) {
+            // Provider does not support this query, Uris are resolved one by one
+            if (DEBUG) {
+                LOG.debug("Batch query of {} failed: {}", parent, e.getMessage());
+            }
+            return Collections.emptyMap();
+        } finally {
+            Closeables.closeQuietly(cursor);
+        }
+    }
+
+    /**
+     * @return Parent of a content Uri ending with a numerical id, null for other Uris
+     */
+    @Nullable
+    private static Uri getParent(Uri uri) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())
+            || uri.getQuery() != null || uri.getFragment() != null) {
+            return null;
+        }
+        String id = uri.getLastPathSegment();
+        if (id == null || id.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (id.charAt(i) < '0' || id.charAt(i) > '9') {
+                return null;
+            }
+        }
+        String s = uri.toString();
+        if (!s.endsWith("/" + id)) {
+            return null;
+        }
+        return Uri.parse(s.substring(0, s.length() - id.length() - 1));
+    }
+
+    private static String[] union(@Nullable Columns cached, String[] columns) {
+        if (cached == null) {
+            return columns;
+        }
+        Set<String> all = new LinkedHashSet<>(cached.mValues.keySet());
+        Collections.addAll(all, columns);
+        return all.toArray(new String[0]);
+    }
+}
@@ -20,9 +20,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.SyncFailedException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Collection;
 
 import androidx.annotation.NonNull;
@@ -298,13 +302,7 @@ public final class FileHelper {
                 md.update(buffer, 0, nRead);
             }
 
-            byte[] mdBytes = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte mdByte : mdBytes) {
-                sb.append(Integer.toString((mdByte & 0xff) + 0x100, 16).substring(1));
-            }
-
-            return sb.toString();
+            return digestToString(md.digest());
         } catch (IOException e) {
             e.printStackTrace();
         } catch (NoSuchAlgorithmException e) {
@@ -313,6 +311,18 @@ public final class FileHelper {
         return "";
     }
 
+    /**
+     * @param digest Digest bytes
+     * @return Digest as lower case hexadecimal string, as returned by {@link #getSha1FromFile(File)}
+     */
+    static String digestToString(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+        }
+        return sb.toString();
+    }
+
     /**
      * Calculate the sha1 signature of data from resource
      *
@@ -531,16 +541,81 @@ public final class FileHelper {
      */
     public static byte[] getBytesFromFile(File f) {
         byte[] data = null;
-        FileInputStream in = null;
         try {
-            in = new FileInputStream(f);
-            data = BytesHelper.getBytesFromInputStream(in);
+            data = readFully(f);
         } catch (IOException e) {
             LogAdditionsKt.trace(LOG, e);
+        }
+        return data;
+    }
+
+    /**
+     * Read all bytes of a file.
+     * <p>
+     * File length is known, so result is read directly in an array of that size, without
+     * intermediate copy. If file changes during read, returned array has its real length.
+     *
+     * @param f File
+     * @return bytes of file
+     * @throws IOException if file cannot be read
+     */
+    @NonNull
+    public static byte[] readFully(@NonNull File f) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            long size = in.getChannel().size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too big to fit in an array : " + size);
+            }
+            byte[] data = new byte[(int) size];
+            int len = 0;
+            int n = 0;
+            while (len < data.length && n >= 0) {
+                n = in.read(data, len, data.length - len);
+                if (n > 0) {
+                    len += n;
+                }
+            }
+            if (len < data.length) {
+                // File has shrunk
+                return Arrays.copyOf(data, len);
+            }
+            int b = in.read();
+            if (b < 0) {
+                return data;
+            }
+            // File has grown, or size was unknown (/proc files)
+            ByteBuilder builder = new ByteBuilder(Math.max(data.length * 2, BUFFER_SIZE));
+            builder.append(data).append((byte) b);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while ((n = in.read(buffer)) >= 0) {
+                builder.append(buffer, 0, n);
+            }
+            return builder.toByteArray();
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Map a file in memory, read only.
+     * <p>
+     * Content is loaded by the kernel when it is accessed and is never copied in Java heap, which
+     * suits big files that are searched or parsed. Mapping stays valid once file is closed.
+     *
+     * @param f File
+     * @return read only buffer mapping whole file
+     * @throws IOException if file cannot be mapped
+     */
+    @NonNull
+    public static MappedByteBuffer map(@NonNull File f) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         } finally {
             Closeables.closeQuietly(in);
         }
-        return data;
     }
 
     /**
@@ -561,6 +636,10 @@ public final class FileHelper {
 
     /**
      * Delete all files contained in directory
+     * <p>
+     * Deletion is shared between threads of {@link TreeDeleter#getDefault()}. Use
+     * {@link TreeDeleter#clearInBackground(File, TreeDeleter.Listener)} to return before the end of
+     * deletion.
      *
      * @param dir        Directory to clear
      * @param recursive  True if subdirectories has to be cleared
@@ -581,25 +660,15 @@ public final class FileHelper {
             LOG.error("Dir is not a directory");
             res = RESULT.INVALID_PARAM.toResult();
         } else {
-            for (File f : dir.listFiles()) {
-                if (f.isDirectory() && recursive) {
-                    //noinspection ConstantConditions
-                    clearDirectory(f, recursive, deleteSelf);
-                } else //noinspection StatementWithEmptyBody
-                    if (!f.isDirectory()) {
-                        if (DEBUG) {
-                            LOG.trace("Delete {}", f.getPath());
-                        }
-                        res = f.delete() ? res : RESULT.ERROR.toResult();
-                    } else {
-                        //ignore
-                    }
-            }
-            if (deleteSelf) {
+            try {
+                TreeDeleter.Report report = TreeDeleter.getDefault().delete(dir, recursive, deleteSelf);
                 if (DEBUG) {
-                    LOG.trace("Delete {}", dir.getPath());
+                    LOG.trace("Clear {} : {}", dir.getPath(), report);
                 }
-                res = dir.delete() ? res : RESULT.ERROR.toResult();
+                res = report.toResult();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                res = RESULT.ERROR.toResult().withCause(e);
             }
         }
         return res;
@@ -651,6 +720,9 @@ public final class FileHelper {
      * Store data bytes in file designed by Uri
      * <p>
      * A file with {@link Uri#getPath()} will be created
+     * <p>
+     * Uri with file scheme are written atomically with {@link AtomicWriter}. Other ones are
+     * written in place, and synced if provider gives a file.
      *
      * @param context Context needed if Uri has content scheme
      * @param uri     file's uri
@@ -662,6 +734,9 @@ public final class FileHelper {
      * </ul>
      */
     public static Result saveFile(Context context, Uri uri, byte[] data) {
+        if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            return saveFile(new File(uri.getPath()), data);
+        }
         Result res = RESULT.OK.toResult();
         InputStream is = new ByteArrayInputStream(data);
         OutputStream os = null;
@@ -670,6 +745,9 @@ public final class FileHelper {
             if (os != null) {
                 BytesHelper.copyStream(is, os);
                 os.flush();
+                if (os instanceof FileOutputStream) {
+                    ((FileOutputStream) os).getFD().sync();
+                }
             }
         } catch (FileNotFoundException e) {
             res = RESULT.FILE_NOT_FOUND.toResult().withCause(e);
@@ -683,9 +761,46 @@ public final class FileHelper {
     }
 
     /**
-     * Save all data contained in input stream into file
+     * Save data into file atomically
+     * <p>
+     * Data is durable when this method returns, and file is left untouched on error.
+     * <p>
+     * Files that cannot be replaced without changing them, like device or sysfs files, links, files
+     * owned by another user or files in a read only directory, are written in place instead.
+     *
+     * @param f    File to be written
+     * @param data Data to write
+     * @return OK or ERROR :
+     * <ul>
+     * <li>FILE_NOT_FOUND</li>
+     * <li>IO</li>
+     * </ul>
+     * @see AtomicWriter
+     */
+    public static Result saveFile(File f, byte[] data) {
+        Result res = RESULT.OK.toResult();
+        try {
+            if (AtomicWriter.isReplaceable(f)) {
+                AtomicWriter.write(f, data);
+            } else {
+                writeInPlace(f, new ByteArrayInputStream(data));
+            }
+        } catch (FileNotFoundException e) {
+            res = RESULT.FILE_NOT_FOUND.toResult().withCause(e);
+        } catch (IOException e) {
+            res = RESULT.IO.toResult().withCause(e);
+        }
+        return res;
+    }
+
+    /**
+     * Save all data contained in input stream into file atomically
+     * <p>
+     * Input stream is closed by this method. Data is durable when this method returns, and file is
+     * left untouched on error.
      * <p>
-     * Input stream is closed by this method
+     * Files that cannot be replaced without changing them, like device or sysfs files, links, files
+     * owned by another user or files in a read only directory, are written in place instead.
      *
      * @param f  File to be written
      * @param is Data to write
@@ -694,25 +809,44 @@ public final class FileHelper {
      * <li>FILE_NOT_FOUND</li>
      * <li>IO</li>
      * </ul>
+     * @see AtomicWriter
      */
     public static Result saveFile(File f, InputStream is) {
         Result res = RESULT.OK.toResult();
-        FileOutputStream out = null;
         try {
-            out = new FileOutputStream(f);
-            BytesHelper.copyStream(is, out);
-            out.flush();
+            if (AtomicWriter.isReplaceable(f)) {
+                AtomicWriter.write(f, is);
+            } else {
+                writeInPlace(f, is);
+            }
         } catch (FileNotFoundException e) {
             res = RESULT.FILE_NOT_FOUND.toResult().withCause(e);
         } catch (IOException e) {
             res = RESULT.IO.toResult().withCause(e);
         } finally {
-            Closeables.closeQuietly(out);
             Closeables.closeQuietly(is);
         }
         return res;
     }
 
+    private static void writeInPlace(File f, InputStream is) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            BytesHelper.copyStream(is, out);
+            out.flush();
+            try {
+                out.getFD().sync();
+            } catch (SyncFailedException e) {
+                // Device and sysfs files may not support it
+                if (f.isFile()) {
+                    throw e;
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(out);
+        }
+    }
+
     /**
      * Convert a Uri to a file
      *
@@ -794,9 +928,14 @@ public final class FileHelper {
     }
 
 
+    /**
+     * Get data column of an Uri. Name column is fetched in the same query and both are cached, see
+     * {@link ColumnResolver}.
+     */
     @NonNull
     public static String getDataColumn(Context context, Uri uri) {
-        return getDataColumn(context, uri, null);
+        return ColumnResolver.get(context).resolve(uri, ColumnResolver.FILE_COLUMNS)
+            .getString(MediaStore.Files.FileColumns.DATA);
     }
 
     @NonNull
@@ -810,9 +949,14 @@ public final class FileHelper {
     }
 
 
+    /**
+     * Get display name column of an Uri. Data column is fetched in the same query and both are
+     * cached, see {@link ColumnResolver}.
+     */
     @NonNull
     public static String getNameColumn(Context context, Uri uri) {
-        return getColumnContent(context, uri, OpenableColumns.DISPLAY_NAME, null, null);
+        return ColumnResolver.get(context).resolve(uri, ColumnResolver.FILE_COLUMNS)
+            .getString(OpenableColumns.DISPLAY_NAME);
     }
 
 
@@ -0,0 +1,274 @@
+package fr.coppernic.lib.utils.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static fr.coppernic.lib.utils.BuildConfig.DEBUG;
+import static fr.coppernic.lib.utils.log.LogDefines.LOG;
+
+/**
+ * Runs file operations on a bounded pool of named threads.
+ * <p>
+ * Flash storage does not go faster with many concurrent requests, so the default pool has a few
+ * threads only, and other tasks wait in queue. Each operation returns a {@link Future}, and
+ * {@code cancel(true)} interrupts it: copies, reads and writes go through {@link FileChannel}
+ * that stop as soon as thread is interrupted, and hashing checks interruption between chunks.
+ * A cancelled copy or write does not leave a partial file.
+ * </p>
+ * <p>
+ * {@link #getExecutorService()} can be used to build schedulers for other async frameworks.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class IoExecutor {
+
+    /**
+     * Follows progress of a copy. Called on executor thread.
+     */
+    public interface ProgressListener {
+        /**
+         * @param done  Number of bytes copied so far
+         * @param total Total number of bytes to copy
+         */
+        void onProgress(long done, long total);
+    }
+
+    /**
+     * Maximum number of threads of default executor
+     */
+    public static final int DEFAULT_MAX_THREADS = 4;
+    /**
+     * Bytes copied between two interruption checks and progress notifications
+     */
+    private static final long COPY_CHUNK_SIZE = 256 * 1024;
+
+    private static IoExecutor sDefault;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * @param name    Prefix of thread names
+     * @param threads Maximum number of threads. Threads stop when idle.
+     */
+    public IoExecutor(@NonNull final String name, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        mExecutor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread t = new Thread(r, name + "-" + mCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return Executor with one thread per CPU, up to {@link #DEFAULT_MAX_THREADS}
+     */
+    @NonNull
+    public static synchronized IoExecutor getDefault() {
+        if (sDefault == null) {
+            int n = Math.max(2, Math.min(DEFAULT_MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            sDefault = new IoExecutor("IoExecutor", n);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @return Underlying executor service
+     */
+    @NonNull
+    public ExecutorService getExecutorService() {
+        return mExecutor;
+    }
+
+    /**
+     * @param task Task to run on executor
+     * @return Future of task
+     */
+    @NonNull
+    public <T> Future<T> submit(@NonNull Callable<T> task) {
+        return mExecutor.submit(task);
+    }
+
+    /**
+     * Copy a file, see {@link #copyFile(File, File, ProgressListener)}
+     *
+     * @return Future of number of bytes copied
+     */
+    @NonNull
+    public Future<Long> copy(@NonNull final File src, @NonNull final File dest,
+                             @Nullable final ProgressListener listener) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return copyFile(src, dest, listener);
+            }
+        });
+    }
+
+    /**
+     * Compute sha1 of a file, see {@link #sha1(File)}
+     *
+     * @return Future of sha1 string
+     */
+    @NonNull
+    public Future<String> getSha1(@NonNull final File f) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return sha1(f);
+            }
+        });
+    }
+
+    /**
+     * Write a file atomically, see {@link AtomicWriter#write(File, byte[])}
+     *
+     * @return Future completed when data is durable
+     */
+    @NonNull
+    public Future<Void> save(@NonNull final File f, @NonNull final byte[] data) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                AtomicWriter.write(f, data);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Read a file, see {@link FileHelper#readFully(File)}
+     *
+     * @return Future of file content
+     */
+    @NonNull
+    public Future<byte[]> read(@NonNull final File f) {
+        return submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return FileHelper.readFully(f);
+            }
+        });
+    }
+
+    /**
+     * Clear a directory, see {@link TreeDeleter#delete(File, boolean, boolean)}
+     *
+     * @return Future of deletion report
+     */
+    @NonNull
+    public Future<TreeDeleter.Report> clear(@NonNull final File dir, final boolean recursive,
+                                            final boolean deleteSelf) {
+        return submit(new Callable<TreeDeleter.Report>() {
+            @Override
+            public TreeDeleter.Report call() throws InterruptedException {
+                return TreeDeleter.getDefault().delete(dir, recursive, deleteSelf);
+            }
+        });
+    }
+
+    /**
+     * Copy content of a file into another, in the calling thread.
+     * <p>
+     * Copy stops if thread is interrupted, and destination is deleted then.
+     *
+     * @param src      Source file
+     * @param dest     Destination file
+     * @param listener Listener of progress, can be null
+     * @return Number of bytes copied
+     * @throws IOException if copy fails, {@link InterruptedIOException} or
+     *                     {@link java.nio.channels.ClosedByInterruptException} if interrupted
+     */
+    public static long copyFile(@NonNull File src, @NonNull File dest,
+                                @Nullable ProgressListener listener) throws IOException {
+        if (DEBUG) {
+            LOG.debug("Copy from {} into {}", src.getAbsolutePath(), dest.getAbsolutePath());
+        }
+        FileInputStream in = new FileInputStream(src);
+        FileOutputStream out = null;
+        boolean done = false;
+        try {
+            out = new FileOutputStream(dest);
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            long total = inChannel.size();
+            long position = 0;
+            while (position < total) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Copy of " + src.getPath() + " interrupted");
+                }
+                long n = inChannel.transferTo(position, Math.min(COPY_CHUNK_SIZE, total - position), outChannel);
+                if (n <= 0) {
+                    // File shrank during copy
+                    break;
+                }
+                position += n;
+                if (listener != null) {
+                    listener.onProgress(position, total);
+                }
+            }
+            done = true;
+            return position;
+        } finally {
+            Closeables.closeQuietly(in);
+            Closeables.closeQuietly(out);
+            if (!done && out != null && !dest.delete()) {
+                LOG.warn("Cannot delete {}", dest.getPath());
+            }
+        }
+    }
+
+    /**
+     * Compute sha1 of a file, in the calling thread.
+     *
+     * @param f File
+     * @return Sha1 string, in the same format as {@link FileHelper#getSha1FromFile(File)}
+     * @throws IOException if file cannot be read, {@link InterruptedIOException} if interrupted
+     */
+    @NonNull
+    public static String sha1(@NonNull File f) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        ChunkReader reader = ChunkReader.open(f, ChunkReader.DEFAULT_CHUNK_SIZE);
+        try {
+            while (reader.next()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Hash of " + f.getPath() + " interrupted");
+                }
+                md.update(reader.buffer(), 0, reader.length());
+            }
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+        return FileHelper.digestToString(md.digest());
+    }
+}
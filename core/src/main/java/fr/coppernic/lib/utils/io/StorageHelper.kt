@@ -1,17 +1,48 @@
 package fr.coppernic.lib.utils.io
 
+import android.content.BroadcastReceiver
 import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
 import android.os.Build
 import android.os.Environment
+import android.os.StatFs
 import androidx.core.content.ContextCompat
 import fr.coppernic.lib.utils.BuildConfig.DEBUG
+import fr.coppernic.lib.utils.core.HashHelpers
 import fr.coppernic.lib.utils.log.LogDefines.LOG
 import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
 import java.util.*
 
 @Suppress("MemberVisibilityCanBePrivate")
 object StorageHelper {
 
+    private const val DEFAULT_MOUNT = "/mnt/sdcard"
+    private const val PROC_MOUNTS = "/proc/mounts"
+    private const val LF: Byte = 10
+    private const val CR: Byte = 13
+    private const val SPACE: Byte = 32
+    private const val TAB: Byte = 9
+    private val VOLD_PREFIX = "/dev/block/vold/".toByteArray(Charsets.US_ASCII)
+    private val DEV_MOUNT = "dev_mount".toByteArray(Charsets.US_ASCII)
+
+    private val lock = Any()
+    private var buffer = ByteArray(4096)
+    private var cachedMounts: List<String>? = null
+    private var cachedMountsHash = 0L
+    private var cachedVoldStamp = 0L
+    private var receiverRegistered = false
+    @Volatile
+    private var invalidated = true
+
+    private val mountReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            invalidate()
+        }
+    }
+
     /**
      * Try getting real SDCard path.
      *
@@ -97,134 +128,265 @@ object StorageHelper {
 
     /**
      * @return The list of external storage available on the system.
+     *
+     * Result is cached. Cache is refreshed when content of /proc/mounts or of vold file changes,
+     * when [invalidate] is called or when a media broadcast is received after
+     * [registerMountReceiver].
      */
     fun determineStorageOptions(): ArrayList<String> {
+        synchronized(lock) {
+            // /proc files have no meaningful modification time, content is compared instead
+            val mountsLen = readFully(File(PROC_MOUNTS))
+            val mountsHash = if (mountsLen < 0) 0L else HashHelpers.hash64(buffer, 0, mountsLen)
+            val vold = voldFile()
+            val voldStamp = vold.lastModified()
+
+            val cached = cachedMounts
+            if (cached != null && !invalidated
+                && mountsHash == cachedMountsHash && voldStamp == cachedVoldStamp) {
+                return ArrayList(cached)
+            }
+            // Cleared before scanning, so that a broadcast received during the scan is not lost
+            invalidated = false
+
+            // some mount files don't list the default
+            // path first, so we add it here to
+            // ensure that it is first in our list
+            val mounts = ArrayList<String>()
+            mounts.add(DEFAULT_MOUNT)
+            if (mountsLen > 0) {
+                parseMounts(buffer, mountsLen, mounts)
+            }
 
-        val mMounts = ArrayList<String>()
-        val mVOld = ArrayList<String>()
+            // some devices are missing the vold file entirely
+            // so we add a path here to make sure the list always
+            // includes the path to the first sdcard, whether real
+            // or emulated.
+            val volds = HashSet<String>()
+            volds.add(DEFAULT_MOUNT)
+            val voldLen = readFully(vold)
+            if (voldLen > 0) {
+                parseVold(buffer, voldLen, volds)
+            }
 
-        readMountsFile(mMounts)
+            // We only want those mount points that are in both list.
+            mounts.retainAll(volds)
 
-        readVoldFile(mVOld)
+            testAndCleanMountsList(mounts)
 
-        compareMountsWithVold(mMounts, mVOld)
+            cachedMounts = mounts
+            cachedMountsHash = mountsHash
+            cachedVoldStamp = voldStamp
+            return ArrayList(mounts)
+        }
+    }
 
-        testAndCleanMountsList(mMounts)
+    /**
+     * Get size of each storage returned by [determineStorageOptions].
+     *
+     * @return Snapshot of storage volumes, sizes are in bytes
+     */
+    @Suppress("DEPRECATION")
+    fun getVolumeStats(): List<VolumeStats> {
+        val ret = ArrayList<VolumeStats>()
+        for (path in determineStorageOptions()) {
+            try {
+                val stat = StatFs(path)
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                    ret.add(VolumeStats(path,
+                            stat.blockSize.toLong() * stat.blockCount.toLong(),
+                            stat.blockSize.toLong() * stat.availableBlocks.toLong()))
+                } else {
+                    ret.add(VolumeStats(path, stat.totalBytes, stat.availableBytes))
+                }
+            } catch (e: IllegalArgumentException) {
+                // Volume has been removed since last scan
+                LOG.warn(e.toString())
+            }
+        }
+        return ret
+    }
 
-        return mMounts
+    /**
+     * Force next call to [determineStorageOptions] to scan mounts again
+     */
+    fun invalidate() {
+        invalidated = true
     }
 
-    private fun readMountsFile(mMounts: ArrayList<String>) {
+    /**
+     * Listen to media broadcasts to refresh storage list as soon as a volume is mounted or
+     * removed.
+     *
+     * @param context Android context
+     */
+    fun registerMountReceiver(context: Context) {
+        synchronized(lock) {
+            if (receiverRegistered) {
+                return
+            }
+            val filter = IntentFilter()
+            filter.addAction(Intent.ACTION_MEDIA_MOUNTED)
+            filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED)
+            filter.addAction(Intent.ACTION_MEDIA_REMOVED)
+            filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL)
+            filter.addAction(Intent.ACTION_MEDIA_EJECT)
+            filter.addDataScheme("file")
+            context.applicationContext.registerReceiver(mountReceiver, filter)
+            receiverRegistered = true
+            invalidated = true
+        }
+    }
 
-        /*
-         * Scan the /proc/mounts file and look for lines like this:
-         * /dev/block/vold/179:1 /mnt/sdcard vfat
-         * rw,dirsync,nosuid,nodev,noexec,
-         * relatime,uid=1000,gid=1015,fmask=0602,dmask
-         * =0602,allow_utime=0020,codepage
-         * =cp437,iocharset=iso8859-1,shortname=mixed,utf8,errors=remount-ro 0 0
-         *
-         * When one is found, split it into its elements and then pull out the
-         * path to the that mount point and add it to the arraylist
-         */
+    /**
+     * Stop listening to media broadcasts
+     *
+     * @param context Android context
+     */
+    fun unregisterMountReceiver(context: Context) {
+        synchronized(lock) {
+            if (receiverRegistered) {
+                context.applicationContext.unregisterReceiver(mountReceiver)
+                receiverRegistered = false
+            }
+        }
+    }
 
-        // some mount files don't list the default
-        // path first, so we add it here to
-        // ensure that it is first in our list
-        mMounts.add("/mnt/sdcard")
+    private fun voldFile(): File {
+        return if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            File("/system/etc/vold.fstab")
+        } else {
+            File("/fstab.qcom")
+        }
+    }
 
+    /**
+     * Read file in [buffer]
+     *
+     * @return number of bytes read or -1 if file cannot be read
+     */
+    private fun readFully(file: File): Int {
+        var input: FileInputStream? = null
         try {
-            val scanner = Scanner(File("/proc/mounts"))
-            while (scanner.hasNext()) {
-                val line = scanner.nextLine()
-                if (line.startsWith("/dev/block/vold/")) {
-                    val lineElements = line.split(" ".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-                    val element = lineElements[1]
-
-                    // don't add the default mount path
-                    // it's already in the list.
-                    if (element != "/mnt/sdcard") {
-                        mMounts.add(element)
-                    }
+            input = FileInputStream(file)
+            var len = 0
+            var n = 0
+            while (n >= 0) {
+                if (len == buffer.size) {
+                    buffer = buffer.copyOf(buffer.size * 2)
+                }
+                n = input.read(buffer, len, buffer.size - len)
+                if (n > 0) {
+                    len += n
                 }
             }
-            scanner.close()
-        } catch (e: Exception) {
-            // Auto-generated catch block
-            e.printStackTrace()
+            return len
+        } catch (e: IOException) {
+            LOG.warn(e.toString())
+            return -1
+        } finally {
+            Closeables.closeQuietly(input)
         }
-
     }
 
-    private fun readVoldFile(mVold: ArrayList<String>) {
-        /*
-         * Scan the /system/etc/vold.fstab file and look for lines like this:
-         * dev_mount sdcard /mnt/sdcard 1
-         * /devices/platform/s3c-sdhci.0/mmc_host/mmc0
-         *
-         * When one is found, split it into its elements and then pull out the
-         * path to the that mount point and add it to the arraylist
-         */
-
-        // some devices are missing the vold file entirely
-        // so we add a path here to make sure the list always
-        // includes the path to the first sdcard, whether real
-        // or emulated.
-        mVold.add("/mnt/sdcard")
-
-        try {
-            val scanner: Scanner = if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-                Scanner(File("/system/etc/vold.fstab"))
-            } else {
-                Scanner(File("/fstab.qcom"))
+    /**
+     * Scan the /proc/mounts file and look for lines like this:
+     * /dev/block/vold/179:1 /mnt/sdcard vfat
+     * rw,dirsync,nosuid,nodev,noexec,
+     * relatime,uid=1000,gid=1015,fmask=0602,dmask
+     * =0602,allow_utime=0020,codepage
+     * =cp437,iocharset=iso8859-1,shortname=mixed,utf8,errors=remount-ro 0 0
+     *
+     * When one is found, pull out the path to the that mount point and add it to the list
+     */
+    private fun parseMounts(buf: ByteArray, len: Int, mounts: MutableList<String>) {
+        var start = 0
+        while (start < len) {
+            val end = lineEnd(buf, start, len)
+            if (startsWith(buf, start, end, VOLD_PREFIX)) {
+                val element = field(buf, start, end, 1)
+                // don't add the default mount path
+                // it's already in the list.
+                if (element != null && element != DEFAULT_MOUNT) {
+                    mounts.add(element)
+                }
             }
+            start = end + 1
+        }
+    }
 
-            while (scanner.hasNext()) {
-                val line = scanner.nextLine()
-                if (line.startsWith("dev_mount")) {
-                    val lineElements = line.split(" ".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-                    var element = lineElements[2]
-
-                    if (element.contains(":")) {
-                        element = element.substring(0, element.indexOf(":"))
-                    }
-
-                    // don't add the default vold path
-                    // it's already in the list.
-                    if (element != "/mnt/sdcard") {
-                        mVold.add(element)
+    /**
+     * Scan the vold file and look for lines like this:
+     * dev_mount sdcard /mnt/sdcard 1
+     * /devices/platform/s3c-sdhci.0/mmc_host/mmc0
+     *
+     * When one is found, pull out the path to the that mount point and add it to the set
+     */
+    private fun parseVold(buf: ByteArray, len: Int, volds: MutableSet<String>) {
+        var start = 0
+        while (start < len) {
+            val end = lineEnd(buf, start, len)
+            if (startsWith(buf, start, end, DEV_MOUNT)) {
+                var element = field(buf, start, end, 2)
+                if (element != null) {
+                    val colon = element.indexOf(':')
+                    if (colon >= 0) {
+                        element = element.substring(0, colon)
                     }
+                    volds.add(element)
                 }
             }
-            scanner.close()
-        } catch (e: Exception) {
-            LOG.warn(e.toString())
+            start = end + 1
         }
+    }
 
+    private fun lineEnd(buf: ByteArray, start: Int, len: Int): Int {
+        var i = start
+        while (i < len && buf[i] != LF) {
+            i++
+        }
+        return i
     }
 
-    private fun compareMountsWithVold(mMounts: ArrayList<String>,
-                                      mVold: ArrayList<String>) {
-        /*
-         * Sometimes the two lists of mount points will be different. We only
-         * want those mount points that are in both list.
-         *
-         * Compare the two lists together and remove items that are not in both
-         * lists.
-         */
+    private fun startsWith(buf: ByteArray, start: Int, end: Int, prefix: ByteArray): Boolean {
+        if (end - start < prefix.size) {
+            return false
+        }
+        for (i in prefix.indices) {
+            if (buf[start + i] != prefix[i]) {
+                return false
+            }
+        }
+        return true
+    }
 
-        var i = 0
-        while (i < mMounts.size) {
-            val mount = mMounts[i]
-            if (!mVold.contains(mount)) {
-                mMounts.removeAt(i--)
+    /**
+     * @return field at index in line, fields being separated by blanks, or null
+     */
+    private fun field(buf: ByteArray, start: Int, end: Int, index: Int): String? {
+        var i = start
+        var n = 0
+        while (i < end) {
+            while (i < end && isBlank(buf[i])) {
+                i++
             }
-            i++
+            if (i >= end) {
+                return null
+            }
+            val fieldStart = i
+            while (i < end && !isBlank(buf[i])) {
+                i++
+            }
+            if (n == index) {
+                return String(buf, fieldStart, i - fieldStart, Charsets.UTF_8)
+            }
+            n++
         }
+        return null
+    }
 
-        // don't need this anymore, clear the vold list to reduce memory
-        // use and to prepare it for the next time it's needed.
-        mVold.clear()
+    private fun isBlank(b: Byte): Boolean {
+        return b == SPACE || b == TAB || b == CR
     }
 
     private fun testAndCleanMountsList(mMounts: ArrayList<String>) {
@@ -250,3 +412,10 @@ object StorageHelper {
         }
     }
 }
+
+/**
+ * Size of a storage volume, in bytes
+ */
+data class VolumeStats(val path: String,
+                       val totalBytes: Long,
+                       val freeBytes: Long)
@@ -0,0 +1,400 @@
+package fr.coppernic.lib.utils.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import fr.coppernic.lib.utils.result.RESULT;
+import fr.coppernic.lib.utils.result.Result;
+
+import static fr.coppernic.lib.utils.BuildConfig.DEBUG;
+import static fr.coppernic.lib.utils.log.LogDefines.LOG;
+
+/**
+ * Deletes directory trees in parallel.
+ * <p>
+ * Each directory is listed by name only, and its entries are shared in chunks between tasks run on
+ * an executor, so that big flat directories are deleted by several threads too. A directory is
+ * deleted as soon as all its entries are. No thread ever waits for another task, so a bounded
+ * executor cannot dead lock.
+ * </p>
+ * <p>
+ * All paths that cannot be deleted are reported in a {@link Report}. Progress can be followed with
+ * a {@link Listener}.
+ * </p>
+ * <p>
+ * {@link #clearInBackground(File, Listener)} renames the directory first, so that caller gets an
+ * empty directory right away while old content is deleted in background. Trash directories left by
+ * a previous process that died while deleting are deleted by next call for the same directory.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TreeDeleter {
+
+    /**
+     * Follows a deletion. Methods are called on executor threads.
+     */
+    public interface Listener {
+        /**
+         * Called regularly during deletion
+         *
+         * @param deleted Number of files and directories deleted so far
+         * @param failed  Number of files and directories that could not be deleted so far
+         */
+        void onProgress(long deleted, long failed);
+
+        /**
+         * Called once when deletion is over
+         *
+         * @param report Deletion report
+         */
+        void onComplete(@NonNull Report report);
+    }
+
+    /**
+     * Result of a deletion
+     */
+    public static final class Report {
+        private final long mDeleted;
+        private final List<String> mFailures;
+
+        Report(long deleted, List<String> failures) {
+            mDeleted = deleted;
+            mFailures = Collections.unmodifiableList(failures);
+        }
+
+        /**
+         * @return Number of files and directories deleted
+         */
+        public long getDeletedCount() {
+            return mDeleted;
+        }
+
+        /**
+         * @return Paths that could not be deleted or listed
+         */
+        @NonNull
+        public List<String> getFailures() {
+            return mFailures;
+        }
+
+        public boolean isSuccess() {
+            return mFailures.isEmpty();
+        }
+
+        /**
+         * @return {@link RESULT#OK} or {@link RESULT#ERROR}
+         */
+        @NonNull
+        public Result toResult() {
+            if (isSuccess()) {
+                return RESULT.OK.toResult();
+            }
+            return RESULT.ERROR.toResult().withMessage(mFailures.size() + " paths not deleted, first is "
+                                                       + mFailures.get(0));
+        }
+
+        @Override
+        public String toString() {
+            return "Report{deleted=" + mDeleted + ", failures=" + mFailures.size() + '}';
+        }
+    }
+
+    /**
+     * Number of directory entries handled by one task
+     */
+    private static final int CHUNK_SIZE = 256;
+    private static final String TRASH_SUFFIX = ".trash-";
+
+    private static TreeDeleter sDefault;
+
+    private final Executor mExecutor;
+    /**
+     * Trash directories being deleted by this process
+     */
+    private final Set<String> mTrashes =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @param executor Executor running deletion tasks
+     */
+    public TreeDeleter(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * @return Deleter sharing a pool with one thread per CPU. Threads stop when idle.
+     */
+    @NonNull
+    public static synchronized TreeDeleter getDefault() {
+        if (sDefault == null) {
+            int n = Math.max(2, Runtime.getRuntime().availableProcessors());
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(n, n, 10, TimeUnit.SECONDS,
+                                                                 new LinkedBlockingQueue<Runnable>(),
+                                                                 new DaemonThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            sDefault = new TreeDeleter(executor);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Delete content of a directory and wait for the end of deletion.
+     *
+     * @param dir        Directory to clear
+     * @param recursive  True if subdirectories has to be cleared
+     * @param deleteSelf True if directories has to be deleted as well and not only files
+     * @return Deletion report
+     * @throws InterruptedException if interrupted while waiting. Deletion goes on in background.
+     */
+    @NonNull
+    public Report delete(@NonNull File dir, boolean recursive, boolean deleteSelf) throws InterruptedException {
+        Operation op = new Operation(recursive, deleteSelf, null);
+        op.start(dir);
+        op.mDone.await();
+        return op.mReport;
+    }
+
+    /**
+     * Delete content of a directory in background.
+     *
+     * @param dir        Directory to clear
+     * @param recursive  True if subdirectories has to be cleared
+     * @param deleteSelf True if directories has to be deleted as well and not only files
+     * @param listener   Listener of deletion, can be null
+     */
+    public void deleteAsync(@NonNull File dir, boolean recursive, boolean deleteSelf,
+                            @Nullable Listener listener) {
+        new Operation(recursive, deleteSelf, listener).start(dir);
+    }
+
+    /**
+     * Clear a directory and return immediately.
+     * <p>
+     * Directory is renamed and a new empty one is created in place, then the renamed tree is deleted
+     * in background. If rename fails, directory is cleared in place in background.
+     * </p>
+     * <p>
+     * Trash directories of {@code dir} left behind by a killed process are deleted in background
+     * too, without being reported to listener.
+     * </p>
+     *
+     * @param dir      Directory to clear
+     * @param listener Listener of background deletion, can be null
+     * @return true if directory is already empty when this method returns
+     */
+    public boolean clearInBackground(@NonNull File dir, @Nullable Listener listener) {
+        sweepTrashes(dir);
+        File trash = new File(dir.getParentFile(), dir.getName() + TRASH_SUFFIX + System.nanoTime());
+        if (dir.renameTo(trash)) {
+            if (!dir.mkdir()) {
+                LOG.warn("Cannot create {} again", dir.getPath());
+            }
+            deleteTrash(trash, listener);
+            return true;
+        } else {
+            if (DEBUG) {
+                LOG.debug("Cannot rename {}, clear it in place", dir.getPath());
+            }
+            deleteAsync(dir, true, false, listener);
+            return false;
+        }
+    }
+
+    /**
+     * Delete trash directories of dir that are not being deleted by this process
+     */
+    private void sweepTrashes(File dir) {
+        File parent = dir.getAbsoluteFile().getParentFile();
+        String[] names = parent == null ? null : parent.list();
+        if (names == null) {
+            return;
+        }
+        String prefix = dir.getName() + TRASH_SUFFIX;
+        for (String name : names) {
+            if (name.startsWith(prefix)) {
+                File trash = new File(parent, name);
+                if (DEBUG) {
+                    LOG.debug("Delete stale {}", trash.getPath());
+                }
+                deleteTrash(trash, null);
+            }
+        }
+    }
+
+    private void deleteTrash(final File trash, @Nullable final Listener listener) {
+        final String path = trash.getAbsolutePath();
+        if (!mTrashes.add(path)) {
+            return;
+        }
+        deleteAsync(trash, true, true, new Listener() {
+            @Override
+            public void onProgress(long deleted, long failed) {
+                if (listener != null) {
+                    listener.onProgress(deleted, failed);
+                }
+            }
+
+            @Override
+            public void onComplete(@NonNull Report report) {
+                mTrashes.remove(path);
+                if (listener != null) {
+                    listener.onComplete(report);
+                }
+            }
+        });
+    }
+
+    private void execute(Runnable r) {
+        try {
+            mExecutor.execute(r);
+        } catch (RejectedExecutionException e) {
+            r.run();
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread t = new Thread(r, "TreeDeleter-" + mCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Directory being deleted. It is done when {@link #mPending} reaches 0.
+     */
+    private static final class Node {
+        final File mDir;
+        @Nullable
+        final Node mParent;
+        /**
+         * Listing task and chunks not finished yet, plus sub directories not deleted yet
+         */
+        final AtomicInteger mPending = new AtomicInteger(1);
+        volatile boolean mUnreadable;
+
+        Node(File dir, @Nullable Node parent) {
+            mDir = dir;
+            mParent = parent;
+        }
+    }
+
+    private final class Operation {
+        private final boolean mRecursive;
+        private final boolean mDeleteSelf;
+        @Nullable
+        private final Listener mListener;
+        private final AtomicLong mDeleted = new AtomicLong();
+        private final AtomicLong mFailed = new AtomicLong();
+        private final ConcurrentLinkedQueue<String> mFailures = new ConcurrentLinkedQueue<>();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile Report mReport;
+
+        Operation(boolean recursive, boolean deleteSelf, @Nullable Listener listener) {
+            mRecursive = recursive;
+            mDeleteSelf = deleteSelf;
+            mListener = listener;
+        }
+
+        void start(File root) {
+            list(new Node(root, null));
+        }
+
+        private void list(final Node node) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    String[] names = node.mDir.list();
+                    if (names == null) {
+                        node.mUnreadable = true;
+                        fail(node.mDir);
+                    } else {
+                        for (int from = 0; from < names.length; from += CHUNK_SIZE) {
+                            node.mPending.incrementAndGet();
+                            chunk(node, names, from, Math.min(names.length, from + CHUNK_SIZE));
+                        }
+                    }
+                    finish(node);
+                }
+            });
+        }
+
+        private void chunk(final Node node, final String[] names, final int from, final int to) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        File f = new File(node.mDir, names[i]);
+                        if (f.isDirectory()) {
+                            if (mRecursive) {
+                                node.mPending.incrementAndGet();
+                                list(new Node(f, node));
+                            }
+                        } else {
+                            delete(f);
+                        }
+                    }
+                    if (mListener != null) {
+                        mListener.onProgress(mDeleted.get(), mFailed.get());
+                    }
+                    finish(node);
+                }
+            });
+        }
+
+        private void finish(Node node) {
+            while (node != null && node.mPending.decrementAndGet() == 0) {
+                if (mDeleteSelf && !node.mUnreadable) {
+                    delete(node.mDir);
+                }
+                node = node.mParent;
+                if (node == null) {
+                    complete();
+                }
+            }
+        }
+
+        private void delete(File f) {
+            if (f.delete()) {
+                mDeleted.incrementAndGet();
+            } else {
+                fail(f);
+            }
+        }
+
+        private void fail(File f) {
+            if (DEBUG) {
+                LOG.trace("Cannot delete {}", f.getPath());
+            }
+            mFailed.incrementAndGet();
+            mFailures.add(f.getPath());
+        }
+
+        private void complete() {
+            mReport = new Report(mDeleted.get(), new ArrayList<>(mFailures));
+            mDone.countDown();
+            if (mListener != null) {
+                mListener.onComplete(mReport);
+            }
+        }
+    }
+}
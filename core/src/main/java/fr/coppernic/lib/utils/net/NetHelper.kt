@@ -57,6 +57,7 @@ object NetHelper {
      * @param url   Url to ping
      * @param count -c option of ping utility
      * @return true if success, false in case of failure
+     * @see ReachabilityProber to probe without forking a process, and get round trip times
      */
     fun ping(url: String, count: Int): Boolean {
         var str = ""
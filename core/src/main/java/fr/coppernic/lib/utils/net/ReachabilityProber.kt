@@ -0,0 +1,384 @@
+package fr.coppernic.lib.utils.net
+
+import android.os.Build
+import android.system.ErrnoException
+import android.system.OsConstants
+import fr.coppernic.lib.utils.BuildConfig.DEBUG
+import fr.coppernic.lib.utils.log.LogDefines.LOG
+import java.io.IOException
+import java.net.ConnectException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.UnknownHostException
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.SocketChannel
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Probe reachability of hosts without forking ping utility.
+ *
+ * TCP targets are probed by connecting to their port. All connections of a round are made at the
+ * same time on non blocking channels registered to one selector, each with its own deadline. A
+ * refused connection is counted as answered, host having replied with a reset. Any other connection
+ * error, like an unreachable host or network, is counted as lost.
+ *
+ * [Target.ICMP] targets are probed with [InetAddress.isReachable] while TCP probes are running.
+ *
+ * Host names are resolved in probe tasks, one thread per target, so that a slow DNS server does not
+ * delay other targets. Time spent resolving is taken on the probe timeout. A host that cannot be
+ * resolved is counted as lost and resolved again on next round.
+ *
+ * Sample usage:
+ * <pre>
+ * val stats = ReachabilityProber().probe(listOf(Target("192.168.1.1", 80), Target("10.0.0.1")), 4)
+ * </pre>
+ *
+ * @param timeoutMs Time given to each probe to be answered, resolution included
+ * @param intervalMs Time between start of two rounds of probes
+ * @param executor Executor resolving hosts and running ICMP probes. It needs one thread per target
+ * to probe them all at once. If null, each call to [probe] uses its own pool of this size.
+ */
+class ReachabilityProber @JvmOverloads constructor(private val timeoutMs: Int = DEFAULT_TIMEOUT_MS,
+                                                   private val intervalMs: Long = DEFAULT_INTERVAL_MS,
+                                                   private val executor: ExecutorService? = null) {
+
+    companion object {
+        const val DEFAULT_TIMEOUT_MS = 1000
+        const val DEFAULT_INTERVAL_MS = 1000L
+    }
+
+    /**
+     * Host to probe
+     *
+     * @param host Host name or address
+     * @param port TCP port to connect to, or [ICMP]
+     */
+    data class Target @JvmOverloads constructor(val host: String, val port: Int = ICMP) {
+        companion object {
+            /**
+             * Probe with [InetAddress.isReachable] instead of a TCP connection
+             */
+            const val ICMP = 0
+        }
+    }
+
+    private class Recorder {
+        var sent = 0
+        var received = 0
+        var min = Long.MAX_VALUE
+        var max = 0L
+        var sum = 0L
+
+        fun answered(rttNs: Long) {
+            sent++
+            received++
+            min = Math.min(min, rttNs)
+            max = Math.max(max, rttNs)
+            sum += rttNs
+        }
+
+        fun lost() {
+            sent++
+        }
+
+        fun toStats(): RttStats {
+            if (received == 0) {
+                return RttStats(sent, 0, 0.0, 0.0, 0.0)
+            }
+            return RttStats(sent, received, toMs(min), toMs(sum) / received, toMs(max))
+        }
+
+        private fun toMs(ns: Long): Double {
+            return ns / 1_000_000.0
+        }
+    }
+
+    /**
+     * State of one target across rounds
+     */
+    private class Probe(val target: Target) {
+        val recorder = Recorder()
+        @Volatile
+        var address: InetAddress? = null
+        /**
+         * Last task submitted for this target. A new one is not submitted while it is running, so
+         * that a target never holds more than one thread.
+         */
+        var task: Future<*>? = null
+    }
+
+    private class TcpProbe(val recorder: Recorder,
+                           val channel: SocketChannel,
+                           val start: Long,
+                           val deadline: Long)
+
+    /**
+     * Resolve host names, visible for tests
+     */
+    internal var resolver: (String) -> InetAddress = { InetAddress.getByName(it) }
+
+    /**
+     * Probe one host
+     *
+     * @param host Host name or address, probed with [InetAddress.isReachable]
+     * @param count Number of probes
+     * @return Statistics of probes
+     * @throws InterruptedException
+     */
+    @JvmOverloads
+    @Throws(InterruptedException::class)
+    fun probe(host: String, count: Int = 4): RttStats {
+        val target = Target(host)
+        return probe(listOf(target), count).getValue(target)
+    }
+
+    /**
+     * Probe several hosts concurrently
+     *
+     * @param targets Hosts to probe
+     * @param count Number of probes sent to each host
+     * @return Statistics of probes, in order of targets
+     * @throws IOException if selector cannot be opened
+     * @throws InterruptedException
+     */
+    @Throws(IOException::class, InterruptedException::class)
+    fun probe(targets: Collection<Target>, count: Int): Map<Target, RttStats> {
+        val probes = LinkedHashMap<Target, Probe>()
+        for (t in targets) {
+            probes[t] = Probe(t)
+        }
+        if (probes.isEmpty()) {
+            return emptyMap()
+        }
+        val pool = executor ?: newPool(probes.size)
+        try {
+            Selector.open().use { selector ->
+                for (round in 0 until count) {
+                    val start = System.nanoTime()
+                    probeRound(pool, selector, probes.values, start + TimeUnit.MILLISECONDS.toNanos(timeoutMs.toLong()))
+                    if (round < count - 1) {
+                        val wait = intervalMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                        if (wait > 0) {
+                            Thread.sleep(wait)
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (pool !== executor) {
+                pool.shutdownNow()
+            }
+        }
+        val ret = LinkedHashMap<Target, RttStats>()
+        for ((t, p) in probes) {
+            ret[t] = p.recorder.toStats()
+        }
+        return ret
+    }
+
+    private fun newPool(threads: Int): ExecutorService {
+        return ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>(),
+                                  object : ThreadFactory {
+                                      private val count = AtomicInteger()
+
+                                      override fun newThread(r: Runnable): Thread {
+                                          val t = Thread(r, "ReachabilityProber-" + count.incrementAndGet())
+                                          t.isDaemon = true
+                                          return t
+                                      }
+                                  })
+    }
+
+    private fun probeRound(pool: ExecutorService, selector: Selector, probes: Collection<Probe>, deadline: Long) {
+        val icmp = ArrayList<Probe>()
+        val tcp = ArrayList<Probe>()
+        for (p in probes) {
+            val busy = p.task?.isDone == false
+            if (p.target.port == Target.ICMP) {
+                if (busy) {
+                    // Previous probe is still stuck in resolution
+                    p.recorder.lost()
+                } else {
+                    p.task = pool.submit(Callable { resolveAndPing(p, deadline) })
+                    icmp.add(p)
+                }
+            } else {
+                if (p.address == null && !busy) {
+                    p.task = pool.submit(Callable { resolve(p, selector) })
+                }
+                tcp.add(p)
+            }
+        }
+        probeTcp(selector, tcp, deadline)
+        for (p in icmp) {
+            val rtt = try {
+                p.task!!.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS) as Long
+            } catch (e: ExecutionException) {
+                -1L
+            } catch (e: TimeoutException) {
+                -1L
+            }
+            if (rtt >= 0) p.recorder.answered(rtt) else p.recorder.lost()
+        }
+    }
+
+    /**
+     * Resolve address of target and wake selector up to let it connect
+     */
+    private fun resolve(p: Probe, selector: Selector?): InetAddress? {
+        try {
+            p.address = resolver(p.target.host)
+        } catch (e: UnknownHostException) {
+            if (DEBUG) {
+                LOG.trace("Unknown host ${p.target.host}")
+            }
+        }
+        selector?.wakeup()
+        return p.address
+    }
+
+    /**
+     * @return Round trip time in ns, -1 if host did not answer before deadline
+     */
+    private fun resolveAndPing(p: Probe, deadline: Long): Long {
+        val address = p.address ?: resolve(p, null) ?: return -1L
+        val left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())
+        if (left <= 0) {
+            return -1L
+        }
+        val start = System.nanoTime()
+        return try {
+            if (address.isReachable(left.toInt())) System.nanoTime() - start else -1L
+        } catch (e: IOException) {
+            -1L
+        }
+    }
+
+    private fun connect(selector: Selector, r: Recorder, address: InetSocketAddress, deadline: Long,
+                        pending: MutableList<TcpProbe>) {
+        var channel: SocketChannel? = null
+        val start = System.nanoTime()
+        try {
+            channel = SocketChannel.open()
+            channel.configureBlocking(false)
+            if (channel.connect(address)) {
+                r.answered(System.nanoTime() - start)
+                channel.close()
+            } else {
+                val p = TcpProbe(r, channel, start, deadline)
+                channel.register(selector, SelectionKey.OP_CONNECT, p)
+                pending.add(p)
+            }
+        } catch (e: ConnectException) {
+            if (isConnectionRefused(e)) r.answered(System.nanoTime() - start) else r.lost()
+            close(channel)
+        } catch (e: IOException) {
+            if (DEBUG) {
+                LOG.trace("Cannot connect to $address : $e")
+            }
+            r.lost()
+            close(channel)
+        }
+    }
+
+    private fun probeTcp(selector: Selector, probes: List<Probe>, deadline: Long) {
+        val pending = ArrayList<TcpProbe>()
+        // Targets waiting for their address
+        val resolving = ArrayList<Probe>()
+        for (p in probes) {
+            val address = p.address
+            if (address != null) {
+                connect(selector, p.recorder, InetSocketAddress(address, p.target.port), deadline, pending)
+            } else {
+                resolving.add(p)
+            }
+        }
+
+        while (pending.isNotEmpty() || resolving.isNotEmpty()) {
+            var now = System.nanoTime()
+            val resolved = resolving.iterator()
+            while (resolved.hasNext()) {
+                val p = resolved.next()
+                // Address is set before task is done
+                val done = p.task?.isDone != false
+                val address = p.address
+                if (address != null) {
+                    resolved.remove()
+                    connect(selector, p.recorder, InetSocketAddress(address, p.target.port), deadline, pending)
+                } else if (done || deadline - now <= 0) {
+                    // Unknown host, or resolution too long
+                    resolved.remove()
+                    p.recorder.lost()
+                }
+            }
+            var next = deadline - now
+            val it = pending.iterator()
+            while (it.hasNext()) {
+                val p = it.next()
+                if (p.deadline - now <= 0) {
+                    p.recorder.lost()
+                    close(p.channel)
+                    it.remove()
+                } else {
+                    next = Math.min(next, p.deadline - now)
+                }
+            }
+            if (pending.isEmpty() && resolving.isEmpty()) {
+                break
+            }
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(next)))
+            now = System.nanoTime()
+            for (key in selector.selectedKeys()) {
+                val p = key.attachment() as TcpProbe
+                try {
+                    if (p.channel.finishConnect()) {
+                        p.recorder.answered(now - p.start)
+                    } else {
+                        continue
+                    }
+                } catch (e: ConnectException) {
+                    if (isConnectionRefused(e)) p.recorder.answered(now - p.start) else p.recorder.lost()
+                } catch (e: IOException) {
+                    p.recorder.lost()
+                }
+                close(p.channel)
+                pending.remove(p)
+            }
+            selector.selectedKeys().clear()
+        }
+        // Deregister closed channels before next round
+        selector.selectNow()
+    }
+
+    private fun close(channel: SocketChannel?) {
+        try {
+            channel?.close()
+        } catch (ignore: IOException) {
+        }
+    }
+}
+
+/**
+ * Android and JVM report unreachable hosts and networks with [ConnectException] too. Only a refused
+ * connection means that host answered.
+ */
+internal fun isConnectionRefused(e: ConnectException): Boolean {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        val cause = e.cause
+        if (cause is ErrnoException) {
+            return cause.errno == OsConstants.ECONNREFUSED
+        }
+    }
+    val message = e.message ?: return false
+    return message.contains("ECONNREFUSED") || message.contains("Connection refused")
+}
@@ -0,0 +1,29 @@
+package fr.coppernic.lib.utils.net
+
+/**
+ * Round trip times of probes sent to a host
+ *
+ * @param sent Number of probes sent
+ * @param received Number of probes answered in time
+ * @param minMs Shortest round trip time in ms, 0 if no probe was answered
+ * @param avgMs Average round trip time in ms, 0 if no probe was answered
+ * @param maxMs Longest round trip time in ms, 0 if no probe was answered
+ */
+data class RttStats(val sent: Int,
+                    val received: Int,
+                    val minMs: Double,
+                    val avgMs: Double,
+                    val maxMs: Double) {
+
+    /**
+     * Ratio of probes not answered, between 0 and 1
+     */
+    val loss: Double
+        get() = if (sent == 0) 0.0 else (sent - received).toDouble() / sent
+
+    /**
+     * True if at least one probe was answered
+     */
+    val isReachable: Boolean
+        get() = received > 0
+}
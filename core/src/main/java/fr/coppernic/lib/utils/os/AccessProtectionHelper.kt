@@ -1,11 +1,17 @@
 package fr.coppernic.lib.utils.os
 
+import android.content.BroadcastReceiver
 import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
 import android.os.Binder
+import android.os.SystemClock
+import android.util.LruCache
 import fr.coppernic.lib.utils.log.LogDefines
 import fr.coppernic.lib.utils.log.LogDefines.LOG
 import timber.log.Timber
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
 
 @Suppress("MemberVisibilityCanBePrivate")
 /**
@@ -15,10 +21,111 @@ import java.util.*
  *
  * Map < Caller certificate's SHA-256 -> Set of packages that are corresponding to this certificate hash >
  *
+ * Certificate hashes are compared ignoring case: an upper case key of white list matches the
+ * signature it stands for. Packages of keys differing only by case are merged.
+ *
+ * Decisions can be cached by calling UID for [ttlMs], so that repeated binder calls from the same
+ * application are checked without querying PackageManager. Cache is enabled by [register], that
+ * also invalidates decisions as soon as a package is added, replaced or removed, or by giving a
+ * [cacheSize].
+ *
  * @param context Android Context
  * @param whiteList List of applications allowed to connect to service
+ * @param cacheSize Maximum number of UIDs whose decision is cached, 0 to disable cache. By default,
+ * [DEFAULT_CACHE_SIZE] decisions are cached once [register] is called.
+ * @param ttlMs Time during which a decision is cached, in ms
  */
-class AccessProtectionHelper constructor(val context: Context, val whiteList: Map<String, Set<Regex>>) {
+class AccessProtectionHelper @JvmOverloads constructor(val context: Context,
+                                                       val whiteList: Map<String, Set<Regex>>,
+                                                       cacheSize: Int = CACHE_ON_REGISTER,
+                                                       val ttlMs: Long = DEFAULT_TTL_MS) {
+
+    companion object {
+        const val DEFAULT_CACHE_SIZE = 32
+        const val DEFAULT_TTL_MS = 60_000L
+        private const val CACHE_ON_REGISTER = -1
+
+        /**
+         * Pattern made of these characters only is tried as a literal package name first
+         */
+        private val LITERAL = "[A-Za-z0-9_.]+".toRegex()
+    }
+
+    private class Decision(val allowed: Boolean, val expiry: Long)
+
+    /**
+     * Patterns of a signature. Literal names are looked up in a set before trying regex.
+     */
+    private class Patterns(val literals: Set<String>, val regexes: List<Regex>)
+
+    private val patterns: Map<String, Patterns> = whiteList.entries
+            .groupBy({ it.key.toLowerCase(Locale.US) }, { it.value })
+            .mapValues { (_, sets) ->
+                val regexes = sets.flatten()
+                Patterns(regexes.map { it.pattern }.filter { it.matches(LITERAL) }.toSet(), regexes)
+            }
+
+    private val cacheOnRegister = cacheSize == CACHE_ON_REGISTER
+
+    @Volatile
+    private var cache: LruCache<Int, Decision>? = if (cacheSize > 0) LruCache(cacheSize) else null
+
+    /**
+     * Maximum number of UIDs whose decision is cached, 0 if cache is disabled
+     */
+    val cacheSize: Int
+        get() = cache?.maxSize() ?: 0
+
+    /**
+     * Incremented on each invalidation, so that a decision computed meanwhile is not cached
+     */
+    private val generation = AtomicInteger()
+
+    private val packageReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            val uid = intent.getIntExtra(Intent.EXTRA_UID, -1)
+            if (LogDefines.verbose) {
+                LOG.trace("${intent.action} for uid $uid, invalidate decision")
+            }
+            if (uid == -1) invalidate() else invalidate(uid)
+        }
+    }
+
+    /**
+     * Invalidate cached decisions when packages are added, replaced or removed. Cache is enabled if
+     * no [cacheSize] was given.
+     */
+    fun register() {
+        if (cacheOnRegister && cache == null) {
+            cache = LruCache(DEFAULT_CACHE_SIZE)
+        }
+        val filter = IntentFilter()
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED)
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED)
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED)
+        filter.addDataScheme("package")
+        context.registerReceiver(packageReceiver, filter)
+    }
+
+    fun unregister() {
+        context.unregisterReceiver(packageReceiver)
+    }
+
+    /**
+     * Forget all cached decisions
+     */
+    fun invalidate() {
+        generation.incrementAndGet()
+        cache?.evictAll()
+    }
+
+    /**
+     * Forget cached decision of an uid
+     */
+    fun invalidate(uid: Int) {
+        generation.incrementAndGet()
+        cache?.remove(uid)
+    }
 
     /**
      * Checks if process that binds to this service (i.e. the package name corresponding to the
@@ -33,10 +140,23 @@ class AccessProtectionHelper constructor(val context: Context, val whiteList: Ma
     /**
      * Checks if process that correspond to this uid is allowed regarding provided white list
      *
+     * Decision is cached.
+     *
      * @return true if process is allowed
      */
     fun isUidAllowed(uid: Int): Boolean {
-        return arePackagesAllowed(getPackagesForUid(uid))
+        val cache = cache ?: return arePackagesAllowed(getPackagesForUid(uid))
+        val now = SystemClock.elapsedRealtime()
+        val cached = cache.get(uid)
+        if (cached != null && now < cached.expiry) {
+            return cached.allowed
+        }
+        val gen = generation.get()
+        val allowed = arePackagesAllowed(getPackagesForUid(uid))
+        if (gen == generation.get()) {
+            cache.put(uid, Decision(allowed, now + ttlMs))
+        }
+        return allowed
     }
 
     fun getPackagesForUid(uid: Int): Set<String> {
@@ -60,7 +180,7 @@ class AccessProtectionHelper constructor(val context: Context, val whiteList: Ma
         // 1. Get a list of signature for all package names
         return packageNames.map {
             AppHelper.getAppSignaturesSHA256(context, it).toLowerCase(Locale.US)
-        }.toSet().any() { remoteSignature ->
+        }.toSet().any { remoteSignature ->
             // 2. For each signature, check access validity
             isPackageAllowed(remoteSignature, packageNames)
         }
@@ -73,7 +193,7 @@ class AccessProtectionHelper constructor(val context: Context, val whiteList: Ma
             LOG.trace("Checking access for signature $remoteSignature and packages $packageNames")
         }
 
-        val packagePatterns = whiteList[remoteSignature]
+        val packagePatterns = patterns[remoteSignature]
         return if (packagePatterns == null) {
             if (LogDefines.verbose) {
                 Timber.v("No signature found in whitelist")
@@ -81,7 +201,8 @@ class AccessProtectionHelper constructor(val context: Context, val whiteList: Ma
             false
         } else {
             packageNames.any { name ->
-                packagePatterns.any { pattern ->
+                // A literal pattern matches itself, and "." of other names is still tried as regex
+                packagePatterns.literals.contains(name) || packagePatterns.regexes.any { pattern ->
                     name.matches(pattern).also {
                         if (LogDefines.verbose) {
                             LOG.trace("does $name matches ${pattern.pattern} : $it")
@@ -86,12 +86,15 @@ object AppHelper {
      * @param ctx     Context
      * @param pattern Regex pattern of the package to find
      * @return Package name found of empty string
+     * @see PackageCatalog.findFirst
      */
     fun getFirstInstalledPackageWithPattern(ctx: Context, pattern: String): String {
         val pm = ctx.packageManager
-        val packages = pm.getInstalledPackages(PackageManager.GET_META_DATA)
+        val regex = pattern.toRegex()
+        // Only names are needed, no flag keeps transaction small
+        val packages = pm.getInstalledPackages(0)
         for (info in packages) {
-            if (info.packageName.matches(pattern.toRegex())) {
+            if (info.packageName.matches(regex)) {
                 return info.packageName
             }
         }
@@ -169,9 +172,10 @@ object AppHelper {
      *
      * @param packageName The name of the package.
      * @return the application's signature for SHA1 value
+     * @see SignatureIndex
      */
     fun getAppSignaturesSHA1(context: Context, packageName: String = context.packageName): String {
-        return getAppSignaturesHash(context, packageName, "SHA1")
+        return SignatureIndex.get(context).getDigests(packageName)?.sha1 ?: ""
     }
 
     /**
@@ -179,9 +183,10 @@ object AppHelper {
      *
      * @param packageName The name of the package.
      * @return the application's signature for SHA256 value
+     * @see SignatureIndex
      */
     fun getAppSignaturesSHA256(context: Context, packageName: String = context.packageName): String {
-        return getAppSignaturesHash(context, packageName, "SHA256")
+        return SignatureIndex.get(context).getDigests(packageName)?.sha256 ?: ""
     }
 
     /**
@@ -189,9 +194,10 @@ object AppHelper {
      *
      * @param packageName The name of the package.
      * @return the application's signature for MD5 value
+     * @see SignatureIndex
      */
     fun getAppSignaturesMD5(context: Context, packageName: String = context.packageName): String {
-        return getAppSignaturesHash(context, packageName, "MD5")
+        return SignatureIndex.get(context).getDigests(packageName)?.md5 ?: ""
     }
 
     /**
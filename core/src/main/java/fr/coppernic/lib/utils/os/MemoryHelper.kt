@@ -7,9 +7,6 @@ import android.os.Environment
 import android.os.StatFs
 import fr.coppernic.lib.utils.io.StorageHelper
 import fr.coppernic.lib.utils.log.LogDefines.LOG
-import java.io.BufferedReader
-import java.io.FileNotFoundException
-import java.io.FileReader
 import java.io.IOException
 
 object MemoryHelper {
@@ -58,30 +55,23 @@ object MemoryHelper {
      *
      * Get ram information and storage information. Values are in kilo bit.
      *
+     * Use [MemorySampler] to poll ram information.
+     *
      * @return Device's memory information
      */
     @Suppress("DEPRECATION")
     fun getMemInfo(): MemInfo {
         val ret = MemInfo()
+        val sampler = MemorySampler()
         try {
-            val reader = BufferedReader(FileReader(
-                    "/proc/meminfo"))
-            var line: String? = reader.readLine()
-            if (line != null && line.contains("MemTotal")) {
-                val lines = line.split(" +".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-                ret.ramTotal = java.lang.Long.parseLong(lines[1])
-            }
-            line = reader.readLine()
-            if (line != null && line.contains("MemFree")) {
-                val lines = line.split(" +".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-                ret.ramFree = java.lang.Long.parseLong(lines[1])
-            }
+            sampler.sample()
+            ret.ramTotal = sampler.memTotal
+            ret.ramFree = sampler.memFree
             ret.ramUsed = ret.ramTotal - ret.ramFree
-            reader.close()
-        } catch (ignored: FileNotFoundException) {
-
         } catch (ignored: IOException) {
 
+        } finally {
+            sampler.close()
         }
 
         val list = StorageHelper.determineStorageOptions()
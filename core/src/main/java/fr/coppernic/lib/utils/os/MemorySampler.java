@@ -0,0 +1,396 @@
+package fr.coppernic.lib.utils.os;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import fr.coppernic.lib.utils.io.Closeables;
+
+import static fr.coppernic.lib.utils.log.LogDefines.LOG;
+
+/**
+ * Reads {@code /proc/meminfo} repeatedly at low cost.
+ * <p>
+ * File stays open between samples and is read again in the same byte buffer. Fields are parsed
+ * in place, without regex nor String allocation, so that sampling can be done every second by a
+ * watchdog without putting pressure on the GC. Values are in kB, as in {@code /proc/meminfo}, or
+ * {@link #UNKNOWN} if kernel does not provide the field ({@code MemAvailable} only exists since
+ * Linux 3.14 for instance).
+ * </p>
+ * <p>
+ * Last {@code windowSize} samples are kept, to get minimum, maximum and average of a field over
+ * the window. {@link #start(long, Listener)} samples at a fixed interval on a background thread:
+ * <pre>   {@code
+ *
+ *   MemorySampler sampler = new MemorySampler(60);
+ *   sampler.start(1000, new MemorySampler.Listener() {
+ *       public void onSample(MemorySampler s) {
+ *           if (s.getAverage(MemorySampler.MEM_AVAILABLE) < THRESHOLD) {
+ *               ...
+ *           }
+ *       }
+ *   });
+ *   ...
+ *   sampler.close();
+ * }</pre>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MemorySampler implements Closeable {
+
+    /**
+     * Called after each periodic sample, on sampling thread
+     */
+    public interface Listener {
+        void onSample(@NonNull MemorySampler sampler);
+    }
+
+    public static final String PROC_MEMINFO = "/proc/meminfo";
+    /**
+     * Value of a field that is not provided by kernel, or before first sample
+     */
+    public static final long UNKNOWN = -1;
+
+    // Fields
+    public static final int MEM_TOTAL = 0;
+    public static final int MEM_FREE = 1;
+    public static final int MEM_AVAILABLE = 2;
+    public static final int BUFFERS = 3;
+    public static final int CACHED = 4;
+    public static final int SWAP_CACHED = 5;
+    public static final int ACTIVE = 6;
+    public static final int INACTIVE = 7;
+    public static final int SWAP_TOTAL = 8;
+    public static final int SWAP_FREE = 9;
+    public static final int DIRTY = 10;
+    public static final int SHMEM = 11;
+    public static final int SLAB = 12;
+    public static final int FIELD_COUNT = 13;
+
+    private static final String[] FIELD_NAMES = new String[]{
+        "MemTotal", "MemFree", "MemAvailable", "Buffers", "Cached", "SwapCached", "Active",
+        "Inactive", "SwapTotal", "SwapFree", "Dirty", "Shmem", "Slab"
+    };
+    private static final byte[][] FIELD_KEYS = new byte[FIELD_COUNT][];
+
+    static {
+        Charset ascii = Charset.forName("US-ASCII");
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            FIELD_KEYS[i] = FIELD_NAMES[i].getBytes(ascii);
+        }
+    }
+
+    private final File mFile;
+    private final int mWindowSize;
+    private RandomAccessFile mRaf;
+    private byte[] mBuffer = new byte[2048];
+
+    private final long[] mValues = new long[FIELD_COUNT];
+    /**
+     * Ring of last samples, sample {@code s} of field {@code f} being at {@code s * FIELD_COUNT + f}
+     */
+    private final long[] mWindow;
+    private int mWindowHead;
+    private int mWindowCount;
+    private long mSampleCount;
+
+    private Timer mTimer;
+    private boolean mClosed;
+
+    /**
+     * Sampler of {@code /proc/meminfo} keeping the last sample only
+     */
+    public MemorySampler() {
+        this(1);
+    }
+
+    /**
+     * @param windowSize Number of samples kept for min, max and average
+     */
+    public MemorySampler(int windowSize) {
+        this(new File(PROC_MEMINFO), windowSize);
+    }
+
+    /**
+     * @param file       File in {@code /proc/meminfo} format
+     * @param windowSize Number of samples kept for min, max and average
+     */
+    public MemorySampler(@NonNull File file, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        mFile = file;
+        mWindowSize = windowSize;
+        mWindow = new long[windowSize * FIELD_COUNT];
+        Arrays.fill(mValues, UNKNOWN);
+    }
+
+    /**
+     * Read memory information once. Values and window are updated.
+     *
+     * @throws IOException if file cannot be read
+     * @throws IllegalStateException if sampler is closed
+     */
+    public synchronized void sample() throws IOException {
+        if (mClosed) {
+            throw new IllegalStateException("Sampler is closed");
+        }
+        if (mRaf == null) {
+            mRaf = new RandomAccessFile(mFile, "r");
+        }
+        int len;
+        try {
+            len = read(mRaf);
+        } catch (IOException e) {
+            Closeables.closeQuietly(mRaf);
+            mRaf = null;
+            throw e;
+        }
+        parse(mBuffer, len, mValues);
+
+        System.arraycopy(mValues, 0, mWindow, mWindowHead * FIELD_COUNT, FIELD_COUNT);
+        mWindowHead = (mWindowHead + 1) % mWindowSize;
+        mWindowCount = Math.min(mWindowCount + 1, mWindowSize);
+        mSampleCount++;
+    }
+
+    /**
+     * Sample at a fixed rate on a background thread, until {@link #stop()} or {@link #close()}.
+     *
+     * @param periodMs Time between samples in ms
+     * @param listener Listener called after each sample, can be null
+     */
+    public synchronized void start(long periodMs, @Nullable final Listener listener) {
+        if (mClosed) {
+            throw new IllegalStateException("Sampler is closed");
+        }
+        stop();
+        mTimer = new Timer("MemorySampler", true);
+        mTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (IOException e) {
+                    LOG.warn("Cannot sample memory: " + e);
+                    return;
+                } catch (IllegalStateException e) {
+                    cancel();
+                    return;
+                }
+                if (listener != null) {
+                    listener.onSample(MemorySampler.this);
+                }
+            }
+        }, 0, periodMs);
+    }
+
+    /**
+     * Stop periodic sampling. File stays open.
+     */
+    public synchronized void stop() {
+        if (mTimer != null) {
+            mTimer.cancel();
+            mTimer = null;
+        }
+    }
+
+    /**
+     * Stop sampling and close file. Sampler cannot be used anymore.
+     */
+    @Override
+    public synchronized void close() {
+        stop();
+        mClosed = true;
+        Closeables.closeQuietly(mRaf);
+        mRaf = null;
+    }
+
+    /**
+     * @param field Field, {@link #MEM_TOTAL} for instance
+     * @return Value of field in last sample in kB, or {@link #UNKNOWN}
+     */
+    public synchronized long get(int field) {
+        return mValues[field];
+    }
+
+    public long getMemTotal() {
+        return get(MEM_TOTAL);
+    }
+
+    public long getMemFree() {
+        return get(MEM_FREE);
+    }
+
+    public long getMemAvailable() {
+        return get(MEM_AVAILABLE);
+    }
+
+    public long getCached() {
+        return get(CACHED);
+    }
+
+    public long getSwapTotal() {
+        return get(SWAP_TOTAL);
+    }
+
+    public long getSwapFree() {
+        return get(SWAP_FREE);
+    }
+
+    /**
+     * @param field Field, {@link #MEM_TOTAL} for instance
+     * @return Minimum value of field in window, or {@link #UNKNOWN}
+     */
+    public synchronized long getMin(int field) {
+        long min = Long.MAX_VALUE;
+        for (int s = 0; s < mWindowCount; s++) {
+            long v = mWindow[s * FIELD_COUNT + field];
+            if (v == UNKNOWN) {
+                return UNKNOWN;
+            }
+            min = Math.min(min, v);
+        }
+        return mWindowCount == 0 ? UNKNOWN : min;
+    }
+
+    /**
+     * @param field Field, {@link #MEM_TOTAL} for instance
+     * @return Maximum value of field in window, or {@link #UNKNOWN}
+     */
+    public synchronized long getMax(int field) {
+        long max = UNKNOWN;
+        for (int s = 0; s < mWindowCount; s++) {
+            long v = mWindow[s * FIELD_COUNT + field];
+            if (v == UNKNOWN) {
+                return UNKNOWN;
+            }
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+
+    /**
+     * @param field Field, {@link #MEM_TOTAL} for instance
+     * @return Average value of field in window, or {@link #UNKNOWN}
+     */
+    public synchronized long getAverage(int field) {
+        long sum = 0;
+        for (int s = 0; s < mWindowCount; s++) {
+            long v = mWindow[s * FIELD_COUNT + field];
+            if (v == UNKNOWN) {
+                return UNKNOWN;
+            }
+            sum += v;
+        }
+        return mWindowCount == 0 ? UNKNOWN : sum / mWindowCount;
+    }
+
+    /**
+     * @return Number of samples in window
+     */
+    public synchronized int getWindowCount() {
+        return mWindowCount;
+    }
+
+    /**
+     * @return Number of samples read since creation
+     */
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @param field Field, {@link #MEM_TOTAL} for instance
+     * @return Name of field in {@code /proc/meminfo}
+     */
+    @NonNull
+    public static String getFieldName(int field) {
+        return FIELD_NAMES[field];
+    }
+
+    private int read(RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        int len = 0;
+        while (true) {
+            if (len == mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+            }
+            int n = raf.read(mBuffer, len, mBuffer.length - len);
+            if (n < 0) {
+                return len;
+            }
+            len += n;
+        }
+    }
+
+    /**
+     * Parse lines like {@code "MemTotal:        1882428 kB"}
+     */
+    static void parse(byte[] buffer, int len, long[] values) {
+        Arrays.fill(values, UNKNOWN);
+        int expected = 0;
+        int p = 0;
+        while (p < len) {
+            int keyStart = p;
+            while (p < len && buffer[p] != ':' && buffer[p] != '\n') {
+                p++;
+            }
+            if (p < len && buffer[p] == ':') {
+                int keyLen = p - keyStart;
+                p++;
+                while (p < len && buffer[p] == ' ') {
+                    p++;
+                }
+                long value = 0;
+                boolean digits = false;
+                while (p < len && buffer[p] >= '0' && buffer[p] <= '9') {
+                    value = value * 10 + (buffer[p] - '0');
+                    digits = true;
+                    p++;
+                }
+                if (digits) {
+                    // Fields come in a stable order, so next field is tried first
+                    int field = findField(buffer, keyStart, keyLen, expected);
+                    if (field >= 0) {
+                        values[field] = value;
+                        expected = field + 1;
+                    }
+                }
+            }
+            while (p < len && buffer[p] != '\n') {
+                p++;
+            }
+            p++;
+        }
+    }
+
+    private static int findField(byte[] buffer, int offset, int len, int hint) {
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            int field = (hint + i) % FIELD_COUNT;
+            byte[] key = FIELD_KEYS[field];
+            if (key.length == len && regionMatches(key, buffer, offset)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(byte[] key, byte[] buffer, int offset) {
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,333 @@
+package fr.coppernic.lib.utils.os;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static fr.coppernic.lib.utils.BuildConfig.DEBUG;
+import static fr.coppernic.lib.utils.log.LogDefines.LOG;
+
+/**
+ * In memory catalog of installed packages.
+ * <p>
+ * Installed packages are fetched once, on first query, without any flag so that the transaction
+ * stays small. Catalog is then kept up to date package by package from package broadcasts once
+ * {@link #register()} has been called. Without it, {@link #refresh()} has to be called to see
+ * changes.
+ * </p>
+ * <p>
+ * Installed, version and pattern queries are answered from memory. Patterns given as strings are
+ * compiled once and kept in a small cache.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class PackageCatalog {
+
+    /**
+     * Installed package
+     */
+    public static final class Package {
+        private final String mPackageName;
+        private final String mVersionName;
+        private final int mVersionCode;
+        private final long mLastUpdateTime;
+
+        @SuppressWarnings("deprecation")
+        Package(PackageInfo info) {
+            mPackageName = info.packageName;
+            mVersionName = info.versionName == null ? "" : info.versionName;
+            mVersionCode = info.versionCode;
+            mLastUpdateTime = info.lastUpdateTime;
+        }
+
+        @NonNull
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        @NonNull
+        public String getVersionName() {
+            return mVersionName;
+        }
+
+        public int getVersionCode() {
+            return mVersionCode;
+        }
+
+        public long getLastUpdateTime() {
+            return mLastUpdateTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Package{" + mPackageName + ' ' + mVersionName + '}';
+        }
+    }
+
+    private static final int PATTERN_CACHE_SIZE = 16;
+
+    private static PackageCatalog sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPm;
+    /**
+     * Compiled patterns, least recently used first
+     */
+    private final Map<String, Pattern> mPatterns =
+        new LinkedHashMap<String, Pattern>(PATTERN_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                return size() > PATTERN_CACHE_SIZE;
+            }
+        };
+    @Nullable
+    private Map<String, Package> mPackages;
+    /**
+     * Incremented each time catalog is fetched or updated
+     */
+    private int mGeneration;
+    @Nullable
+    private BroadcastReceiver mPackageReceiver;
+
+    /**
+     * @param context Context
+     */
+    public PackageCatalog(@NonNull Context context) {
+        mContext = context;
+        mPm = context.getPackageManager();
+    }
+
+    /**
+     * @param context Context
+     * @return Catalog shared in process
+     */
+    @NonNull
+    public static synchronized PackageCatalog get(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Keep catalog up to date from package broadcasts
+     */
+    public synchronized void register() {
+        if (mPackageReceiver == null) {
+            mPackageReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    Uri data = intent.getData();
+                    String packageName = data == null ? null : data.getSchemeSpecificPart();
+                    if (packageName == null) {
+                        return;
+                    }
+                    if (DEBUG) {
+                        LOG.trace("{} for {}", intent.getAction(), packageName);
+                    }
+                    update(packageName);
+                }
+            };
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, filter);
+    }
+
+    public synchronized void unregister() {
+        if (mPackageReceiver != null) {
+            mContext.unregisterReceiver(mPackageReceiver);
+        }
+    }
+
+    /**
+     * Fetch installed packages again on next query
+     */
+    public synchronized void refresh() {
+        mPackages = null;
+        mGeneration++;
+    }
+
+    /**
+     * Update one package of catalog, if it has already been fetched
+     * <p>
+     * Package is fetched out of lock. If catalog has been fetched or updated meanwhile, package may
+     * have changed again since then, and it is fetched again so that an older state is never kept.
+     * </p>
+     *
+     * @param packageName Package that has been added, updated or removed
+     */
+    public void update(@NonNull String packageName) {
+        while (true) {
+            int generation;
+            synchronized (this) {
+                if (mPackages == null) {
+                    // Package will be in next fetch
+                    return;
+                }
+                generation = mGeneration;
+            }
+            PackageInfo info;
+            try {
+                info = mPm.getPackageInfo(packageName, 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                info = null;
+            }
+            synchronized (this) {
+                if (mPackages == null) {
+                    return;
+                }
+                if (generation != mGeneration) {
+                    continue;
+                }
+                mGeneration++;
+                if (info == null) {
+                    mPackages.remove(packageName);
+                } else {
+                    mPackages.put(packageName, new Package(info));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param packageName Package name
+     * @return true if package is installed
+     */
+    public boolean isInstalled(@NonNull String packageName) {
+        return getPackage(packageName) != null;
+    }
+
+    /**
+     * @param packageName Package name
+     * @return Package, or null if it is not installed
+     */
+    @Nullable
+    public synchronized Package getPackage(@NonNull String packageName) {
+        return packages().get(packageName);
+    }
+
+    /**
+     * @param packageName Package name
+     * @return Version name, or empty string if package is not installed
+     */
+    @NonNull
+    public String getVersionName(@NonNull String packageName) {
+        Package p = getPackage(packageName);
+        return p == null ? "" : p.getVersionName();
+    }
+
+    /**
+     * @param packageName Package name
+     * @return Version code, or -1 if package is not installed
+     */
+    public int getVersionCode(@NonNull String packageName) {
+        Package p = getPackage(packageName);
+        return p == null ? -1 : p.getVersionCode();
+    }
+
+    /**
+     * @param regex Regex that package name shall match entirely
+     * @return First package whose name matches, or null
+     */
+    @Nullable
+    public Package findFirst(@NonNull String regex) {
+        return findFirst(compile(regex));
+    }
+
+    /**
+     * @param pattern Pattern that package name shall match entirely
+     * @return First package whose name matches, or null
+     */
+    @Nullable
+    public synchronized Package findFirst(@NonNull Pattern pattern) {
+        for (Package p : packages().values()) {
+            if (pattern.matcher(p.getPackageName()).matches()) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param regex Regex that package names shall match entirely
+     * @return All packages whose name matches
+     */
+    @NonNull
+    public List<Package> findAll(@NonNull String regex) {
+        return findAll(compile(regex));
+    }
+
+    /**
+     * @param pattern Pattern that package names shall match entirely
+     * @return All packages whose name matches
+     */
+    @NonNull
+    public synchronized List<Package> findAll(@NonNull Pattern pattern) {
+        List<Package> res = new ArrayList<>();
+        for (Package p : packages().values()) {
+            if (pattern.matcher(p.getPackageName()).matches()) {
+                res.add(p);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return All installed packages
+     */
+    @NonNull
+    public synchronized List<Package> getAll() {
+        return new ArrayList<>(packages().values());
+    }
+
+    private Pattern compile(String regex) {
+        synchronized (mPatterns) {
+            Pattern p = mPatterns.get(regex);
+            if (p == null) {
+                p = Pattern.compile(regex);
+                mPatterns.put(regex, p);
+            }
+            return p;
+        }
+    }
+
+    private Map<String, Package> packages() {
+        if (mPackages == null) {
+            // No flag, so that each entry is small. List is sent in several transactions by
+            // PackageManager from Jelly Bean MR2.
+            List<PackageInfo> installed = mPm.getInstalledPackages(0);
+            Map<String, Package> packages = new LinkedHashMap<>(installed.size() * 2);
+            for (PackageInfo info : installed) {
+                packages.put(info.packageName, new Package(info));
+            }
+            if (DEBUG) {
+                LOG.debug("{} packages installed", packages.size());
+            }
+            mPackages = packages;
+            mGeneration++;
+        }
+        return mPackages;
+    }
+}
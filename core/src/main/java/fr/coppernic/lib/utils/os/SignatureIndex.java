@@ -0,0 +1,406 @@
+package fr.coppernic.lib.utils.os;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import fr.coppernic.lib.utils.io.AtomicWriter;
+import fr.coppernic.lib.utils.io.BytesHelper;
+import fr.coppernic.lib.utils.io.FileHelper;
+import fr.coppernic.lib.utils.io.IoExecutor;
+
+import static fr.coppernic.lib.utils.BuildConfig.DEBUG;
+import static fr.coppernic.lib.utils.log.LogDefines.LOG;
+
+/**
+ * Index of application signature digests.
+ * <p>
+ * SHA1, SHA256 and MD5 of the signatures of a package are computed together, in the same format as
+ * {@link AppHelper#getAppSignaturesHash}, and kept with the {@code lastUpdateTime} of the package.
+ * The index is saved in a small file, so that after a restart only packages updated meanwhile are
+ * hashed again.
+ * </p>
+ * <p>
+ * {@link #indexAll(Executor)} indexes all installed packages with one call to PackageManager to
+ * find changed packages, and hashes them in parallel.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class SignatureIndex {
+
+    /**
+     * Signature digests of a package, as upper case hexadecimal strings
+     */
+    public static final class Digests {
+        private final long mLastUpdateTime;
+        private final String mSha1;
+        private final String mSha256;
+        private final String mMd5;
+
+        Digests(long lastUpdateTime, String sha1, String sha256, String md5) {
+            mLastUpdateTime = lastUpdateTime;
+            mSha1 = sha1;
+            mSha256 = sha256;
+            mMd5 = md5;
+        }
+
+        public long getLastUpdateTime() {
+            return mLastUpdateTime;
+        }
+
+        @NonNull
+        public String getSha1() {
+            return mSha1;
+        }
+
+        @NonNull
+        public String getSha256() {
+            return mSha256;
+        }
+
+        @NonNull
+        public String getMd5() {
+            return mMd5;
+        }
+
+        @Override
+        public String toString() {
+            return "Digests{sha256=" + mSha256 + '}';
+        }
+    }
+
+    private static final String FILE_NAME = "signature-index";
+    private static final int FILE_VERSION = 1;
+    /**
+     * Minimum number of packages hashed by one task in {@link #indexAll(Executor)}
+     */
+    private static final int MIN_BATCH_PER_TASK = 8;
+
+    private static SignatureIndex sInstance;
+
+    private final PackageManager mPm;
+    @Nullable
+    private final File mFile;
+    private final Executor mSaveExecutor;
+    private final Map<String, Digests> mDigests = new HashMap<>();
+    private boolean mLoaded;
+    /**
+     * Incremented on each save, only last content is written
+     */
+    private final AtomicInteger mVersion = new AtomicInteger();
+    private final Object mSaveLock = new Object();
+
+    /**
+     * @param context Context
+     * @param file    File where index is saved, null to keep it in memory only
+     */
+    public SignatureIndex(@NonNull Context context, @Nullable File file) {
+        this(context, file, IoExecutor.getDefault().getExecutorService());
+    }
+
+    /**
+     * @param context      Context
+     * @param file         File where index is saved, null to keep it in memory only
+     * @param saveExecutor Executor writing index file
+     */
+    public SignatureIndex(@NonNull Context context, @Nullable File file, @NonNull Executor saveExecutor) {
+        mPm = context.getPackageManager();
+        mFile = file;
+        mSaveExecutor = saveExecutor;
+    }
+
+    /**
+     * @param context Context
+     * @return Index shared in process, saved in cache directory
+     */
+    @NonNull
+    public static synchronized SignatureIndex get(@NonNull Context context) {
+        if (sInstance == null) {
+            Context app = context.getApplicationContext();
+            sInstance = new SignatureIndex(app, new File(app.getCacheDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get signature digests of a package. They are computed only if package has been updated since
+     * they were indexed.
+     *
+     * @param packageName Package name
+     * @return Digests, or null if package is not installed
+     */
+    @Nullable
+    public Digests getDigests(@NonNull String packageName) {
+        if (packageName.trim().isEmpty()) {
+            return null;
+        }
+        PackageInfo info;
+        try {
+            info = mPm.getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            remove(packageName);
+            return null;
+        }
+        Digests cached = getCached(packageName, info.lastUpdateTime);
+        if (cached != null) {
+            return cached;
+        }
+        Digests digests = compute(packageName);
+        if (digests != null) {
+            put(packageName, digests);
+            save();
+        }
+        return digests;
+    }
+
+    /**
+     * Index all installed packages. Packages not installed anymore are removed from index.
+     *
+     * @param executor Executor hashing packages in parallel, null to hash them in calling thread
+     * @return Digests by package name
+     */
+    @NonNull
+    public Map<String, Digests> indexAll(@Nullable Executor executor) {
+        List<PackageInfo> installed = mPm.getInstalledPackages(0);
+        final Map<String, Digests> res = new HashMap<>();
+        final List<String> changed = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        boolean removed;
+        synchronized (this) {
+            load();
+            for (PackageInfo info : installed) {
+                names.add(info.packageName);
+                Digests cached = mDigests.get(info.packageName);
+                if (cached != null && cached.getLastUpdateTime() == info.lastUpdateTime) {
+                    res.put(info.packageName, cached);
+                } else {
+                    changed.add(info.packageName);
+                }
+            }
+            removed = mDigests.keySet().retainAll(names);
+        }
+        if (DEBUG) {
+            LOG.debug("{} packages installed, {} to hash", installed.size(), changed.size());
+        }
+
+        int tasks = executor == null ? 1 : Math.max(1, changed.size() / MIN_BATCH_PER_TASK);
+        tasks = Math.min(tasks, Runtime.getRuntime().availableProcessors());
+        final CountDownLatch done = new CountDownLatch(tasks);
+        for (int t = 0; t < tasks; t++) {
+            final int from = changed.size() * t / tasks;
+            final int to = changed.size() * (t + 1) / tasks;
+            Runnable r = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = from; i < to; i++) {
+                            String name = changed.get(i);
+                            Digests digests = compute(name);
+                            if (digests != null) {
+                                put(name, digests);
+                                synchronized (res) {
+                                    res.put(name, digests);
+                                }
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            if (executor == null || t == tasks - 1) {
+                // Last part is hashed in calling thread, that would wait anyway
+                r.run();
+            } else {
+                executor.execute(r);
+            }
+        }
+        boolean interrupted = false;
+        while (done.getCount() > 0) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (removed || !changed.isEmpty()) {
+            save();
+        }
+        return res;
+    }
+
+    /**
+     * Clear index, in memory and on disk
+     */
+    public synchronized void clear() {
+        mDigests.clear();
+        mLoaded = true;
+        if (mFile != null && mFile.exists() && !mFile.delete()) {
+            LOG.warn("Cannot delete {}", mFile.getPath());
+        }
+    }
+
+    @Nullable
+    private synchronized Digests getCached(String packageName, long lastUpdateTime) {
+        load();
+        Digests cached = mDigests.get(packageName);
+        return cached != null && cached.getLastUpdateTime() == lastUpdateTime ? cached : null;
+    }
+
+    private synchronized void put(String packageName, Digests digests) {
+        mDigests.put(packageName, digests);
+    }
+
+    private synchronized void remove(String packageName) {
+        load();
+        if (mDigests.remove(packageName) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Hash all signatures of a package in one pass
+     */
+    @SuppressLint("PackageManagerGetSignatures")
+    @SuppressWarnings("deprecation")
+    @Nullable
+    private Digests compute(String packageName) {
+        PackageInfo info;
+        try {
+            info = mPm.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        MessageDigest sha1;
+        MessageDigest sha256;
+        MessageDigest md5;
+        try {
+            sha1 = MessageDigest.getInstance("SHA1");
+            sha256 = MessageDigest.getInstance("SHA256");
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        boolean empty = true;
+        if (info.signatures != null) {
+            for (Signature signature : info.signatures) {
+                byte[] bytes = signature.toByteArray();
+                sha1.update(bytes);
+                sha256.update(bytes);
+                md5.update(bytes);
+                empty &= bytes.length == 0;
+            }
+        }
+        if (empty) {
+            // Same as AppHelper.getAppSignaturesHash
+            return new Digests(info.lastUpdateTime, "", "", "");
+        }
+        return new Digests(info.lastUpdateTime,
+                           BytesHelper.byteArrayToString(sha1.digest()),
+                           BytesHelper.byteArrayToString(sha256.digest()),
+                           BytesHelper.byteArrayToString(md5.digest()));
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (mFile == null || !mFile.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(FileHelper.readFully(mFile)));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long lastUpdateTime = in.readLong();
+                mDigests.put(name, new Digests(lastUpdateTime, in.readUTF(), in.readUTF(), in.readUTF()));
+            }
+        } catch (IOException e) {
+            LOG.warn("Cannot read signature index, it is rebuilt: {}", e.toString());
+            mDigests.clear();
+        }
+    }
+
+    private void save() {
+        if (mFile == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        final int version;
+        try {
+            synchronized (this) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(mDigests.size());
+                for (Map.Entry<String, Digests> e : mDigests.entrySet()) {
+                    Digests d = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(d.getLastUpdateTime());
+                    out.writeUTF(d.getSha1());
+                    out.writeUTF(d.getSha256());
+                    out.writeUTF(d.getMd5());
+                }
+                out.flush();
+                // Taken in lock so that an older content has an older version
+                version = mVersion.incrementAndGet();
+            }
+        } catch (IOException e) {
+            // Not possible with a byte array
+            throw new IllegalStateException(e);
+        }
+        final byte[] data = bytes.toByteArray();
+        mSaveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(data, version);
+            }
+        });
+    }
+
+    private void write(byte[] data, int version) {
+        synchronized (mSaveLock) {
+            if (version != mVersion.get()) {
+                // A newer content is to be written
+                return;
+            }
+            try {
+                AtomicWriter.write(mFile, data);
+            } catch (IOException e) {
+                LOG.warn("Cannot save signature index: {}", e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package fr.coppernic.lib.utils.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ByteArrayMapTest {
+
+    @Test
+    public void contentEquality() {
+        ByteArrayMap<String> map = new ByteArrayMap<>();
+        assertThat(map.put(new byte[]{0x04, 0x12, 0x34}, "uid"), nullValue());
+        assertThat(map.get(new byte[]{0x04, 0x12, 0x34}), equalTo("uid"));
+        assertThat(map.put(new byte[]{0x04, 0x12, 0x34}, "other"), equalTo("uid"));
+        assertThat(map.size(), equalTo(1));
+        assertThat(map.get(new byte[]{0x04, 0x12}), nullValue());
+    }
+
+    @Test
+    public void slices() {
+        ByteArrayMap<String> map = new ByteArrayMap<>();
+        byte[] frame = {(byte) 0x90, 0x00, 0x04, 0x12, 0x34, (byte) 0xFF};
+        map.put(frame, 2, 3, "uid");
+        assertThat(map.get(new byte[]{0x04, 0x12, 0x34}), equalTo("uid"));
+        assertThat(map.containsKey(frame, 2, 3), is(true));
+        assertThat(map.remove(frame, 2, 3), equalTo("uid"));
+        assertThat(map.isEmpty(), is(true));
+    }
+
+    @Test
+    public void sameAsHashMap() {
+        Random random = new Random(3);
+        ByteArrayMap<Integer> map = new ByteArrayMap<>(2);
+        Map<String, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 50000; i++) {
+            byte[] key = new byte[random.nextInt(6)];
+            for (int j = 0; j < key.length; j++) {
+                key[j] = (byte) random.nextInt(4);
+            }
+            String k = Arrays.toString(key);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertThat(map.put(key, i), equalTo(expected.put(k, i)));
+                    break;
+                case 1:
+                    assertThat(map.remove(key), equalTo(expected.remove(k)));
+                    break;
+                default:
+                    assertThat(map.get(key), equalTo(expected.get(k)));
+                    break;
+            }
+            assertThat(map.size(), equalTo(expected.size()));
+        }
+
+        final int[] count = {0};
+        map.forEach(new ByteArrayMap.Visitor<Integer>() {
+            @Override
+            public void onEntry(byte[] keyBuffer, int keyOffset, int keyLength, Integer value) {
+                count[0]++;
+            }
+        });
+        assertThat(count[0], equalTo(expected.size()));
+    }
+
+    @Test
+    public void lru() {
+        final List<String> evicted = new ArrayList<>();
+        ByteArrayLruMap<String> map = new ByteArrayLruMap<String>(3) {
+            @Override
+            protected void entryEvicted(byte[] keyBuffer, int keyOffset, int keyLength, String value) {
+                evicted.add(value);
+            }
+        };
+        map.put(new byte[]{1}, "a");
+        map.put(new byte[]{2}, "b");
+        map.put(new byte[]{3}, "c");
+        map.get(new byte[]{1});
+        map.put(new byte[]{4}, "d");
+        map.remove(new byte[]{3});
+        map.put(new byte[]{5}, "e");
+        map.put(new byte[]{6}, "f");
+
+        assertThat(evicted, contains("b", "a"));
+        assertThat(map.size(), equalTo(3));
+        assertThat(map.get(new byte[]{1}), nullValue());
+        assertThat(map.get(new byte[]{4}), equalTo("d"));
+    }
+
+    @Test
+    public void set() {
+        ByteArraySet set = new ByteArraySet();
+        assertThat(set.add(new byte[]{1, 2}), is(true));
+        assertThat(set.add(new byte[]{9, 1, 2, 9}, 1, 2), is(false));
+        assertThat(set.contains(new byte[]{1, 2}), is(true));
+        assertThat(set.remove(new byte[]{1, 2}), is(true));
+        assertThat(set.size(), equalTo(0));
+    }
+}
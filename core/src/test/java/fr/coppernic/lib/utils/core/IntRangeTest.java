@@ -0,0 +1,65 @@
+package fr.coppernic.lib.utils.core;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class IntRangeTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowerGreaterThanUpper() {
+        IntRange.create(2, 1);
+    }
+
+    @Test
+    public void contains() {
+        IntRange range = IntRange.create(10, 20);
+        assertThat(range.contains(10), is(true));
+        assertThat(range.contains(20), is(true));
+        assertThat(range.contains(9), is(false));
+        assertThat(range.contains(21), is(false));
+        assertThat(range.contains(IntRange.create(12, 20)), is(true));
+        assertThat(range.contains(IntRange.create(12, 21)), is(false));
+    }
+
+    @Test
+    public void clamp() {
+        IntRange range = IntRange.create(10, 20);
+        assertThat(range.clamp(5), equalTo(10));
+        assertThat(range.clamp(15), equalTo(15));
+        assertThat(range.clamp(25), equalTo(20));
+    }
+
+    @Test
+    public void intersect() {
+        IntRange range = IntRange.create(10, 20);
+        assertThat(range.intersect(IntRange.create(0, 30)), sameInstance(range));
+        assertThat(range.intersect(15, 30), equalTo(IntRange.create(15, 20)));
+        assertThat(range.overlaps(21, 30), is(false));
+        assertThat(range.overlaps(20, 30), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intersectDisjoint() {
+        IntRange.create(10, 20).intersect(21, 30);
+    }
+
+    @Test
+    public void extend() {
+        IntRange range = IntRange.create(10, 20);
+        assertThat(range.extend(12, 18), sameInstance(range));
+        assertThat(range.extend(25), equalTo(IntRange.create(10, 25)));
+        assertThat(range.extend(IntRange.create(0, 5)), equalTo(IntRange.create(0, 20)));
+    }
+
+    @Test
+    public void sameAsBoxedRange() {
+        assertThat(IntRange.create(1, 2).hashCode(), equalTo(Range.create(1, 2).hashCode()));
+        assertThat(LongRange.create(1, 2).hashCode(), equalTo(Range.create(1L, 2L).hashCode()));
+        assertThat(IntRange.create(1, 2).toString(), equalTo(Range.create(1, 2).toString()));
+        assertThat(IntRange.create(1, 2).toRange(), equalTo(Range.create(1, 2)));
+    }
+}
@@ -0,0 +1,107 @@
+package fr.coppernic.lib.utils.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class RangeIndexTest {
+
+    @Test
+    public void empty() {
+        RangeIndex index = RangeIndex.create(new LongRange[0]);
+        assertThat(index.size(), equalTo(0));
+        assertThat(index.indexOf(0), equalTo(-1));
+        assertThat(index.contains(0), is(false));
+        assertThat(index.count(Long.MIN_VALUE, Long.MAX_VALUE), equalTo(0));
+    }
+
+    @Test
+    public void pointQuery() {
+        RangeIndex index = RangeIndex.create(
+            IntRange.create(0x40, 0x7F),
+            IntRange.create(0x00, 0x3F),
+            IntRange.create(0x80, 0xFF));
+
+        assertThat(index.indexOf(0x00), equalTo(1));
+        assertThat(index.indexOf(0x45), equalTo(0));
+        assertThat(index.indexOf(0xFF), equalTo(2));
+        assertThat(index.indexOf(0x100), equalTo(-1));
+        assertThat(index.contains(-1), is(false));
+        assertThat(index.getLower(2), equalTo(0x80L));
+        assertThat(index.getUpper(2), equalTo(0xFFL));
+    }
+
+    @Test
+    public void overlapQuery() {
+        RangeIndex index = RangeIndex.create(
+            LongRange.create(0, 100),
+            LongRange.create(10, 20),
+            LongRange.create(15, 15),
+            LongRange.create(50, 60));
+
+        final List<Integer> visited = new ArrayList<>();
+        int count = index.query(12, 16, new RangeIndex.Visitor() {
+            @Override
+            public void onRange(int id) {
+                visited.add(id);
+            }
+        });
+        assertThat(count, equalTo(3));
+        assertThat(visited, contains(0, 1, 2));
+
+        int[] out = new int[1];
+        assertThat(index.query(55, 200, out), equalTo(2));
+        assertThat(out[0], equalTo(0));
+    }
+
+    @Test
+    public void sameAsLinearScan() {
+        Random random = new Random(42);
+        int n = 1000;
+        long[] lowers = new long[n];
+        long[] uppers = new long[n];
+        for (int i = 0; i < n; i++) {
+            lowers[i] = random.nextInt(100000);
+            uppers[i] = lowers[i] + random.nextInt(random.nextBoolean() ? 10 : 5000);
+        }
+        RangeIndex index = RangeIndex.create(lowers, uppers);
+        int[] out = new int[n];
+
+        for (int q = 0; q < 1000; q++) {
+            long lower = random.nextInt(110000) - 5000;
+            long upper = lower + random.nextInt(100);
+
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                if (lowers[i] <= upper && uppers[i] >= lower) {
+                    expected.add(i);
+                }
+            }
+            int count = index.query(lower, upper, out);
+            Set<Integer> actual = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                actual.add(out[i]);
+            }
+            assertThat(count, equalTo(expected.size()));
+            assertThat(actual, equalTo(expected));
+
+            int first = index.indexOf(lower);
+            if (first >= 0) {
+                assertThat(lowers[first] <= lower && uppers[first] >= lower, is(true));
+            } else {
+                for (int i = 0; i < n; i++) {
+                    assertThat(lowers[i] <= lower && uppers[i] >= lower, is(false));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package fr.coppernic.lib.utils.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class XxHash64Test {
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(Charset.forName("US-ASCII"));
+    }
+
+    @Test
+    public void referenceVectors() {
+        assertThat(HashHelpers.hash64(ascii("")), equalTo(0xEF46DB3751D8E999L));
+        assertThat(HashHelpers.hash64(ascii("a")), equalTo(0xD24EC4F1A98C6E5BL));
+        assertThat(HashHelpers.hash64(ascii("abc")), equalTo(0x44BC2CF5AD770999L));
+        assertThat(HashHelpers.hash64(ascii("Nobody inspects the spammish repetition")),
+                   equalTo(0xFBCEA83C8A378BF1L));
+    }
+
+    @Test
+    public void incrementalSameAsOneShot() {
+        Random random = new Random(7);
+        for (int t = 0; t < 200; t++) {
+            byte[] data = new byte[random.nextInt(300)];
+            random.nextBytes(data);
+            long seed = random.nextLong();
+            long expected = XxHash64.hash(data, 0, data.length, seed);
+
+            XxHash64 hash = new XxHash64(seed);
+            int p = 0;
+            while (p < data.length) {
+                int n = Math.min(data.length - p, random.nextInt(40));
+                hash.update(data, p, n);
+                p += n;
+            }
+            assertThat(hash.getValue(), equalTo(expected));
+
+            hash.reset();
+            for (byte b : data) {
+                hash.update(b);
+            }
+            assertThat(hash.getValue(), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void buffers() {
+        byte[] data = new byte[100];
+        new Random(1).nextBytes(data);
+        long expected = XxHash64.hash(data, 10, 80, 0);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.position(10);
+        direct.limit(90);
+        assertThat(XxHash64.hash(direct, 0), equalTo(expected));
+        assertThat(direct.position(), equalTo(10));
+        assertThat(HashHelpers.hashCode(direct), equalTo(HashHelpers.hashCode(data, 10, 80)));
+
+        XxHash64 hash = new XxHash64();
+        hash.update(ByteBuffer.wrap(data, 10, 80));
+        assertThat(hash.getValue(), equalTo(expected));
+    }
+
+    @Test
+    public void slicesSameAsVarargs() {
+        int[] ints = {1, 2, 3, 4};
+        assertThat(HashHelpers.hashCode(ints, 1, 2), equalTo(HashHelpers.hashCode(2, 3)));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void sliceOutOfArray() {
+        HashHelpers.hashCode(new byte[4], 2, 3);
+    }
+}
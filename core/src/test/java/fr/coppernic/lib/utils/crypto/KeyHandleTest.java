@@ -0,0 +1,196 @@
+package fr.coppernic.lib.utils.crypto;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class KeyHandleTest {
+
+    // NIST SP 800-38B and RFC 4493 examples
+    private static final byte[] KEY = hex("2b7e151628aed2a6abf7158809cf4f3c");
+    private static final byte[] MESSAGE = hex("6bc1bee22e409f96e93d7e117393172a"
+                                              + "ae2d8a571e03ac9c9eb76fac45af8e51"
+                                              + "30c81c46a35ce411e5fbc1191a0a52ef"
+                                              + "f69f2445df4f9b17ad2b417be66c3710");
+
+    private static byte[] hex(String s) {
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+
+    @Test
+    public void cmac() throws Exception {
+        KeyHandle key = KeyHandle.create(KEY);
+        assertThat(key.cmac(new byte[0]), equalTo(hex("bb1d6929e95937287fa37d129b756746")));
+        assertThat(key.cmac(Arrays.copyOf(MESSAGE, 16)), equalTo(hex("070a16b46b4d4144f79bdd9dd04a287c")));
+        assertThat(key.cmac(Arrays.copyOf(MESSAGE, 40)), equalTo(hex("dfa66747de9ae63030ca32611497c827")));
+        assertThat(key.cmac(MESSAGE), equalTo(hex("51f0bebf7e3b9d92fc49741779363cfe")));
+        key.close();
+    }
+
+    @Test
+    public void cmacNist() throws Exception {
+        KeyHandle key192 = KeyHandle.create(hex("8e73b0f7da0e6452c810f32b809079e562f8ead2522c6b7b"));
+        List<byte[]> messages = Arrays.asList(new byte[0], Arrays.copyOf(MESSAGE, 16),
+                                              Arrays.copyOf(MESSAGE, 40), MESSAGE);
+        assertThat(key192.cmacAll(messages), equalTo(hex("d17ddf46adaacde531cac483de7a9367"
+                                                         + "9e99a7bf31e710900662f65e617c5184"
+                                                         + "8a1de5be2eb31aad089a82e6ee908b0e"
+                                                         + "a1d5df0eed790f794d77589659f39a11")));
+        key192.close();
+
+        KeyHandle key256 = KeyHandle.create(hex("603deb1015ca71be2b73aef0857d7781"
+                                                + "1f352c073b6108d72d9810a30914dff4"));
+        assertThat(key256.cmacAll(messages), equalTo(hex("028962f61b7bf89efc6b551f4667d983"
+                                                         + "28a7023f452e8f82bd4bf28d8c37c35c"
+                                                         + "aaf3d8f1de5640c232f5b169b9c911e6"
+                                                         + "e1992190549f6ed5696a2c056c315410")));
+        key256.close();
+    }
+
+    @Test
+    public void batch() throws Exception {
+        Random random = new Random(42);
+        int n = 300;
+        byte[] buffer = new byte[4096];
+        random.nextBytes(buffer);
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            offsets[i] = random.nextInt(buffer.length - 64);
+            lengths[i] = random.nextInt(64);
+            messages.add(Arrays.copyOfRange(buffer, offsets[i], offsets[i] + lengths[i]));
+        }
+
+        KeyHandle key = KeyHandle.create(KEY);
+        byte[] macts = key.mactAll(messages);
+        byte[] cmacs = key.cmacAll(messages);
+        for (int i = 0; i < n; i++) {
+            assertThat(Arrays.copyOfRange(macts, i * 8, i * 8 + 8), equalTo(key.mact(messages.get(i))));
+            assertThat(Arrays.copyOfRange(cmacs, i * 16, i * 16 + 16), equalTo(key.cmac(messages.get(i))));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            byte[] out = new byte[n * 8];
+            key.mactAll(buffer, offsets, lengths, out, 0, executor);
+            assertThat(out, equalTo(macts));
+
+            out = new byte[n * 16];
+            key.cmacAll(buffer, offsets, lengths, out, 0, executor);
+            assertThat(out, equalTo(cmacs));
+        } finally {
+            executor.shutdown();
+            key.close();
+        }
+    }
+
+    @Test
+    public void sameAsAes() throws Exception {
+        Random random = new Random(42);
+        for (int t = 0; t < 100; t++) {
+            byte[] k = new byte[16];
+            random.nextBytes(k);
+            byte[] message = new byte[random.nextInt(70)];
+            random.nextBytes(message);
+            byte[] block = new byte[32];
+            random.nextBytes(block);
+
+            KeyHandle key = KeyHandle.create(k);
+            assertThat(key.cmac(message), equalTo(reference(k, message)));
+            assertThat(key.cmac(message), equalTo(Aes.getCmac(k, message)));
+            assertThat(key.mact(message), equalTo(Aes.getMact(k, message)));
+            assertThat(key.encrypt(block), equalTo(Aes.encrypt(block, k)));
+            assertThat(key.decrypt(key.encrypt(block)), equalTo(block));
+            key.close();
+        }
+    }
+
+    @Test
+    public void close() throws Exception {
+        final byte[] copy = new byte[16];
+        KeyHandle key = KeyHandle.create(KEY);
+        key.mact(MESSAGE);
+        key.close();
+        assertThat(key.isClosed(), is(true));
+
+        try {
+            key.use(new KeyHandle.Operation<Void>() {
+                @Override
+                public Void run(ByteBuffer k) {
+                    k.get(copy);
+                    return null;
+                }
+            });
+        } catch (IllegalStateException ignore) {
+        }
+        assertThat(copy, equalTo(new byte[16]));
+    }
+
+    @Test
+    public void use() throws Exception {
+        KeyHandle key = KeyHandle.create(KEY);
+        byte[] copy = key.use(new KeyHandle.Operation<byte[]>() {
+            @Override
+            public byte[] run(ByteBuffer k) {
+                byte[] b = new byte[k.remaining()];
+                k.get(b);
+                return b;
+            }
+        });
+        assertThat(copy, equalTo(KEY));
+        key.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLength() {
+        KeyHandle.create(new byte[15]);
+    }
+
+    /**
+     * CMAC computed from its definition, with a CBC encryption of padded message
+     */
+    private static byte[] reference(byte[] k, byte[] message) throws Exception {
+        byte[] l = Aes.encrypt(new byte[16], k);
+        byte[] k1 = shift(l);
+        byte[] k2 = shift(k1);
+
+        int n = message.length == 0 ? 1 : (message.length + 15) / 16;
+        boolean complete = message.length != 0 && message.length % 16 == 0;
+        byte[] padded = Arrays.copyOf(message, n * 16);
+        if (!complete) {
+            padded[message.length] = (byte) 0x80;
+        }
+        byte[] subkey = complete ? k1 : k2;
+        for (int i = 0; i < 16; i++) {
+            padded[(n - 1) * 16 + i] ^= subkey[i];
+        }
+        byte[] enc = Aes.encrypt(padded, k);
+        return Arrays.copyOfRange(enc, enc.length - 16, enc.length);
+    }
+
+    private static byte[] shift(byte[] in) {
+        byte[] out = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            out[i] = (byte) ((in[i] << 1) | (i < 15 ? (in[i + 1] & 0xFF) >>> 7 : 0));
+        }
+        if ((in[0] & 0x80) != 0) {
+            out[15] ^= (byte) 0x87;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,82 @@
+package fr.coppernic.lib.utils.helpers;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import fr.coppernic.lib.utils.io.BytesHelper;
+
+/**
+ * Throughput of array comparisons, from 16 B to 1 MB.
+ * <p>
+ * Ignored by default, remove {@code @Ignore} to run it locally. Figures are only meaningful when
+ * compared with each other on the same machine.
+ */
+@Ignore("Benchmark")
+public class BytesHelperBenchmark {
+
+    private static final int[] SIZES = new int[]{16, 256, 4 * 1024, 64 * 1024, 1024 * 1024};
+    private static final long BYTES_PER_RUN = 256L * 1024 * 1024;
+
+    private interface Comparison {
+        boolean run(byte[] a1, byte[] a2);
+    }
+
+    private static volatile boolean sink;
+
+    @Test
+    public void arrayCmp() {
+        bench("arrayCmp", new Comparison() {
+            @Override
+            public boolean run(byte[] a1, byte[] a2) {
+                return BytesHelper.arrayCmp(a1, a2);
+            }
+        });
+    }
+
+    @Test
+    public void equals() {
+        bench("equals", new Comparison() {
+            @Override
+            public boolean run(byte[] a1, byte[] a2) {
+                return BytesHelper.equals(a1, 0, a2, 0, a1.length);
+            }
+        });
+    }
+
+    @Test
+    public void secureEquals() {
+        bench("secureEquals", new Comparison() {
+            @Override
+            public boolean run(byte[] a1, byte[] a2) {
+                return BytesHelper.secureEquals(a1, a2);
+            }
+        });
+    }
+
+    private static void bench(String name, Comparison comparison) {
+        Random random = new Random(42);
+        for (int size : SIZES) {
+            byte[] a1 = new byte[size];
+            random.nextBytes(a1);
+            byte[] a2 = a1.clone();
+            long iterations = Math.max(BYTES_PER_RUN / size, 1);
+
+            // Warm up
+            for (long i = 0; i < iterations / 10; i++) {
+                sink = comparison.run(a1, a2);
+            }
+
+            long start = System.nanoTime();
+            for (long i = 0; i < iterations; i++) {
+                sink = comparison.run(a1, a2);
+            }
+            long elapsed = System.nanoTime() - start;
+            double mbPerSecond = (iterations * (double) size / (1024 * 1024)) / (elapsed / 1e9);
+            System.out.println(String.format(Locale.US, "%-12s %8d B : %10.1f MB/s",
+                                             name, size, mbPerSecond));
+        }
+    }
+}
@@ -270,4 +270,61 @@ public class BytesHelperTest {
         assertThat(BytesHelper.byteArrayToString(array, array.length, ":"),
                    is("30:31:32:33:34:35:36:37:38:39"));
     }
+
+    @Test
+    public void removeFromArray() {
+        byte[] array = new byte[]{1, 0, 1, 0, 2};
+        assertThat(BytesHelper.removeFromArray(array, (byte) 0), equalTo(new byte[]{1, 1, 2}));
+        assertTrue(BytesHelper.removeFromArray(array, (byte) 3) == array);
+    }
+
+    @Test
+    public void longToByteArray() {
+        assertThat(BytesHelper.longToByteArray(0x0102030405060708L, true),
+                   equalTo(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+        assertThat(BytesHelper.longToByteArray(0x0102030405060708L, false),
+                   equalTo(new byte[]{8, 7, 6, 5, 4, 3, 2, 1}));
+    }
+
+    @Test
+    public void arrayCmpInt() {
+        assertTrue(BytesHelper.arrayCmp(new int[]{1, 2}, new int[]{1, 2}));
+        assertFalse(BytesHelper.arrayCmp(new int[]{1, 2}, new int[]{1, 2, 3}));
+        assertFalse(BytesHelper.arrayCmp(new int[]{1, 2}, null));
+    }
+
+    @Test
+    public void mismatch() {
+        byte[] a = new byte[]{1, 2, 3, 4};
+        assertThat(BytesHelper.mismatch(a, new byte[]{1, 2, 3, 4}), is(-1));
+        assertThat(BytesHelper.mismatch(a, new byte[]{1, 2, 9, 4}), is(2));
+        assertThat(BytesHelper.mismatch(a, new byte[]{1, 2}), is(2));
+        assertThat(BytesHelper.mismatch(a, 2, new byte[]{0, 3, 4}, 1, 2), is(-1));
+        assertTrue(BytesHelper.equals(a, 1, new byte[]{2, 3}, 0, 2));
+        assertFalse(BytesHelper.equals(a, 0, new byte[]{2, 3}, 0, 2));
+    }
+
+    @Test
+    public void compare() {
+        assertThat(BytesHelper.compare(new byte[]{1, 2}, new byte[]{1, 2}), is(0));
+        assertTrue(BytesHelper.compare(new byte[]{1, 2}, new byte[]{1, 2, 0}) < 0);
+        assertTrue(BytesHelper.compare(new byte[]{1, 3}, new byte[]{1, 2, 0}) > 0);
+        // Bytes are unsigned
+        assertTrue(BytesHelper.compare(new byte[]{(byte) 0x80}, new byte[]{0x7F}) > 0);
+        assertThat(BytesHelper.compare(new byte[]{0, 5, 6}, 1, 2, new byte[]{5, 6}, 0, 2), is(0));
+    }
+
+    @Test
+    public void secureEquals() {
+        assertTrue(BytesHelper.secureEquals(new byte[]{1, 2, 3}, new byte[]{1, 2, 3}));
+        assertFalse(BytesHelper.secureEquals(new byte[]{1, 2, 3}, new byte[]{1, 2, 4}));
+        assertFalse(BytesHelper.secureEquals(new byte[]{1, 2, 3}, new byte[]{1, 2}));
+        assertFalse(BytesHelper.secureEquals(null, null));
+        assertTrue(BytesHelper.secureEquals(new byte[]{0, 1, 2}, 1, new byte[]{1, 2, 0}, 0, 2));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void mismatchOutOfBounds() {
+        BytesHelper.mismatch(new byte[2], 1, new byte[2], 0, 2);
+    }
 }
@@ -0,0 +1,145 @@
+package fr.coppernic.lib.utils.helpers;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+import fr.coppernic.lib.utils.io.BytesHelper;
+import fr.coppernic.lib.utils.io.ChunkReader;
+import fr.coppernic.lib.utils.io.Closeables;
+import fr.coppernic.lib.utils.io.FileHelper;
+
+/**
+ * Read throughput of files from 1 KB to 1 GB, searching a pattern that is not in file so that all
+ * bytes are read.
+ * <p>
+ * Ignored by default, remove {@code @Ignore} to run it locally. It needs about 1.2 GB of temporary
+ * disk space, and as much heap for whole file reads of 1 GB; those are skipped if heap is too small.
+ */
+@Ignore("Benchmark")
+public class FileHelperBenchmark {
+
+    private static final long[] SIZES = new long[]{
+        1024, 1024 * 1024, 64 * 1024 * 1024, 1024 * 1024 * 1024
+    };
+    private static final byte[] PATTERN = new byte[]{0x12, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC};
+    private static final long BYTES_PER_RUN = 1024L * 1024 * 1024;
+
+    private interface Reader {
+        int read(File f) throws IOException;
+    }
+
+    private static File[] files;
+    private static volatile int sink;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        files = new File[SIZES.length];
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        random.nextBytes(block);
+        for (int i = 0; i < SIZES.length; i++) {
+            files[i] = File.createTempFile("bench", ".bin");
+            FileOutputStream out = new FileOutputStream(files[i]);
+            try {
+                for (long written = 0; written < SIZES[i]; written += block.length) {
+                    out.write(block, 0, (int) Math.min(block.length, SIZES[i] - written));
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        for (File f : files) {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void getBytesFromInputStream() throws IOException {
+        bench("stream copy", true, new Reader() {
+            @Override
+            public int read(File f) throws IOException {
+                FileInputStream in = new FileInputStream(f);
+                try {
+                    return BytesHelper.findBytesInArray(BytesHelper.getBytesFromInputStream(in), PATTERN, 0);
+                } finally {
+                    Closeables.closeQuietly(in);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void readFully() throws IOException {
+        bench("readFully", true, new Reader() {
+            @Override
+            public int read(File f) throws IOException {
+                return BytesHelper.findBytesInArray(FileHelper.readFully(f), PATTERN, 0);
+            }
+        });
+    }
+
+    @Test
+    public void map() throws IOException {
+        bench("map", false, new Reader() {
+            @Override
+            public int read(File f) throws IOException {
+                MappedByteBuffer buffer = FileHelper.map(f);
+                return BytesHelper.findBytesInBuffer(buffer, PATTERN, 0);
+            }
+        });
+    }
+
+    @Test
+    public void chunks() throws IOException {
+        bench("chunks", false, new Reader() {
+            @Override
+            public int read(File f) throws IOException {
+                ChunkReader reader = ChunkReader.open(f, ChunkReader.DEFAULT_CHUNK_SIZE);
+                int found = -1;
+                try {
+                    // Pattern across two chunks is not searched, it does not change throughput
+                    while (reader.next()) {
+                        found = Math.max(found, BytesHelper.findBytesInArray(reader.buffer(), PATTERN, 0));
+                    }
+                } finally {
+                    reader.close();
+                }
+                return found;
+            }
+        });
+    }
+
+    private static void bench(String name, boolean wholeFile, Reader reader) throws IOException {
+        for (int i = 0; i < SIZES.length; i++) {
+            long size = SIZES[i];
+            if (wholeFile && size * 3 > Runtime.getRuntime().maxMemory()) {
+                System.out.println(String.format(Locale.US, "%-12s %10d B : skipped, heap too small",
+                                                 name, size));
+                continue;
+            }
+            long iterations = Math.max(BYTES_PER_RUN / size, 1);
+            sink = reader.read(files[i]);
+            long start = System.nanoTime();
+            for (long it = 0; it < iterations; it++) {
+                sink = reader.read(files[i]);
+            }
+            long elapsed = System.nanoTime() - start;
+            double mbPerSecond = (iterations * (double) size / (1024 * 1024)) / (elapsed / 1e9);
+            System.out.println(String.format(Locale.US, "%-12s %10d B : %10.1f MB/s", name, size, mbPerSecond));
+        }
+    }
+}
@@ -1,19 +1,44 @@
 package fr.coppernic.lib.utils.helpers;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
 
+import fr.coppernic.lib.utils.io.BytesHelper;
 import fr.coppernic.lib.utils.io.FileHelper;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @SuppressWarnings("ResultOfMethodCallIgnored")
 public class FileHelperTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createRandomFile(int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        File f = folder.newFile("random" + size);
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
     @Test
     public void testGetExtension() {
         assertEquals("", FileHelper.getExtension(""));
@@ -77,4 +102,30 @@ public class FileHelperTest {
         assertEquals("foo/baz", FileHelper.combinePath("foo/", " ", "/baz"));
         assertEquals("foo/ /baz", FileHelper.combinePath("foo/", "/ /", "/baz"));
     }
+
+    @Test
+    public void readFully() throws IOException {
+        for (int size : new int[]{0, 1, 8192, 100000}) {
+            File f = createRandomFile(size);
+            byte[] data = FileHelper.readFully(f);
+            assertEquals(size, data.length);
+            byte[] expected = new byte[size];
+            new Random(size).nextBytes(expected);
+            assertArrayEquals(expected, data);
+            assertArrayEquals(expected, FileHelper.getBytesFromFile(f));
+        }
+    }
+
+    @Test
+    public void map() throws IOException {
+        File f = createRandomFile(100000);
+        byte[] expected = FileHelper.readFully(f);
+
+        MappedByteBuffer buffer = FileHelper.map(f);
+        assertTrue(buffer.isReadOnly());
+        assertEquals(expected.length, buffer.remaining());
+        byte[] pattern = Arrays.copyOfRange(expected, 5000, 5016);
+        assertEquals(BytesHelper.findBytesInArray(expected, pattern, 0),
+                     BytesHelper.findBytesInBuffer(buffer, pattern, 0));
+    }
 }
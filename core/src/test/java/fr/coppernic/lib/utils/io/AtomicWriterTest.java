@@ -0,0 +1,117 @@
+package fr.coppernic.lib.utils.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class AtomicWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write() throws IOException {
+        File f = new File(folder.getRoot(), "config");
+        AtomicWriter.write(f, "hello".getBytes());
+        assertThat(FileHelper.readFully(f), equalTo("hello".getBytes()));
+
+        AtomicWriter.write(f, new ByteArrayInputStream("world!".getBytes()));
+        assertThat(FileHelper.readFully(f), equalTo("world!".getBytes()));
+        // No temporary file left
+        assertThat(folder.getRoot().list().length, is(1));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void writeNoDirectory() throws IOException {
+        AtomicWriter.write(new File(folder.getRoot(), "dir/config"), new byte[1]);
+    }
+
+    @Test
+    public void commit() throws Exception {
+        final File dir = folder.newFolder();
+        final AtomicWriter writer = new AtomicWriter(20);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            final int n = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    writer.commit(new File(dir, "f" + (n % 10)), ("v" + n).getBytes());
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(dir.list().length, is(10));
+        writer.commit(new File(dir, "f0"), "last".getBytes());
+        assertThat(FileHelper.readFully(new File(dir, "f0")), equalTo("last".getBytes()));
+        writer.close();
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void commitNoDirectory() throws Exception {
+        AtomicWriter writer = new AtomicWriter(0);
+        try {
+            writer.commit(new File(folder.getRoot(), "dir/config"), new byte[1]);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void writeFollowsLink() throws IOException {
+        File target = new File(folder.getRoot(), "target");
+        AtomicWriter.write(target, "hello".getBytes());
+        File link = new File(folder.getRoot(), "link");
+        Files.createSymbolicLink(link.toPath(), target.toPath());
+
+        assertThat(AtomicWriter.isReplaceable(link), is(false));
+        AtomicWriter.write(link, "world".getBytes());
+
+        assertThat(Files.isSymbolicLink(link.toPath()), is(true));
+        assertThat(FileHelper.readFully(target), equalTo("world".getBytes()));
+    }
+
+    @Test
+    public void failingCallback() throws Exception {
+        File dir = folder.newFolder();
+        AtomicWriter writer = new AtomicWriter(50);
+        try {
+            writer.commitAsync(new File(dir, "a"), new byte[1], new AtomicWriter.Callback() {
+                @Override
+                public void onCommit(@NonNull File file, @Nullable IOException error) {
+                    throw new IllegalStateException("failing callback");
+                }
+            });
+            // Notified although previous callback of batch throws
+            writer.commit(new File(dir, "b"), new byte[1]);
+            assertThat(new File(dir, "a").length(), is(1L));
+        } finally {
+            writer.close();
+        }
+    }
+}
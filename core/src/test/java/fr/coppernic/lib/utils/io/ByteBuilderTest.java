@@ -0,0 +1,110 @@
+package fr.coppernic.lib.utils.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class ByteBuilderTest {
+
+    @Test
+    public void append() {
+        ByteBuilder b = new ByteBuilder(1);
+        b.append((byte) 1)
+         .append(new byte[]{2, 3})
+         .append(new byte[]{0, 4, 5, 0}, 1, 2)
+         .append(ByteBuffer.wrap(new byte[]{6}))
+         .appendRepeated((byte) 7, 2);
+
+        assertThat(b.size(), is(8));
+        assertThat(b.toByteArray(), equalTo(new byte[]{1, 2, 3, 4, 5, 6, 7, 7}));
+        assertThat(b.toByteArray(2, 3), equalTo(new byte[]{3, 4, 5}));
+    }
+
+    @Test
+    public void appendNumbers() {
+        ByteBuilder b = new ByteBuilder();
+        b.appendShort(0x0102, true).appendShort(0x0102, false);
+        b.appendInt(0x01020304, true).appendInt(0x01020304, false);
+        b.appendLong(0x0102030405060708L, true).appendLong(0x0102030405060708L, false);
+
+        assertThat(b.toByteArray(), equalTo(new byte[]{
+            1, 2, 2, 1,
+            1, 2, 3, 4, 4, 3, 2, 1,
+            1, 2, 3, 4, 5, 6, 7, 8, 8, 7, 6, 5, 4, 3, 2, 1}));
+    }
+
+    @Test
+    public void putNumbers() {
+        ByteBuilder b = new ByteBuilder();
+        b.appendRepeated((byte) 0, 16);
+        b.putShort(0, 0x0102, true).putShort(2, 0x0102, false);
+        b.putInt(4, 0x01020304, false);
+        b.putLong(8, 0x0102030405060708L, true);
+
+        assertThat(b.size(), is(16));
+        assertThat(b.toByteArray(), equalTo(new byte[]{
+            1, 2, 2, 1,
+            4, 3, 2, 1,
+            1, 2, 3, 4, 5, 6, 7, 8}));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void putOutOfBounds() {
+        new ByteBuilder().appendRepeated((byte) 0, 3).putInt(0, 1, true);
+    }
+
+    @Test
+    public void insertRemove() {
+        ByteBuilder b = new ByteBuilder(2);
+        b.append(new byte[]{1, 4});
+        b.insert(1, new byte[]{2, 3}, 0, 2).insert(0, (byte) 0).insert(5, (byte) 5);
+        assertThat(b.toByteArray(), equalTo(new byte[]{0, 1, 2, 3, 4, 5}));
+
+        b.remove(1, 2);
+        assertThat(b.toByteArray(), equalTo(new byte[]{0, 3, 4, 5}));
+
+        b.append(new byte[]{0, 6, 0});
+        assertThat(b.removeAll((byte) 0), is(3));
+        assertThat(b.toByteArray(), equalTo(new byte[]{3, 4, 5, 6}));
+        assertThat(b.indexOf((byte) 5, 0), is(2));
+        assertThat(b.indexOf((byte) 5, 3), is(-1));
+    }
+
+    @Test
+    public void views() throws IOException {
+        ByteBuilder b = new ByteBuilder();
+        b.append(new byte[]{1, 2, 3, 4});
+
+        ByteBuffer slice = b.slice(1, 2);
+        assertThat(slice.remaining(), is(2));
+        assertThat(slice.get(0), is((byte) 2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.writeTo(out);
+        assertThat(out.toByteArray(), equalTo(new byte[]{1, 2, 3, 4}));
+    }
+
+    @Test
+    public void pool() {
+        ByteBuilder b = ByteBuilder.obtain();
+        b.append((byte) 1);
+        b.recycle();
+
+        ByteBuilder b2 = ByteBuilder.obtain();
+        assertThat(b2, sameInstance(b));
+        assertThat(b2.isEmpty(), is(true));
+        b2.recycle();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfBounds() {
+        new ByteBuilder().append((byte) 1).get(1);
+    }
+}
@@ -0,0 +1,55 @@
+package fr.coppernic.lib.utils.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class ChunkReaderTest {
+
+    @Test
+    public void chunks() throws IOException {
+        byte[] data = new byte[10000];
+        new Random(42).nextBytes(data);
+
+        ChunkReader reader = new ChunkReader(new ByteArrayInputStream(data), 4096);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int chunks = 0;
+        while (reader.next()) {
+            assertThat(reader.position(), is((long) out.size()));
+            out.write(reader.buffer(), 0, reader.length());
+            chunks++;
+        }
+        reader.close();
+
+        assertThat(chunks, is(3));
+        assertThat(out.toByteArray(), equalTo(data));
+    }
+
+    @Test
+    public void chunksAreFull() throws IOException {
+        // Stream giving one byte at a time
+        InputStream slow = new ByteArrayInputStream(new byte[10]) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        ChunkReader reader = new ChunkReader(slow, 4);
+        assertThat(reader.next(), is(true));
+        assertThat(reader.length(), is(4));
+        assertThat(reader.next(), is(true));
+        assertThat(reader.length(), is(4));
+        assertThat(reader.next(), is(true));
+        assertThat(reader.length(), is(2));
+        assertThat(reader.next(), is(false));
+        reader.close();
+    }
+}
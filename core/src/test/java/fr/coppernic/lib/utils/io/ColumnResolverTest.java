@@ -0,0 +1,149 @@
+package fr.coppernic.lib.utils.io;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import fr.coppernic.lib.utils.robolectric.RobolectricTest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class ColumnResolverTest extends RobolectricTest {
+
+    private static final String AUTHORITY = "fr.coppernic.lib.utils.test.columns";
+    private static final Uri ITEMS = Uri.parse("content://" + AUTHORITY + "/items");
+    private static final String DATA = "_data";
+
+    private static int queries;
+
+    public static class ItemProvider extends ContentProvider {
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                            @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+            queries++;
+            MatrixCursor cursor = new MatrixCursor(projection);
+            List<String> ids = new ArrayList<>();
+            if (uri.equals(ITEMS)) {
+                if (selectionArgs != null) {
+                    for (String id : selectionArgs) {
+                        ids.add(id);
+                    }
+                }
+            } else {
+                ids.add(uri.getLastPathSegment());
+            }
+            for (String id : ids) {
+                Object[] row = new Object[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    switch (projection[i]) {
+                        case "_id":
+                            row[i] = id;
+                            break;
+                        case DATA:
+                            row[i] = "/sdcard/file" + id;
+                            break;
+                        case OpenableColumns.DISPLAY_NAME:
+                            row[i] = "file" + id;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        @Nullable
+        @Override
+        public String getType(@NonNull Uri uri) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                          @Nullable String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    private ColumnResolver resolver;
+
+    @Before
+    public void before() {
+        Robolectric.setupContentProvider(ItemProvider.class, AUTHORITY);
+        resolver = new ColumnResolver(RuntimeEnvironment.application, 16);
+        queries = 0;
+    }
+
+    @Test
+    public void resolveInOneQuery() {
+        Uri uri = Uri.withAppendedPath(ITEMS, "7");
+        ColumnResolver.Columns columns = resolver.resolve(uri, ColumnResolver.FILE_COLUMNS);
+        assertThat(columns.getString(DATA), equalTo("/sdcard/file7"));
+        assertThat(resolver.resolve(uri, OpenableColumns.DISPLAY_NAME).getString(OpenableColumns.DISPLAY_NAME),
+                   equalTo("file7"));
+        assertThat(queries, is(1));
+        resolver.close();
+    }
+
+    @Test
+    public void invalidateOnChange() {
+        Uri uri = Uri.withAppendedPath(ITEMS, "7");
+        resolver.resolve(uri, DATA);
+        RuntimeEnvironment.application.getContentResolver().notifyChange(ITEMS, null);
+        resolver.resolve(uri, DATA);
+        assertThat(queries, is(2));
+        resolver.close();
+    }
+
+    @Test
+    public void resolveAll() {
+        List<Uri> uris = new ArrayList<>();
+        // As many as cache can hold, so that the second call is answered from cache
+        for (int i = 0; i < 16; i++) {
+            uris.add(Uri.withAppendedPath(ITEMS, String.valueOf(i)));
+        }
+        Map<Uri, ColumnResolver.Columns> res = resolver.resolveAll(uris, ColumnResolver.FILE_COLUMNS);
+        assertThat(queries, is(1));
+        assertThat(res.size(), is(16));
+        assertThat(res.get(uris.get(12)).getString(OpenableColumns.DISPLAY_NAME), equalTo("file12"));
+
+        resolver.resolveAll(uris, DATA);
+        assertThat(queries, is(1));
+        resolver.close();
+    }
+}
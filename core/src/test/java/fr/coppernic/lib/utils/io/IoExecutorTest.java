@@ -0,0 +1,94 @@
+package fr.coppernic.lib.utils.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class IoExecutorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createRandomFile(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        File f = folder.newFile(name);
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    @Test
+    public void copy() throws Exception {
+        File src = createRandomFile("src", 1024 * 1024 + 1);
+        File dest = new File(folder.getRoot(), "dest");
+        final long[] last = new long[1];
+
+        long n = IoExecutor.getDefault().copy(src, dest, new IoExecutor.ProgressListener() {
+            @Override
+            public void onProgress(long done, long total) {
+                last[0] = done;
+            }
+        }).get();
+
+        assertThat(n, is(src.length()));
+        assertThat(last[0], is(src.length()));
+        assertThat(FileHelper.readFully(dest), equalTo(FileHelper.readFully(src)));
+    }
+
+    @Test
+    public void cancelCopy() throws Exception {
+        File src = createRandomFile("src", 16 * 1024 * 1024);
+        File dest = new File(folder.getRoot(), "dest");
+        final CountDownLatch started = new CountDownLatch(1);
+
+        Future<Long> future = IoExecutor.getDefault().copy(src, dest, new IoExecutor.ProgressListener() {
+            @Override
+            public void onProgress(long done, long total) {
+                started.countDown();
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        future.cancel(true);
+
+        // Partial destination is deleted by copy thread
+        for (int i = 0; i < 100 && dest.exists(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(dest.exists(), is(false));
+    }
+
+    @Test
+    public void sha1() throws Exception {
+        File f = createRandomFile("f", 100000);
+        assertThat(IoExecutor.getDefault().getSha1(f).get(), equalTo(FileHelper.getSha1FromFile(f)));
+    }
+
+    @Test
+    public void saveAndRead() throws Exception {
+        File f = new File(folder.getRoot(), "f");
+        IoExecutor.getDefault().save(f, "data".getBytes()).get();
+        assertThat(IoExecutor.getDefault().read(f).get(), equalTo("data".getBytes()));
+    }
+}
@@ -0,0 +1,143 @@
+package fr.coppernic.lib.utils.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import androidx.annotation.NonNull;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class TreeDeleterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return number of entries created
+     */
+    private static int createTree(File dir, int depth) throws IOException {
+        dir.mkdirs();
+        int n = 0;
+        int files = depth == 0 ? 1000 : 10;
+        for (int i = 0; i < files; i++) {
+            new File(dir, "f" + i).createNewFile();
+            n++;
+        }
+        if (depth < 2) {
+            for (int i = 0; i < 3; i++) {
+                n += createTree(new File(dir, "d" + i), depth + 1) + 1;
+            }
+        }
+        return n;
+    }
+
+    private static int count(File dir) {
+        int n = 0;
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                File f = new File(dir, name);
+                n += f.isDirectory() ? count(f) + 1 : 1;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void deleteFilesOnly() throws Exception {
+        File root = folder.newFolder("root");
+        createTree(root, 0);
+
+        TreeDeleter.Report report = TreeDeleter.getDefault().delete(root, false, false);
+        assertThat(report.isSuccess(), is(true));
+        assertThat(report.getDeletedCount(), is(1000L));
+        assertThat(new File(root, "d0/f0").exists(), is(true));
+    }
+
+    @Test
+    public void deleteRecursive() throws Exception {
+        File root = folder.newFolder("root");
+        createTree(root, 0);
+
+        TreeDeleter.Report report = TreeDeleter.getDefault().delete(root, true, false);
+        assertThat(report.isSuccess(), is(true));
+        // Only directories are left
+        assertThat(count(root), is(12));
+    }
+
+    @Test
+    public void deleteAll() throws Exception {
+        File root = folder.newFolder("root");
+        int n = createTree(root, 0);
+
+        TreeDeleter.Report report = TreeDeleter.getDefault().delete(root, true, true);
+        assertThat(report.isSuccess(), is(true));
+        assertThat(report.getDeletedCount(), is(n + 1L));
+        assertThat(root.exists(), is(false));
+    }
+
+    @Test
+    public void failures() throws Exception {
+        File missing = new File(folder.getRoot(), "missing");
+        TreeDeleter.Report report = TreeDeleter.getDefault().delete(missing, true, true);
+        assertThat(report.isSuccess(), is(false));
+        assertThat(report.getFailures().size(), is(1));
+        assertThat(report.getFailures().get(0), is(missing.getPath()));
+    }
+
+    @Test
+    public void clearInBackground() throws Exception {
+        File root = folder.newFolder("root");
+        int n = createTree(root, 0);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<TreeDeleter.Report> result = new AtomicReference<>();
+        boolean cleared = TreeDeleter.getDefault().clearInBackground(root, new TreeDeleter.Listener() {
+            @Override
+            public void onProgress(long deleted, long failed) {
+            }
+
+            @Override
+            public void onComplete(@NonNull TreeDeleter.Report report) {
+                result.set(report);
+                latch.countDown();
+            }
+        });
+
+        assertThat(cleared, is(true));
+        assertThat(root.isDirectory(), is(true));
+        assertThat(count(root), is(0));
+
+        assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(result.get().getDeletedCount(), is(n + 1L));
+        // Only root is left in temporary folder
+        assertThat(folder.getRoot().list().length, is(1));
+    }
+
+    @Test
+    public void clearInBackgroundSweepsStaleTrash() throws Exception {
+        File root = folder.newFolder("root");
+        createTree(root, 2);
+        final File stale = new File(folder.getRoot(), "root.trash-42");
+        createTree(stale, 1);
+        File other = folder.newFolder("other.trash-42");
+
+        TreeDeleter.getDefault().clearInBackground(root, null);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (stale.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(stale.exists(), is(false));
+        assertThat(root.isDirectory(), is(true));
+        assertThat(other.isDirectory(), is(true));
+    }
+}
@@ -0,0 +1,144 @@
+package fr.coppernic.lib.utils.net
+
+import fr.coppernic.lib.utils.net.ReachabilityProber.Target
+import fr.coppernic.lib.utils.robolectric.RobolectricTest
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.greaterThan
+import org.hamcrest.Matchers.lessThan
+import org.hamcrest.Matchers.lessThanOrEqualTo
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.net.ConnectException
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.util.concurrent.TimeUnit
+
+class ReachabilityProberTest : RobolectricTest() {
+    private lateinit var server: ServerSocket
+    private val prober = ReachabilityProber(500, 0)
+
+    @Before
+    fun setUp() {
+        server = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+    }
+
+    @After
+    fun after() {
+        server.close()
+    }
+
+    @Test
+    fun listening() {
+        val target = Target("127.0.0.1", server.localPort)
+        val stats = prober.probe(listOf(target), 3).getValue(target)
+
+        assertThat(stats.sent, equalTo(3))
+        assertThat(stats.received, equalTo(3))
+        assertThat(stats.loss, equalTo(0.0))
+        assertThat(stats.isReachable, equalTo(true))
+        assertThat(stats.maxMs, greaterThan(0.0))
+        assertThat(stats.minMs, lessThanOrEqualTo(stats.avgMs))
+        assertThat(stats.avgMs, lessThanOrEqualTo(stats.maxMs))
+    }
+
+    @Test
+    fun refused() {
+        val closed = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+        val port = closed.localPort
+        closed.close()
+        val target = Target("127.0.0.1", port)
+
+        val stats = prober.probe(listOf(target), 2).getValue(target)
+
+        assertThat(stats.received, equalTo(2))
+    }
+
+    @Test
+    fun severalTargets() {
+        val closed = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+        val refused = Target("127.0.0.1", closed.localPort)
+        closed.close()
+        val open = Target("127.0.0.1", server.localPort)
+
+        val res = prober.probe(listOf(refused, open), 2)
+
+        assertThat(res.keys.toList(), equalTo(listOf(refused, open)))
+        assertThat(res.getValue(open).received, equalTo(2))
+        assertThat(res.getValue(refused).received, equalTo(2))
+    }
+
+    @Test
+    fun unreachableIsLost() {
+        // Messages of Android and of JVM
+        assertThat(isConnectionRefused(ConnectException(
+                "failed to connect to /10.0.0.1 (port 80) after 1000ms: connect failed: EHOSTUNREACH (No route to host)")),
+                equalTo(false))
+        assertThat(isConnectionRefused(ConnectException(
+                "failed to connect to /10.0.0.1 (port 80) after 1000ms: connect failed: ENETUNREACH (Network is unreachable)")),
+                equalTo(false))
+        assertThat(isConnectionRefused(ConnectException("Network is unreachable")), equalTo(false))
+        assertThat(isConnectionRefused(ConnectException()), equalTo(false))
+
+        assertThat(isConnectionRefused(ConnectException(
+                "failed to connect to /10.0.0.1 (port 80) after 1000ms: isConnected failed: ECONNREFUSED (Connection refused)")),
+                equalTo(true))
+        assertThat(isConnectionRefused(ConnectException("Connection refused")), equalTo(true))
+    }
+
+    @Test
+    fun unresolvedIsLost() {
+        val target = Target("unknown.invalid", 80)
+
+        val stats = prober.probe(listOf(target), 2).getValue(target)
+
+        assertThat(stats.sent, equalTo(2))
+        assertThat(stats.received, equalTo(0))
+        assertThat(stats.loss, equalTo(1.0))
+        assertThat(stats.isReachable, equalTo(false))
+        assertThat(stats.avgMs, equalTo(0.0))
+    }
+
+    @Test
+    fun resolveConcurrently() {
+        prober.resolver = {
+            Thread.sleep(200)
+            InetAddress.getLoopbackAddress()
+        }
+        val targets = (1..16).map { Target("host$it", server.localPort) }
+
+        val start = System.nanoTime()
+        val res = prober.probe(targets, 1)
+        val elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        for (t in targets) {
+            assertThat(res.getValue(t).received, equalTo(1))
+        }
+        assertThat(elapsed, lessThan(500L))
+    }
+
+    @Test
+    fun slowResolutionIsLost() {
+        val open = Target("127.0.0.1", server.localPort)
+        val slow = Target("slow", server.localPort)
+        val icmp = Target("slow")
+        prober.resolver = {
+            if (it == "slow") {
+                Thread.sleep(5000)
+            }
+            InetAddress.getByName(it)
+        }
+
+        val start = System.nanoTime()
+        val res = prober.probe(listOf(open, slow, icmp), 2)
+        val elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        assertThat(res.getValue(open).received, equalTo(2))
+        assertThat(res.getValue(slow).sent, equalTo(2))
+        assertThat(res.getValue(slow).received, equalTo(0))
+        assertThat(res.getValue(icmp).sent, equalTo(2))
+        assertThat(res.getValue(icmp).received, equalTo(0))
+        assertThat(elapsed, lessThan(2000L))
+    }
+}
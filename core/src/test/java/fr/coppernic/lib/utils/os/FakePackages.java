@@ -0,0 +1,84 @@
+package fr.coppernic.lib.utils.os;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Package manager mock answering from a set of installed packages, on the JVM
+ */
+final class FakePackages {
+
+    final PackageManager pm = mock(PackageManager.class);
+    final Context context = mock(Context.class);
+    private final Map<String, PackageInfo> mInstalled = new LinkedHashMap<>();
+
+    FakePackages() throws Exception {
+        when(context.getPackageManager()).thenReturn(pm);
+        // Exception is instantiated by Mockito, its constructor is only a stub out of Android
+        doThrow(PackageManager.NameNotFoundException.class).when(pm).getPackageInfo(anyString(), anyInt());
+        when(pm.getInstalledPackages(0)).thenAnswer(new Answer<List<PackageInfo>>() {
+            @Override
+            public List<PackageInfo> answer(InvocationOnMock invocation) {
+                synchronized (FakePackages.this) {
+                    return new ArrayList<>(mInstalled.values());
+                }
+            }
+        });
+    }
+
+    /**
+     * Install or replace a package
+     *
+     * @param signature Bytes of package signature
+     */
+    @SuppressWarnings("deprecation")
+    PackageInfo install(String name, int versionCode, long lastUpdateTime, byte[] signature) {
+        // PackageInfo and Signature are only stubs out of Android
+        PackageInfo info = mock(PackageInfo.class);
+        info.packageName = name;
+        info.versionCode = versionCode;
+        info.versionName = "1." + versionCode;
+        info.lastUpdateTime = lastUpdateTime;
+        Signature s = mock(Signature.class);
+        when(s.toByteArray()).thenReturn(signature);
+        info.signatures = new Signature[]{s};
+        synchronized (this) {
+            mInstalled.put(name, info);
+        }
+        try {
+            doReturn(info).when(pm).getPackageInfo(eq(name), anyInt());
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        return info;
+    }
+
+    void uninstall(String name) {
+        synchronized (this) {
+            mInstalled.remove(name);
+        }
+        try {
+            doThrow(PackageManager.NameNotFoundException.class).when(pm).getPackageInfo(eq(name), anyInt());
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package fr.coppernic.lib.utils.os;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class MemorySamplerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File f, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes(Charset.forName("US-ASCII")));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String meminfo(long free, long available) {
+        return "MemTotal:        1882428 kB\n"
+               + "MemFree:         " + free + " kB\n"
+               + "MemAvailable:    " + available + " kB\n"
+               + "Buffers:           12345 kB\n"
+               + "Cached:           678901 kB\n"
+               + "SwapCached:            0 kB\n"
+               + "Active(anon):      11111 kB\n"
+               + "SwapTotal:        524284 kB\n"
+               + "SwapFree:         500000 kB\n"
+               + "HugePages_Total:       0\n";
+    }
+
+    @Test
+    public void sample() throws IOException {
+        File f = folder.newFile("meminfo");
+        write(f, meminfo(100, 200));
+
+        MemorySampler sampler = new MemorySampler(f, 1);
+        assertThat(sampler.getMemTotal(), is(MemorySampler.UNKNOWN));
+        sampler.sample();
+        assertThat(sampler.getMemTotal(), is(1882428L));
+        assertThat(sampler.getMemFree(), is(100L));
+        assertThat(sampler.getMemAvailable(), is(200L));
+        assertThat(sampler.getCached(), is(678901L));
+        assertThat(sampler.getSwapTotal(), is(524284L));
+        assertThat(sampler.getSwapFree(), is(500000L));
+        assertThat(sampler.get(MemorySampler.BUFFERS), is(12345L));
+        // Active(anon) is not Active
+        assertThat(sampler.get(MemorySampler.ACTIVE), is(MemorySampler.UNKNOWN));
+        sampler.close();
+    }
+
+    @Test
+    public void missingField() throws IOException {
+        File f = folder.newFile("meminfo");
+        write(f, "MemFree:  42 kB\nMemTotal: 84 kB\n");
+
+        MemorySampler sampler = new MemorySampler(f, 1);
+        sampler.sample();
+        assertThat(sampler.getMemTotal(), is(84L));
+        assertThat(sampler.getMemFree(), is(42L));
+        assertThat(sampler.getMemAvailable(), is(MemorySampler.UNKNOWN));
+        sampler.close();
+    }
+
+    @Test
+    public void window() throws IOException {
+        File f = folder.newFile("meminfo");
+        MemorySampler sampler = new MemorySampler(f, 3);
+
+        long[] free = new long[]{10, 40, 20, 30};
+        for (long v : free) {
+            write(f, meminfo(v, v * 2));
+            sampler.sample();
+        }
+
+        // Only the 3 last samples are kept
+        assertThat(sampler.getWindowCount(), is(3));
+        assertThat(sampler.getSampleCount(), is(4L));
+        assertThat(sampler.getMin(MemorySampler.MEM_FREE), is(20L));
+        assertThat(sampler.getMax(MemorySampler.MEM_FREE), is(40L));
+        assertThat(sampler.getAverage(MemorySampler.MEM_FREE), is(30L));
+        assertThat(sampler.getAverage(MemorySampler.MEM_AVAILABLE), is(60L));
+        sampler.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closed() throws IOException {
+        File f = folder.newFile("meminfo");
+        MemorySampler sampler = new MemorySampler(f, 1);
+        sampler.close();
+        sampler.sample();
+    }
+}
@@ -0,0 +1,129 @@
+package fr.coppernic.lib.utils.os;
+
+import android.content.pm.PackageInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PackageCatalogTest {
+
+    private static final byte[] SIGNATURE = {1, 2, 3};
+
+    private FakePackages packages;
+    private PackageCatalog catalog;
+
+    @Before
+    public void before() throws Exception {
+        packages = new FakePackages();
+        packages.install("com.example.camera", 3, 1, SIGNATURE);
+        packages.install("com.example.gallery", 7, 1, SIGNATURE);
+        packages.install("fr.coppernic.launcher", 12, 1, SIGNATURE);
+        catalog = new PackageCatalog(packages.context);
+    }
+
+    private static String name(PackageCatalog.Package p) {
+        return p.getPackageName();
+    }
+
+    @Test
+    public void queriesAnsweredFromMemory() throws Exception {
+        assertThat(catalog.isInstalled("com.example.camera"), is(true));
+        assertThat(catalog.isInstalled("com.example.unknown"), is(false));
+        assertThat(catalog.getVersionCode("com.example.gallery"), is(7));
+        assertThat(catalog.getVersionName("com.example.gallery"), equalTo("1.7"));
+        assertThat(catalog.getVersionCode("com.example.unknown"), is(-1));
+        assertThat(catalog.getVersionName("com.example.unknown"), equalTo(""));
+
+        verify(packages.pm, times(1)).getInstalledPackages(0);
+        verify(packages.pm, never()).getPackageInfo(anyString(), anyInt());
+    }
+
+    @Test
+    public void patterns() {
+        assertThat(name(catalog.findFirst("com\\.example\\..*")), equalTo("com.example.camera"));
+        assertThat(catalog.findFirst("com\\.example"), nullValue());
+        assertThat(catalog.findAll("com\\.example\\..*").size(), is(2));
+        // Pattern is matched against whole name
+        assertThat(catalog.findAll("launcher").size(), is(0));
+        // Same regex again, from cache
+        assertThat(name(catalog.findFirst("com\\.example\\..*")), equalTo("com.example.camera"));
+    }
+
+    @Test
+    public void update() throws Exception {
+        assertThat(catalog.getAll().size(), is(3));
+
+        packages.install("com.example.music", 1, 2, SIGNATURE);
+        packages.install("com.example.gallery", 8, 2, SIGNATURE);
+        packages.uninstall("com.example.camera");
+        catalog.update("com.example.music");
+        catalog.update("com.example.gallery");
+        catalog.update("com.example.camera");
+
+        assertThat(catalog.isInstalled("com.example.music"), is(true));
+        assertThat(catalog.getVersionCode("com.example.gallery"), is(8));
+        assertThat(catalog.isInstalled("com.example.camera"), is(false));
+        verify(packages.pm, times(1)).getInstalledPackages(0);
+    }
+
+    @Test
+    public void updateBeforeFetch() throws Exception {
+        packages.install("com.example.music", 1, 2, SIGNATURE);
+        catalog.update("com.example.music");
+
+        verify(packages.pm, never()).getPackageInfo(anyString(), anyInt());
+        assertThat(catalog.isInstalled("com.example.music"), is(true));
+    }
+
+    @Test
+    public void refresh() throws Exception {
+        assertThat(catalog.isInstalled("com.example.music"), is(false));
+        packages.install("com.example.music", 1, 2, SIGNATURE);
+        // Not registered, change is not seen
+        assertThat(catalog.isInstalled("com.example.music"), is(false));
+
+        catalog.refresh();
+
+        assertThat(catalog.isInstalled("com.example.music"), is(true));
+        verify(packages.pm, times(2)).getInstalledPackages(0);
+    }
+
+    @Test
+    public void olderUpdateDoesNotWin() throws Exception {
+        catalog.getAll();
+        final PackageInfo v8 = packages.install("com.example.gallery", 8, 2, SIGNATURE);
+        final PackageInfo v9 = packages.install("com.example.gallery", 9, 3, SIGNATURE);
+        // While v8 is fetched, gallery is updated to v9 and this update is applied first
+        doAnswer(new Answer<PackageInfo>() {
+            private boolean mFirst = true;
+
+            @Override
+            public PackageInfo answer(InvocationOnMock invocation) {
+                if (mFirst) {
+                    mFirst = false;
+                    catalog.update("com.example.gallery");
+                    return v8;
+                }
+                return v9;
+            }
+        }).when(packages.pm).getPackageInfo(eq("com.example.gallery"), anyInt());
+
+        catalog.update("com.example.gallery");
+
+        assertThat(catalog.getVersionCode("com.example.gallery"), is(9));
+    }
+}
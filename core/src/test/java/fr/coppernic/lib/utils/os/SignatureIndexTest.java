@@ -0,0 +1,136 @@
+package fr.coppernic.lib.utils.os;
+
+import android.content.pm.PackageManager;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+import fr.coppernic.lib.utils.core.HashHelpers;
+import fr.coppernic.lib.utils.io.BytesHelper;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class SignatureIndexTest {
+
+    /**
+     * Writes index file in calling thread
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final int SIGNED_COUNT = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakePackages packages;
+
+    private static String signed(int i) {
+        return "com.example.signed" + i;
+    }
+
+    private static String hex(byte[] data, String algorithm) {
+        return BytesHelper.byteArrayToString(HashHelpers.hashTemplate(data, algorithm));
+    }
+
+    @Before
+    public void before() throws Exception {
+        packages = new FakePackages();
+        // Enough packages to be hashed by several tasks
+        for (int i = 0; i < SIGNED_COUNT; i++) {
+            packages.install(signed(i), 1, 100, signed(i).getBytes());
+        }
+    }
+
+    @Test
+    public void digests() throws Exception {
+        byte[] signature = {0x30, 0x42, 0x01};
+        packages.install("com.example.app", 1, 100, signature);
+        SignatureIndex index = new SignatureIndex(packages.context, null);
+
+        SignatureIndex.Digests digests = index.getDigests("com.example.app");
+
+        assertThat(digests.getSha1(), equalTo(hex(signature, "SHA1")));
+        assertThat(digests.getSha256(), equalTo(hex(signature, "SHA256")));
+        assertThat(digests.getMd5(), equalTo(hex(signature, "MD5")));
+        assertThat(digests.getLastUpdateTime(), is(100L));
+        assertThat(index.getDigests("com.example.unknown"), nullValue());
+        assertThat(index.getDigests(" "), nullValue());
+    }
+
+    @Test
+    public void hashedOncePerUpdate() throws Exception {
+        SignatureIndex index = new SignatureIndex(packages.context, null);
+        SignatureIndex.Digests first = index.getDigests(signed(1));
+        assertThat(index.getDigests(signed(1)), equalTo(first));
+        verify(packages.pm, times(1)).getPackageInfo(signed(1), PackageManager.GET_SIGNATURES);
+
+        // Package updated with another key
+        packages.install(signed(1), 2, 200, "other key".getBytes());
+        SignatureIndex.Digests updated = index.getDigests(signed(1));
+
+        assertThat(updated.getSha256(), not(equalTo(first.getSha256())));
+        assertThat(updated.getSha256(), equalTo(hex("other key".getBytes(), "SHA256")));
+        verify(packages.pm, times(2)).getPackageInfo(signed(1), PackageManager.GET_SIGNATURES);
+    }
+
+    @Test
+    public void uninstalledPackageRemoved() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+        SignatureIndex index = new SignatureIndex(packages.context, file, DIRECT);
+        index.getDigests(signed(2));
+        packages.uninstall(signed(2));
+
+        assertThat(index.getDigests(signed(2)), nullValue());
+
+        // Not in saved index either: hashed again once reinstalled
+        packages.install(signed(2), 1, 100, signed(2).getBytes());
+        new SignatureIndex(packages.context, file, DIRECT).getDigests(signed(2));
+        verify(packages.pm, times(2)).getPackageInfo(signed(2), PackageManager.GET_SIGNATURES);
+    }
+
+    @Test
+    public void indexAllFromSavedIndex() throws Exception {
+        File file = new File(folder.getRoot(), "index");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<String, SignatureIndex.Digests> all =
+                new SignatureIndex(packages.context, file, DIRECT).indexAll(executor);
+            assertThat(all.size(), is(SIGNED_COUNT));
+            assertThat(file.exists(), is(true));
+
+            // After a restart, only updated packages are hashed again
+            packages.install(signed(3), 2, 200, signed(3).getBytes());
+            packages.uninstall(signed(5));
+            all = new SignatureIndex(packages.context, file, DIRECT).indexAll(executor);
+
+            assertThat(all.size(), is(SIGNED_COUNT - 1));
+            assertThat(all.get(signed(3)).getLastUpdateTime(), is(200L));
+            verify(packages.pm, times(2)).getPackageInfo(signed(3), PackageManager.GET_SIGNATURES);
+            verify(packages.pm, times(1)).getPackageInfo(signed(4), PackageManager.GET_SIGNATURES);
+            verify(packages.pm, never()).getPackageInfo(signed(4), 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
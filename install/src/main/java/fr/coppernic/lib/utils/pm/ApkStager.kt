@@ -0,0 +1,389 @@
+package fr.coppernic.lib.utils.pm
+
+import android.annotation.TargetApi
+import android.content.ContentResolver
+import android.content.Context
+import android.content.pm.PackageInstaller
+import android.net.Uri
+import android.os.ParcelFileDescriptor
+import fr.coppernic.lib.utils.install.BuildConfig
+import fr.coppernic.lib.utils.io.Closeables
+import timber.log.Timber
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.InterruptedIOException
+import java.io.OutputStream
+import java.security.MessageDigest
+import java.security.NoSuchAlgorithmException
+import java.util.Locale
+
+const val DEFAULT_DIGEST_ALGORITHM = "SHA-256"
+const val DEFAULT_SYNC_STEP = 4 * 1024 * 1024L
+
+private const val CHUNK_SIZE = 128 * 1024
+private const val SESSION_FILE_NAME = "PackageInstaller"
+private const val PREFS_NAME = "fr.coppernic.lib.utils.install.staging"
+
+private val copyBuffer = object : ThreadLocal<ByteArray>() {
+    override fun initialValue(): ByteArray {
+        return ByteArray(CHUNK_SIZE)
+    }
+}
+
+/**
+ * Copy an apk in an install session.
+ *
+ * When both streams are files and no digest is computed, bytes are moved by the kernel with
+ * [java.nio.channels.FileChannel.transferTo]. Otherwise they go through a buffer allocated once per
+ * thread.
+ *
+ * @param size Bytes to copy, -1 to copy until end of input
+ * @param digest Digest updated with bytes copied, if any
+ * @param progress Called with bytes copied so far, after each chunk
+ * @return Bytes copied
+ */
+internal fun transfer(input: InputStream,
+                      out: OutputStream,
+                      size: Long,
+                      digest: MessageDigest? = null,
+                      progress: ((Long) -> Unit)? = null): Long {
+    var done = 0L
+    if (input is FileInputStream && out is FileOutputStream && size >= 0 && digest == null) {
+        val src = input.channel
+        val dst = out.channel
+        val start = src.position()
+        while (done < size) {
+            checkInterrupted()
+            val n = src.transferTo(start + done, Math.min(CHUNK_SIZE.toLong(), size - done), dst)
+            if (n <= 0) {
+                break
+            }
+            done += n
+            progress?.invoke(done)
+        }
+        return done
+    }
+    val buffer = copyBuffer.get()!!
+    var n = read(input, buffer, size - done)
+    while (n != -1) {
+        checkInterrupted()
+        digest?.update(buffer, 0, n)
+        out.write(buffer, 0, n)
+        done += n
+        progress?.invoke(done)
+        n = read(input, buffer, size - done)
+    }
+    return done
+}
+
+private fun read(input: InputStream, buffer: ByteArray, remaining: Long): Int {
+    return when {
+        remaining < 0 -> input.read(buffer)
+        remaining == 0L -> -1
+        else -> input.read(buffer, 0, Math.min(buffer.size.toLong(), remaining).toInt())
+    }
+}
+
+private fun checkInterrupted() {
+    if (Thread.interrupted()) {
+        throw InterruptedIOException()
+    }
+}
+
+private fun toHex(bytes: ByteArray): String {
+    val sb = StringBuilder(bytes.size * 2)
+    for (b in bytes) {
+        sb.append(String.format("%02x", b))
+    }
+    return sb.toString()
+}
+
+/**
+ * Stage apks in install sessions.
+ *
+ * Size of apk is given to package installer, so that session file is allocated once. When an
+ * expected digest is given, digest of apk is computed while it is written and compared before
+ * session is handed over.
+ *
+ * Session is fsynced every [syncStep] bytes and this offset is saved. When writing fails, session
+ * is kept, and staging the same apk again resumes it from the last fsynced offset instead of
+ * starting from zero. Bytes already staged are read back from session to complete the digest. Apks
+ * whose size is unknown, like pipes, or that are not backed by a whole file, like resources or
+ * assets, cannot be resumed.
+ *
+ * A session is resumed only for the same content: same size and expected digest, or same size and
+ * modification time for a file staged without digest. A content uri staged without digest cannot
+ * be told apart from another apk of the same size, it is then never resumed.
+ *
+ * @param context Context
+ * @param installer Package installer holding sessions
+ * @param syncStep Bytes written between two fsync
+ */
+@TargetApi(24)
+class ApkStager internal constructor(context: Context,
+                                     private val installer: PackageInstaller,
+                                     private val syncStep: Long) {
+
+    /**
+     * @param context Context
+     * @param syncStep Bytes written between two fsync
+     */
+    @JvmOverloads
+    constructor(context: Context, syncStep: Long = DEFAULT_SYNC_STEP)
+            : this(context, context.packageManager.packageInstaller, syncStep)
+
+    private val context = context.applicationContext
+    private val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    /**
+     * Stage an apk in an install session, resuming previous attempt if any.
+     *
+     * @param uri Uri of apk, file or content
+     * @param expectedDigest Expected digest of apk, in hexadecimal, null to skip verification
+     * @param algorithm Digest algorithm
+     * @param progress Called with bytes staged and size of apk, -1 if unknown
+     * @return Id of session, ready to be committed
+     * @throws IOException if apk cannot be read or written. Session is kept to be resumed.
+     * @throws PackageException if digest does not match. Session is abandoned.
+     */
+    @JvmOverloads
+    @Throws(IOException::class, PackageException::class)
+    fun stage(uri: Uri,
+              expectedDigest: String? = null,
+              algorithm: String = DEFAULT_DIGEST_ALGORITHM,
+              progress: ((Long, Long) -> Unit)? = null): Int {
+        val digest = if (expectedDigest == null) null else newDigest(algorithm)
+        val (input, size) = open(uri)
+        try {
+            val key = uri.toString()
+            // A change of size or of identity means another apk
+            val identity = if (size >= 0) identityOf(uri, expectedDigest) else null
+            val resumable = identity != null
+            val tag = "$size;$identity"
+
+            var sessionId = -1
+            var offset = 0L
+            var session: PackageInstaller.Session? = null
+            val saved = if (resumable) load(key, tag) else null
+            if (saved != null) {
+                try {
+                    session = installer.openSession(saved.first)
+                    if (digest != null) {
+                        hashStaged(session, digest, saved.second)
+                    }
+                    sessionId = saved.first
+                    offset = saved.second
+                } catch (e: Exception) {
+                    Timber.w("Cannot resume session ${saved.first}, staging again: $e")
+                    Closeables.closeQuietly(session)
+                    session = null
+                    abandonQuietly(saved.first)
+                    digest?.reset()
+                }
+            }
+            if (session == null) {
+                val params = PackageInstaller.SessionParams(PackageInstaller.SessionParams.MODE_FULL_INSTALL)
+                if (size >= 0) {
+                    params.setSize(size)
+                }
+                sessionId = installer.createSession(params)
+                if (resumable) {
+                    save(key, tag, sessionId, 0)
+                }
+            }
+            val opened = session ?: installer.openSession(sessionId)
+            val id = sessionId
+            val start = offset
+            try {
+                if (start > 0) {
+                    skip(input, start)
+                    if (BuildConfig.DEBUG) {
+                        Timber.v("Resuming session $id of $uri at $start")
+                    }
+                }
+                val remaining = if (size >= 0) size - start else -1
+                val out = opened.openWrite(SESSION_FILE_NAME, start, remaining)
+                try {
+                    var synced = start
+                    val written = transfer(input, out, remaining, digest) { done ->
+                        val staged = start + done
+                        if (size >= 0 && staged - synced >= syncStep) {
+                            opened.fsync(out)
+                            synced = staged
+                            if (resumable) {
+                                save(key, tag, id, staged)
+                            }
+                            opened.setStagingProgress(staged.toFloat() / size)
+                        }
+                        progress?.invoke(staged, size)
+                    }
+                    opened.fsync(out)
+                    if (size >= 0 && start + written != size) {
+                        if (resumable) {
+                            save(key, tag, id, start + written)
+                        }
+                        throw EOFException("$uri ended at ${start + written} instead of $size")
+                    }
+                } catch (e: IOException) {
+                    if (!resumable) {
+                        abandonQuietly(id)
+                    }
+                    throw e
+                } finally {
+                    Closeables.closeQuietly(out)
+                }
+                if (size > 0) {
+                    opened.setStagingProgress(1f)
+                }
+            } finally {
+                Closeables.closeQuietly(opened)
+            }
+            clear(key)
+
+            if (digest != null) {
+                val actual = toHex(digest.digest())
+                if (!actual.equals(expectedDigest, ignoreCase = true)) {
+                    abandonQuietly(id)
+                    throw PackageException("Digest of $uri is $actual, expected $expectedDigest",
+                            INSTALL_FAILED_VERIFICATION_FAILURE)
+                }
+            }
+            return id
+        } finally {
+            Closeables.closeQuietly(input)
+        }
+    }
+
+    /**
+     * Abandon session kept to resume staging of an apk, if any
+     *
+     * @param uri Uri of apk
+     */
+    fun abandon(uri: Uri) {
+        val key = uri.toString()
+        val value = prefs.getString(key, null) ?: return
+        value.substringBefore(';').toIntOrNull()?.let { abandonQuietly(it) }
+        clear(key)
+    }
+
+    /**
+     * @return Stream of apk and its size, -1 if apk is not a whole file
+     */
+    private fun open(uri: Uri): Pair<InputStream, Long> {
+        val resolver = context.contentResolver
+        val pfd = try {
+            resolver.openFileDescriptor(uri, "r")
+        } catch (e: FileNotFoundException) {
+            // Asset file descriptors and stream only providers are "Not a whole file"
+            if (BuildConfig.DEBUG) {
+                Timber.v("No file descriptor for $uri, read it as a stream: $e")
+            }
+            null
+        }
+        if (pfd != null) {
+            return Pair(ParcelFileDescriptor.AutoCloseInputStream(pfd), pfd.statSize)
+        }
+        val input = resolver.openInputStream(uri) ?: throw FileNotFoundException(uri.toString())
+        return Pair(input, -1L)
+    }
+
+    /**
+     * @return What tells content of apk apart from another apk of the same size, null if nothing
+     * does
+     */
+    private fun identityOf(uri: Uri, expectedDigest: String?): String? {
+        if (expectedDigest != null) {
+            return expectedDigest.toLowerCase(Locale.ROOT)
+        }
+        if (ContentResolver.SCHEME_FILE == uri.scheme) {
+            val modified = File(uri.path ?: "").lastModified()
+            if (modified > 0) {
+                return "@$modified"
+            }
+        }
+        return null
+    }
+
+    /**
+     * @return Session id and offset of a session that can be resumed
+     */
+    private fun load(key: String, tag: String): Pair<Int, Long>? {
+        val value = prefs.getString(key, null) ?: return null
+        val parts = value.split(";", limit = 3)
+        val sessionId = parts[0].toIntOrNull()
+        val offset = if (parts.size == 3) parts[1].toLongOrNull() else null
+        if (sessionId == null || offset == null || parts[2] != tag) {
+            sessionId?.let { abandonQuietly(it) }
+            clear(key)
+            return null
+        }
+        if (installer.getSessionInfo(sessionId) == null) {
+            clear(key)
+            return null
+        }
+        return Pair(sessionId, offset)
+    }
+
+    private fun save(key: String, tag: String, sessionId: Int, offset: Long) {
+        prefs.edit().putString(key, "$sessionId;$offset;$tag").apply()
+    }
+
+    private fun clear(key: String) {
+        prefs.edit().remove(key).apply()
+    }
+
+    private fun abandonQuietly(sessionId: Int) {
+        try {
+            installer.abandonSession(sessionId)
+        } catch (e: Exception) {
+            Timber.w("Cannot abandon session $sessionId: $e")
+        }
+    }
+
+    private fun hashStaged(session: PackageInstaller.Session, digest: MessageDigest, length: Long) {
+        val input = session.openRead(SESSION_FILE_NAME)
+        try {
+            val buffer = copyBuffer.get()!!
+            var remaining = length
+            while (remaining > 0) {
+                val n = input.read(buffer, 0, Math.min(buffer.size.toLong(), remaining).toInt())
+                if (n == -1) {
+                    throw EOFException("Session ended before $length")
+                }
+                digest.update(buffer, 0, n)
+                remaining -= n
+            }
+        } finally {
+            Closeables.closeQuietly(input)
+        }
+    }
+
+    private fun skip(input: InputStream, count: Long) {
+        if (input is FileInputStream) {
+            val channel = input.channel
+            channel.position(channel.position() + count)
+            return
+        }
+        var remaining = count
+        while (remaining > 0) {
+            val n = input.skip(remaining)
+            if (n <= 0) {
+                throw EOFException()
+            }
+            remaining -= n
+        }
+    }
+
+    private fun newDigest(algorithm: String): MessageDigest {
+        try {
+            return MessageDigest.getInstance(algorithm)
+        } catch (e: NoSuchAlgorithmException) {
+            throw IllegalArgumentException(e)
+        }
+    }
+}
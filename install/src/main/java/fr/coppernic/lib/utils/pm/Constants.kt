@@ -289,6 +289,13 @@ const val INSTALL_PARSE_FAILED_MANIFEST_EMPTY = -109
  * the system failed to install the package because of system issues.
  */
 const val INSTALL_FAILED_INTERNAL_ERROR = -110
+/**
+ * Installation failed return code: this is passed to the
+ * [IPackageInstallObserver] by
+ * [.installPackage] if
+ * installation has been aborted, by user or because a previous apk of an [InstallQueue] failed.
+ */
+const val INSTALL_FAILED_ABORTED = -115
 const val INSTALL_REPLACE_EXISTING = 2
 
 /**
@@ -394,6 +401,7 @@ object Constants {
             INSTALL_PARSE_FAILED_MANIFEST_MALFORMED -> return "INSTALL_PARSE_FAILED_MANIFEST_MALFORMED"
             INSTALL_PARSE_FAILED_MANIFEST_EMPTY -> return "INSTALL_PARSE_FAILED_MANIFEST_EMPTY"
             INSTALL_FAILED_INTERNAL_ERROR -> return "INSTALL_FAILED_INTERNAL_ERROR"
+            INSTALL_FAILED_ABORTED -> return "INSTALL_FAILED_ABORTED"
         }
         return "UNKNOWN ERROR : $code"
     }
@@ -0,0 +1,60 @@
+package fr.coppernic.lib.utils.pm
+
+import android.net.Uri
+
+/**
+ * Apk added to an [InstallQueue]
+ *
+ * @param index Position in queue, which is also commit order
+ * @param uri Uri of the apk
+ */
+class InstallItem internal constructor(val index: Int, val uri: Uri) {
+    override fun toString(): String {
+        return "InstallItem{$index, $uri}"
+    }
+}
+
+/**
+ * Event emitted by an [InstallQueue]
+ */
+sealed class InstallEvent {
+
+    /**
+     * Bytes of an apk have been written in its install session
+     *
+     * @param item Apk being staged
+     * @param staged Bytes of this apk written so far
+     * @param size Size of this apk, -1 if unknown
+     * @param totalStaged Bytes of all apks written so far
+     * @param totalSize Size of all apks whose size is known
+     */
+    data class Progress(val item: InstallItem,
+                        val staged: Long,
+                        val size: Long,
+                        val totalStaged: Long,
+                        val totalSize: Long) : InstallEvent()
+
+    /**
+     * An apk has been installed, or not
+     *
+     * @param item Apk
+     * @param packageName Name of installed package, when known
+     * @param returnCode [INSTALL_SUCCEEDED] or one of INSTALL_FAILED_* codes
+     * @param message Message of package installer, if any
+     */
+    data class Result(val item: InstallItem,
+                      val packageName: String?,
+                      val returnCode: Int,
+                      val message: String?) : InstallEvent() {
+        val isSuccess: Boolean
+            get() = returnCode == INSTALL_SUCCEEDED
+    }
+
+    /**
+     * All apks of queue have been handled. This is the last event.
+     *
+     * @param installed Number of apks installed
+     * @param failed Number of apks not installed
+     */
+    data class Finished(val installed: Int, val failed: Int) : InstallEvent()
+}
@@ -0,0 +1,354 @@
+package fr.coppernic.lib.utils.pm
+
+import android.annotation.TargetApi
+import android.content.ContentResolver
+import android.content.Context
+import android.net.Uri
+import fr.coppernic.lib.utils.install.BuildConfig
+import fr.coppernic.lib.utils.io.Closeables
+import fr.coppernic.lib.utils.io.Disposable
+import io.reactivex.Observable
+import io.reactivex.ObservableEmitter
+import timber.log.Timber
+import java.io.File
+import java.io.FileNotFoundException
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+const val DEFAULT_MAX_CONCURRENT_STAGES = 3
+const val DEFAULT_RESULT_TIMEOUT_MS = 120_000L
+
+private const val PROGRESS_STEP = 1024 * 1024L
+private const val TERMINATION_TIMEOUT_MS = 5_000L
+
+/**
+ * Operations of an [InstallQueue] on package installer
+ */
+internal interface InstallBackend {
+    /**
+     * @return Size of apk, -1 if unknown
+     */
+    fun sizeOf(uri: Uri): Long
+
+    /**
+     * Stage an apk in a new session
+     *
+     * @return Id of session, ready to be committed
+     * @see ApkStager.stage
+     */
+    @Throws(Exception::class)
+    fun stage(uri: Uri, expectedDigest: String?, algorithm: String, progress: (Long, Long) -> Unit): Int
+
+    /**
+     * Commit a session
+     *
+     * @return Operation completed with install result
+     */
+    @Throws(Exception::class)
+    fun commit(sessionId: Int): PackageOperation
+
+    /**
+     * Abandon a session not committed
+     */
+    fun abandon(sessionId: Int)
+}
+
+/**
+ * Queue installing several apks.
+ *
+ * Apks are staged in their own install session concurrently, because staging is mostly I/O. Sessions
+ * are then committed one by one in the order apks have been added, each commit waiting for the
+ * result of the previous one. A dependency shall then be added before the apps using it.
+ *
+ * Results are received through the [PackageEventBus]. Apks are staged with an [ApkStager]. Digests are checked when given, and an apk whose staging
+ * failed resumes where it stopped when it is queued again.
+ *
+ * Progress of staging and result of each apk are emitted by the observable returned by [install],
+ * from worker threads. [InstallEvent.Finished] is always the last event.
+ *
+ * @param maxConcurrentStages Maximum number of apks staged at the same time
+ * @param stopOnFailure true to abort remaining apks when one fails
+ * @param resultTimeoutMs Time to wait for the result of a commit
+ */
+@TargetApi(24)
+class InstallQueue internal constructor(private val backend: InstallBackend,
+                                        private val maxConcurrentStages: Int,
+                                        private val stopOnFailure: Boolean,
+                                        private val resultTimeoutMs: Long)
+    : Disposable {
+
+    /**
+     * @param context Context
+     * @param maxConcurrentStages Maximum number of apks staged at the same time
+     * @param stopOnFailure true to abort remaining apks when one fails
+     * @param resultTimeoutMs Time to wait for the result of a commit
+     */
+    @JvmOverloads
+    constructor(context: Context,
+                maxConcurrentStages: Int = DEFAULT_MAX_CONCURRENT_STAGES,
+                stopOnFailure: Boolean = true,
+                resultTimeoutMs: Long = DEFAULT_RESULT_TIMEOUT_MS)
+            : this(SessionBackend(context), maxConcurrentStages, stopOnFailure, resultTimeoutMs)
+
+    private class Entry(val item: InstallItem, val expectedDigest: String?, val algorithm: String) {
+        @Volatile
+        var size = -1L
+        @Volatile
+        var sessionId = -1
+        @Volatile
+        var committed = false
+    }
+
+    private val entries = ArrayList<Entry>()
+    private val started = AtomicBoolean(false)
+    private val cancelled = AtomicBoolean(false)
+    private val finished = AtomicBoolean(false)
+    private val totalStaged = AtomicLong()
+    @Volatile
+    private var totalSize = 0L
+    @Volatile
+    private var thread: Thread? = null
+    private lateinit var emitter: ObservableEmitter<InstallEvent>
+
+    /**
+     * Add an apk to install, after the ones already added
+     *
+     * @param uri Uri of apk, file or content
+     * @param expectedDigest Expected digest of apk, in hexadecimal, null to skip verification
+     * @param algorithm Digest algorithm
+     * @return Item identifying apk in events
+     */
+    @JvmOverloads
+    @Synchronized
+    fun add(uri: Uri, expectedDigest: String? = null, algorithm: String = DEFAULT_DIGEST_ALGORITHM): InstallItem {
+        check(!started.get()) { "Queue already started" }
+        val item = InstallItem(entries.size, uri)
+        entries.add(Entry(item, expectedDigest, algorithm))
+        return item
+    }
+
+    /**
+     * Add an apk to install, after the ones already added
+     *
+     * @param apk Apk file
+     * @return Item identifying apk in events
+     */
+    fun add(apk: File): InstallItem {
+        return add(Uri.fromFile(apk))
+    }
+
+    /**
+     * Stage and install apks. Staging starts when observable is subscribed, and apks cannot be
+     * added anymore. Disposing observable cancels queue.
+     *
+     * Observable can be subscribed only once, it emits [IllegalStateException] afterwards.
+     *
+     * @return Observable of queue events, completing after [InstallEvent.Finished]
+     */
+    fun install(): Observable<InstallEvent> {
+        return Observable.create { e ->
+            synchronized(this) {
+                check(started.compareAndSet(false, true)) { "Queue already started" }
+                emitter = e.serialize()
+                e.setCancellable { cancel() }
+                thread = Thread(Runnable { process() }, "InstallQueue").apply {
+                    isDaemon = true
+                    start()
+                }
+            }
+        }
+    }
+
+    /**
+     * Abort apks not committed yet. Apks already committed may still be installed.
+     */
+    fun cancel() {
+        cancelled.set(true)
+        thread?.interrupt()
+    }
+
+    override fun isDisposed(): Boolean {
+        return cancelled.get() || finished.get()
+    }
+
+    override fun dispose() {
+        cancel()
+    }
+
+    private fun process() {
+        val executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentStages, entries.size)),
+                object : ThreadFactory {
+                    private val count = AtomicInteger()
+                    override fun newThread(r: Runnable): Thread {
+                        val t = Thread(r, "InstallQueue-stage-${count.incrementAndGet()}")
+                        t.isDaemon = true
+                        return t
+                    }
+                })
+        var installed = 0
+        var failed = 0
+        try {
+            var total = 0L
+            for (e in entries) {
+                e.size = backend.sizeOf(e.item.uri)
+                if (e.size > 0) {
+                    total += e.size
+                }
+            }
+            totalSize = total
+
+            val stages = entries.map { e -> executor.submit(Callable { stage(e) }) }
+            for ((i, e) in entries.withIndex()) {
+                val result = if (cancelled.get() || (stopOnFailure && failed > 0)) {
+                    stages[i].cancel(true)
+                    aborted(e)
+                } else {
+                    install(e, stages[i])
+                }
+                if (result.isSuccess) {
+                    installed++
+                } else {
+                    failed++
+                }
+                emitter.onNext(result)
+            }
+        } finally {
+            executor.shutdownNow()
+            // Interruption by cancel() shall not prevent waiting for stages to stop
+            Thread.interrupted()
+            try {
+                executor.awaitTermination(TERMINATION_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            } catch (ignore: InterruptedException) {
+            }
+            for (e in entries) {
+                if (e.sessionId >= 0 && !e.committed) {
+                    backend.abandon(e.sessionId)
+                }
+            }
+            finished.set(true)
+        }
+        emitter.onNext(InstallEvent.Finished(installed, failed))
+        emitter.onComplete()
+    }
+
+    private fun install(e: Entry, stage: Future<Unit>): InstallEvent.Result {
+        try {
+            stage.get()
+            return commit(e)
+        } catch (ie: InterruptedException) {
+            return aborted(e)
+        } catch (ex: ExecutionException) {
+            return failure(e, ex.cause ?: ex)
+        } catch (ex: Exception) {
+            return failure(e, ex)
+        }
+    }
+
+    private fun stage(e: Entry) {
+        var last = 0L
+        var reported = 0L
+        val sessionId = backend.stage(e.item.uri, e.expectedDigest, e.algorithm) { staged, size ->
+            totalStaged.addAndGet(staged - last)
+            last = staged
+            if (staged - reported >= PROGRESS_STEP || staged == size) {
+                reported = staged
+                emitter.onNext(InstallEvent.Progress(e.item, staged, size, totalStaged.get(), totalSize))
+            }
+        }
+        e.sessionId = sessionId
+        if (BuildConfig.DEBUG) {
+            Timber.v("${e.item} staged in session $sessionId")
+        }
+    }
+
+    private fun commit(e: Entry): InstallEvent.Result {
+        val op = backend.commit(e.sessionId)
+        e.committed = true
+        try {
+            val result = op.await(resultTimeoutMs, TimeUnit.MILLISECONDS)
+                    ?: return InstallEvent.Result(e.item, null, INSTALL_FAILED_INTERNAL_ERROR,
+                            "No result after $resultTimeoutMs ms")
+            return InstallEvent.Result(e.item, result.packageName, result.returnCode, result.message)
+        } finally {
+            op.cancel()
+        }
+    }
+
+    private fun aborted(e: Entry): InstallEvent.Result {
+        return InstallEvent.Result(e.item, null, INSTALL_FAILED_ABORTED, "Aborted")
+    }
+
+    private fun failure(e: Entry, t: Throwable): InstallEvent.Result {
+        Timber.w("Cannot install ${e.item}: $t")
+        val code = when (t) {
+            is FileNotFoundException -> INSTALL_FAILED_INVALID_URI
+            is PackageException -> t.returnCode
+            else -> INSTALL_FAILED_INTERNAL_ERROR
+        }
+        return InstallEvent.Result(e.item, null, code, t.toString())
+    }
+}
+
+/**
+ * Backend staging apks with an [ApkStager] and receiving results through the [PackageEventBus]
+ */
+@TargetApi(24)
+private class SessionBackend(context: Context) : InstallBackend {
+
+    private val context = context.applicationContext
+    private val installer = context.packageManager.packageInstaller
+    private val stager = ApkStager(context)
+    private val bus = PackageEventBus.get(context)
+
+    override fun sizeOf(uri: Uri): Long {
+        if (ContentResolver.SCHEME_FILE == uri.scheme) {
+            val file = File(uri.path ?: "")
+            return if (file.isFile) file.length() else -1
+        }
+        return try {
+            val pfd = context.contentResolver.openFileDescriptor(uri, "r") ?: return -1
+            try {
+                pfd.statSize
+            } finally {
+                Closeables.closeQuietly(pfd)
+            }
+        } catch (e: Exception) {
+            // Staging reports the error
+            -1
+        }
+    }
+
+    override fun stage(uri: Uri, expectedDigest: String?, algorithm: String, progress: (Long, Long) -> Unit): Int {
+        return stager.stage(uri, expectedDigest, algorithm, progress)
+    }
+
+    override fun commit(sessionId: Int): PackageOperation {
+        // Expected before commit, so that result cannot be missed
+        val op = bus.expectSession(sessionId)
+        val session = installer.openSession(sessionId)
+        try {
+            session.commit(bus.resultSender(BROADCAST_ACTION_INSTALL, sessionId))
+        } catch (ex: Exception) {
+            op.cancel()
+            throw ex
+        } finally {
+            Closeables.closeQuietly(session)
+        }
+        return op
+    }
+
+    override fun abandon(sessionId: Int) {
+        try {
+            installer.abandonSession(sessionId)
+        } catch (ex: Exception) {
+            Timber.w("Cannot abandon session $sessionId: $ex")
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package fr.coppernic.lib.utils.pm
+
+/**
+ * Result of a package operation
+ *
+ * @param type Kind of operation
+ * @param packageName Package name, when known
+ * @param sessionId Id of install session, -1 if none
+ * @param returnCode [INSTALL_SUCCEEDED], [DELETE_SUCCEEDED] or one of INSTALL_FAILED_* or DELETE_FAILED_* codes
+ * @param message Message of package installer, if any
+ */
+data class PackageEvent(val type: Type,
+                        val packageName: String?,
+                        val sessionId: Int,
+                        val returnCode: Int,
+                        val message: String?) {
+
+    enum class Type {
+        INSTALLED,
+        DELETED
+    }
+
+    val isSuccess: Boolean
+        get() = returnCode == if (type == Type.INSTALLED) INSTALL_SUCCEEDED else DELETE_SUCCEEDED
+}
@@ -0,0 +1,193 @@
+package fr.coppernic.lib.utils.pm
+
+import android.Manifest
+import android.app.PendingIntent
+import android.content.Context
+import android.content.Intent
+import android.content.IntentSender
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInstaller
+import android.content.pm.PackageManager
+import fr.coppernic.lib.utils.install.BuildConfig
+import io.reactivex.Observable
+import timber.log.Timber
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Bus of package install and uninstall results.
+ *
+ * Results are received by [PackageEventReceiver], that is not exported, through pending intents
+ * made by [resultSender]. They are sent to all listeners and observers, and complete the
+ * [PackageOperation] they belong to: installs are matched by session id, uninstalls by package
+ * name.
+ *
+ * When app is not allowed to install silently, confirmation activity asked by package installer is
+ * started, and result comes afterwards. It is started only if it belongs to system package
+ * installer.
+ */
+class PackageEventBus private constructor(context: Context) {
+
+    companion object {
+        private var instance: PackageEventBus? = null
+
+        /**
+         * @param context Context
+         * @return Bus shared in process
+         */
+        @JvmStatic
+        @Synchronized
+        fun get(context: Context): PackageEventBus {
+            return instance ?: PackageEventBus(context.applicationContext).also { instance = it }
+        }
+    }
+
+    private val context = context.applicationContext
+    private val listeners = CopyOnWriteArrayList<PackageEventListener>()
+    private val sessions = ConcurrentHashMap<Int, PackageOperation>()
+    private val deletions = ConcurrentHashMap<String, PackageOperation>()
+
+    /**
+     * Handle a result delivered to [PackageEventReceiver]
+     */
+    internal fun onReceive(context: Context, intent: Intent) {
+        val status = intent.getIntExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_FAILURE)
+        if (BuildConfig.DEBUG) {
+            Timber.v("Intent $intent, status $status")
+        }
+        if (status == PackageInstaller.STATUS_PENDING_USER_ACTION) {
+            val confirm = intent.getParcelableExtra<Intent>(Intent.EXTRA_INTENT)
+            if (confirm != null && isFromInstaller(confirm)) {
+                confirm.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK)
+                context.startActivity(confirm)
+                return
+            }
+            // No result would ever come, operation fails
+            Timber.w("Confirmation not started, it is not from package installer : $confirm")
+        }
+        val success = status == PackageInstaller.STATUS_SUCCESS
+        val packageName = intent.getStringExtra(PackageInstaller.EXTRA_PACKAGE_NAME)
+        val message = intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE)
+        when (intent.action) {
+            BROADCAST_ACTION_INSTALL -> post(PackageEvent(PackageEvent.Type.INSTALLED,
+                    packageName,
+                    intent.getIntExtra(PackageInstaller.EXTRA_SESSION_ID, -1),
+                    intent.getIntExtra(EXTRA_LEGACY_STATUS,
+                            if (success) INSTALL_SUCCEEDED else INSTALL_FAILED_INTERNAL_ERROR),
+                    message))
+            BROADCAST_ACTION_UNINSTALL -> post(PackageEvent(PackageEvent.Type.DELETED,
+                    packageName,
+                    -1,
+                    intent.getIntExtra(EXTRA_LEGACY_STATUS,
+                            if (success) DELETE_SUCCEEDED else DELETE_FAILED_INTERNAL_ERROR),
+                    message))
+            else -> Timber.w("Intent received but not handled : $intent")
+        }
+    }
+
+    /**
+     * Listen to all package events
+     */
+    fun addListener(listener: PackageEventListener) {
+        listeners.addIfAbsent(listener)
+    }
+
+    fun removeListener(listener: PackageEventListener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * @return Observable of all package events, until it is disposed
+     */
+    fun observe(): Observable<PackageEvent> {
+        return Observable.create { emitter ->
+            val listener = object : PackageEventListener {
+                override fun onPackageEvent(event: PackageEvent) {
+                    emitter.onNext(event)
+                }
+            }
+            addListener(listener)
+            emitter.setCancellable { removeListener(listener) }
+        }
+    }
+
+    /**
+     * Expect the result of an install session. Shall be called before session is committed.
+     *
+     * @param sessionId Id of session
+     * @return Operation completed with install result
+     */
+    fun expectSession(sessionId: Int): PackageOperation {
+        val op = PackageOperation { sessions.remove(sessionId, it) }
+        return sessions.putIfAbsent(sessionId, op) ?: op
+    }
+
+    /**
+     * Expect the result of an uninstall. Shall be called before uninstall is requested.
+     *
+     * @param packageName Package to uninstall
+     * @return Operation completed with uninstall result, shared by concurrent uninstalls of package
+     */
+    fun expectDeletion(packageName: String): PackageOperation {
+        val op = PackageOperation { deletions.remove(packageName, it) }
+        return deletions.putIfAbsent(packageName, op) ?: op
+    }
+
+    /**
+     * Send an event to listeners, completing the operation it belongs to, if any
+     */
+    fun post(event: PackageEvent) {
+        val op = when {
+            event.type == PackageEvent.Type.INSTALLED && event.sessionId >= 0 -> sessions.remove(event.sessionId)
+            event.type == PackageEvent.Type.DELETED && event.packageName != null -> deletions.remove(event.packageName)
+            else -> null
+        }
+        op?.complete(event)
+        for (l in listeners) {
+            l.onPackageEvent(event)
+        }
+    }
+
+    /**
+     * @return Operation not matched by bus, to be completed by its caller
+     */
+    internal fun newOperation(): PackageOperation {
+        return PackageOperation { }
+    }
+
+    /**
+     * @param action [BROADCAST_ACTION_INSTALL] or [BROADCAST_ACTION_UNINSTALL]
+     * @param requestCode Request code of pending intent, one per operation
+     * @return Sender to give to package installer, delivering result to this bus only
+     */
+    internal fun resultSender(action: String, requestCode: Int): IntentSender {
+        val intent = Intent(action).setClass(context, PackageEventReceiver::class.java)
+        return PendingIntent.getBroadcast(context, requestCode, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT).intentSender
+    }
+
+    /**
+     * @return true if confirmation intent is handled by system package installer. It is made
+     * explicit and loses any uri grant.
+     */
+    private fun isFromInstaller(confirm: Intent): Boolean {
+        val pm = context.packageManager
+        val component = confirm.resolveActivity(pm) ?: return false
+        val info = try {
+            pm.getApplicationInfo(component.packageName, 0)
+        } catch (e: PackageManager.NameNotFoundException) {
+            return false
+        }
+        if (info.flags and ApplicationInfo.FLAG_SYSTEM == 0
+                || pm.checkPermission(Manifest.permission.INSTALL_PACKAGES, component.packageName)
+                != PackageManager.PERMISSION_GRANTED) {
+            return false
+        }
+        confirm.component = component
+        confirm.flags = confirm.flags and (Intent.FLAG_GRANT_READ_URI_PERMISSION
+                or Intent.FLAG_GRANT_WRITE_URI_PERMISSION
+                or Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION
+                or Intent.FLAG_GRANT_PREFIX_URI_PERMISSION).inv()
+        return true
+    }
+}
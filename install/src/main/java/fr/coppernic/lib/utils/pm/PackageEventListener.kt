@@ -0,0 +1,5 @@
+package fr.coppernic.lib.utils.pm
+
+interface PackageEventListener {
+    fun onPackageEvent(event: PackageEvent)
+}
@@ -0,0 +1,17 @@
+package fr.coppernic.lib.utils.pm
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+
+/**
+ * Receiver of install and uninstall results, forwarding them to [PackageEventBus].
+ *
+ * It is declared not exported in manifest, so that only package installer, through pending intents
+ * made by this app, can send results to it.
+ */
+class PackageEventReceiver : BroadcastReceiver() {
+    override fun onReceive(context: Context, intent: Intent) {
+        PackageEventBus.get(context).onReceive(context, intent)
+    }
+}
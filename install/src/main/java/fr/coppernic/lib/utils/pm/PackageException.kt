@@ -1,6 +1,24 @@
 package fr.coppernic.lib.utils.pm
 
 class PackageException : Exception {
-    constructor() : super()
-    constructor(cause: Throwable) : super(cause)
+    /**
+     * INSTALL_FAILED_* code matching this error, [INSTALL_FAILED_INTERNAL_ERROR] when not given
+     */
+    val returnCode: Int
+
+    constructor() : super() {
+        returnCode = INSTALL_FAILED_INTERNAL_ERROR
+    }
+
+    constructor(message: String) : super(message) {
+        returnCode = INSTALL_FAILED_INTERNAL_ERROR
+    }
+
+    constructor(cause: Throwable) : super(cause) {
+        returnCode = INSTALL_FAILED_INTERNAL_ERROR
+    }
+
+    constructor(message: String, returnCode: Int) : super(message) {
+        this.returnCode = returnCode
+    }
 }
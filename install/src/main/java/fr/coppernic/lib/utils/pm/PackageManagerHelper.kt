@@ -2,51 +2,32 @@ package fr.coppernic.lib.utils.pm
 
 import android.Manifest
 import android.annotation.TargetApi
-import android.app.PendingIntent
 import android.app.admin.DevicePolicyManager
-import android.content.BroadcastReceiver
 import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
 import android.content.pm.IPackageDeleteObserver
 import android.content.pm.IPackageInstallObserver
 import android.content.pm.PackageInstaller
 import android.content.pm.PackageManager
 import android.net.Uri
 import android.os.Build
-import android.os.Bundle
 import fr.coppernic.lib.utils.install.BuildConfig
 import fr.coppernic.lib.utils.io.Closeables
 import fr.coppernic.lib.utils.io.Disposable
 import fr.coppernic.lib.utils.os.AppHelper
+import io.reactivex.Observable
 import timber.log.Timber
 import java.io.File
 import java.io.IOException
-import java.io.InputStream
 import java.lang.reflect.InvocationTargetException
 import java.lang.reflect.Method
 import java.util.concurrent.atomic.AtomicBoolean
 
-private const val EXTRA_PACKAGE_NAME = "android.content.pm.extra.PACKAGE_NAME"
-private const val STATUS_FAILURE = 1
-
 class PackageManagerHelper constructor(private val context: Context) : Disposable {
 
     private val installMethod: Method
     private val uninstallMethod: Method
     private val registered = AtomicBoolean(false)
-
-    private val installObserver = object : IPackageInstallObserver.Stub() {
-        override fun packageInstalled(packageName: String, returnCode: Int) {
-            packageObserver.onPackageInstalled(packageName, returnCode)
-        }
-    }
-
-    private val deleteObserver = object : IPackageDeleteObserver.Stub() {
-        override fun packageDeleted(packageName: String, returnCode: Int) {
-            packageObserver.onPackageDeleted(packageName, returnCode)
-        }
-    }
+    private val bus = PackageEventBus.get(context)
 
     var packageObserver = object : PackageObserver {
         override fun onPackageDeleted(packageName: String, returnCode: Int) {
@@ -56,23 +37,15 @@ class PackageManagerHelper constructor(private val context: Context) : Disposabl
         }
     }
 
-    private val broadcastReceiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context, intent: Intent) {
-            val action = intent.action ?: ""
-            val returnCode = intent.getIntExtra(EXTRA_LEGACY_STATUS, STATUS_FAILURE)
-            val packageName = intent.getStringExtra(EXTRA_PACKAGE_NAME)
-
+    private val busListener = object : PackageEventListener {
+        override fun onPackageEvent(event: PackageEvent) {
             if (BuildConfig.DEBUG) {
-                Timber.v("package $packageName, code $returnCode")
-                Timber.v("Intent $intent, ${bundleToString(intent.extras)}")
+                Timber.v("$event")
             }
-
-            when (action) {
-                BROADCAST_ACTION_INSTALL -> packageObserver.onPackageInstalled(packageName, returnCode)
-                BROADCAST_ACTION_UNINSTALL -> packageObserver.onPackageDeleted(packageName, returnCode)
-                else -> {
-                    Timber.w("Intent received but not handled : $intent, ${bundleToString(intent.extras)}")
-                }
+            val packageName = event.packageName ?: ""
+            when (event.type) {
+                PackageEvent.Type.INSTALLED -> packageObserver.onPackageInstalled(packageName, event.returnCode)
+                PackageEvent.Type.DELETED -> packageObserver.onPackageDeleted(packageName, event.returnCode)
             }
         }
     }
@@ -108,20 +81,48 @@ class PackageManagerHelper constructor(private val context: Context) : Disposabl
      */
     @Throws(PackageException::class)
     fun uninstallPackage(packageName: String, flags: Int = 0) {
+        startUninstall(packageName, flags)
+    }
+
+    /**
+     * Uninstall package, result being also sent to [packageObserver]
+     *
+     * @param packageName Name of the package to uninstall
+     * @return Operation completed with uninstall result
+     * @throws PackageException
+     */
+    @JvmOverloads
+    @Throws(PackageException::class)
+    fun startUninstall(packageName: String, flags: Int = 0): PackageOperation {
+        register()
         if (!AppHelper.isPackageInstalled(context, packageName)) {
+            val op = bus.newOperation()
+            op.complete(PackageEvent(PackageEvent.Type.DELETED, packageName, -1, DELETE_SUCCEEDED, null))
             packageObserver.onPackageDeleted(packageName, DELETE_SUCCEEDED)
+            return op
         } else if (Build.VERSION.SDK_INT >= 24) {
-            uninstallPackageStage(packageName)
+            return uninstallPackageStage(packageName)
         } else {
+            val op = bus.newOperation()
             if (isDeviceOwner(packageName)) {
                 Timber.e("Cannot delete $packageName. This app is the device owner.")
-                return
+                op.complete(PackageEvent(PackageEvent.Type.DELETED, packageName, -1,
+                        DELETE_FAILED_DEVICE_POLICY_MANAGER, "Device owner"))
+                return op
+            }
+            val observer = object : IPackageDeleteObserver.Stub() {
+                override fun packageDeleted(packageName: String, returnCode: Int) {
+                    val event = PackageEvent(PackageEvent.Type.DELETED, packageName, -1, returnCode, null)
+                    op.complete(event)
+                    bus.post(event)
+                }
             }
             try {
-                uninstallMethod.invoke(context.packageManager, packageName, deleteObserver, flags)
+                uninstallMethod.invoke(context.packageManager, packageName, observer, flags)
             } catch (e: Exception) {
                 throw PackageException(e)
             }
+            return op
         }
     }
 
@@ -163,96 +164,137 @@ class PackageManagerHelper constructor(private val context: Context) : Disposabl
      */
     @Throws(PackageException::class)
     fun installPackage(packageUri: Uri, flags: Int = INSTALL_REPLACE_EXISTING, installerPackageName: String? = null) {
+        startInstall(packageUri, flags, installerPackageName)
+    }
+
+    /**
+     * Install an application, result being also sent to [packageObserver]
+     *
+     * @param packageUri Uri to the apk to install
+     * @return Operation completed with install result
+     * @throws PackageException
+     */
+    @JvmOverloads
+    @Throws(PackageException::class)
+    fun startInstall(packageUri: Uri,
+                     flags: Int = INSTALL_REPLACE_EXISTING,
+                     installerPackageName: String? = null): PackageOperation {
+        register()
         if (Build.VERSION.SDK_INT >= 24) {
-            doPackageStage(packageUri)
+            return doPackageStage(packageUri)
         } else {
+            val op = bus.newOperation()
+            val observer = object : IPackageInstallObserver.Stub() {
+                override fun packageInstalled(packageName: String, returnCode: Int) {
+                    val event = PackageEvent(PackageEvent.Type.INSTALLED, packageName, -1, returnCode, null)
+                    op.complete(event)
+                    bus.post(event)
+                }
+            }
             try {
-                installMethod.invoke(context.packageManager, packageUri, installObserver, flags, installerPackageName)
+                installMethod.invoke(context.packageManager, packageUri, observer, flags, installerPackageName)
             } catch (e: Exception) {
                 throw PackageException(e)
             }
+            return op
         }
     }
 
+    /**
+     * Install several applications.
+     *
+     * Apks are staged concurrently and committed one by one in list order, so a dependency shall be
+     * placed before the apps using it. Results are also sent to [packageObserver].
+     *
+     * @param packageUris Uris to the apks to install
+     * @return Observable of installation events. Installation starts on subscription, and is
+     * cancelled when observable is disposed.
+     * @throws PackageException if Android version is older than 7.0
+     * @see InstallQueue
+     */
+    @Throws(PackageException::class)
+    fun installPackages(packageUris: List<Uri>): Observable<InstallEvent> {
+        if (Build.VERSION.SDK_INT < 24) {
+            throw PackageException("Install queue needs Android 7.0")
+        }
+        val queue = InstallQueue(context)
+        for (uri in packageUris) {
+            queue.add(uri)
+        }
+        return queue.install()
+    }
+
     private fun register() {
-        if (!registered.get()) {
-            val intentFilter = IntentFilter()
-            intentFilter.addAction(BROADCAST_ACTION_INSTALL)
-            intentFilter.addAction(BROADCAST_ACTION_UNINSTALL)
-            context.applicationContext.registerReceiver(broadcastReceiver, intentFilter)
-            registered.set(true)
+        if (registered.compareAndSet(false, true)) {
+            bus.addListener(busListener)
         }
     }
 
     private fun unregister() {
-        try {
-            context.applicationContext.unregisterReceiver(broadcastReceiver)
-        } catch (ignore: Exception) {
-        } finally {
-            registered.set(false)
+        bus.removeListener(busListener)
+        registered.set(false)
+    }
+
+    /**
+     * Install an application, checking its digest.
+     *
+     * Apk is staged with an [ApkStager]: when staging fails, installing the same apk again resumes
+     * where it stopped.
+     *
+     * @param packageUri Uri to the apk to install
+     * @param expectedDigest Expected digest of apk, in hexadecimal
+     * @param algorithm Digest algorithm
+     * @return Operation completed with install result
+     * @throws PackageException if Android version is older than 7.0, or if digest does not match
+     */
+    @JvmOverloads
+    @Throws(PackageException::class)
+    fun installVerifiedPackage(packageUri: Uri,
+                               expectedDigest: String,
+                               algorithm: String = DEFAULT_DIGEST_ALGORITHM): PackageOperation {
+        if (Build.VERSION.SDK_INT < 24) {
+            throw PackageException("Verified install needs Android 7.0")
         }
+        register()
+        return doPackageStage(packageUri, expectedDigest, algorithm)
     }
 
     /**
-     * Below function is copied mostly as-is from
+     * Below function is inspired from
      * https://android.googlesource.com/platform/packages/apps/PackageInstaller/+/06163dec5a23bb3f17f7e6279f6d46e1851b7d16
      */
     @TargetApi(24)
-    private fun doPackageStage(packageURI: Uri) {
-        try {
-            val inputStream = context.contentResolver.openInputStream(packageURI)
-            if (inputStream != null) {
-                doPackageStage(inputStream)
-            }
+    @Throws(PackageException::class)
+    private fun doPackageStage(packageURI: Uri,
+                               expectedDigest: String? = null,
+                               algorithm: String = DEFAULT_DIGEST_ALGORITHM): PackageOperation {
+        val sessionId = try {
+            ApkStager(context).stage(packageURI, expectedDigest, algorithm)
         } catch (e: IOException) {
             Timber.d(e, "Failure")
+            val op = bus.newOperation()
+            op.complete(PackageEvent(PackageEvent.Type.INSTALLED, null, -1, INSTALL_FAILED_INTERNAL_ERROR, e.toString()))
+            return op
         }
-    }
-
-    @TargetApi(24)
-    private fun doPackageStage(inputStream: InputStream) {
-        register()
 
-        val pm = context.packageManager
-        val params = PackageInstaller.SessionParams(PackageInstaller.SessionParams.MODE_FULL_INSTALL)
-        val packageInstaller = pm.packageInstaller
+        // Expected before commit, so that result cannot be missed
+        val op = bus.expectSession(sessionId)
         var session: PackageInstaller.Session? = null
         try {
-            val sessionId = packageInstaller.createSession(params)
-            val buffer = ByteArray(65536)
-            session = packageInstaller.openSession(sessionId)
-            val out = session.openWrite("PackageInstaller", 0, -1 /* sizeBytes, unknown */)
-            try {
-                var c = inputStream.read(buffer)
-                while (c != -1) {
-                    out.write(buffer, 0, c)
-                    c = inputStream.read(buffer)
-                }
-                session.fsync(out)
-            } finally {
-                Closeables.closeQuietly(inputStream)
-                Closeables.closeQuietly(out)
-            }
-            // Create a PendingIntent and use it to generate the IntentSender
-            val broadcastIntent = Intent(BROADCAST_ACTION_INSTALL)
-            val pendingIntent = PendingIntent.getBroadcast(
-                    context,
-                    sessionId,
-                    broadcastIntent,
-                    PendingIntent.FLAG_UPDATE_CURRENT)
-            session.commit(pendingIntent.intentSender)
+            session = context.packageManager.packageInstaller.openSession(sessionId)
+            session.commit(bus.resultSender(BROADCAST_ACTION_INSTALL, sessionId))
         } catch (e: IOException) {
             Timber.d(e, "Failure")
+            op.cancel()
+            op.complete(PackageEvent(PackageEvent.Type.INSTALLED, null, sessionId, INSTALL_FAILED_INTERNAL_ERROR, e.toString()))
         } finally {
             Closeables.closeQuietly(session)
         }
+        return op
     }
 
-
     @TargetApi(24)
-    private fun uninstallPackageStage(packageName: String) {
-        register()
-
+    private fun uninstallPackageStage(packageName: String): PackageOperation {
         val pm = context.packageManager
         val packageInstaller = pm.packageInstaller
 
@@ -261,14 +303,10 @@ class PackageManagerHelper constructor(private val context: Context) : Disposabl
          * this package's package name to be able to uninstall from here.
          */
         pm.setInstallerPackageName(packageName, context.packageName)
-        // Create a PendingIntent and use it to generate the IntentSender
-        val broadcastIntent = Intent(BROADCAST_ACTION_UNINSTALL)
-        val pendingIntent = PendingIntent.getBroadcast(
-                context, // context
-                0, // arbitary
-                broadcastIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT)
-        packageInstaller.uninstall(packageName, pendingIntent.intentSender)
+        val op = bus.expectDeletion(packageName)
+        // One pending intent per package
+        packageInstaller.uninstall(packageName, bus.resultSender(BROADCAST_ACTION_UNINSTALL, packageName.hashCode()))
+        return op
     }
 
     private fun hasPrivilegedPermissionsImpl(): Boolean {
@@ -294,18 +332,6 @@ class PackageManagerHelper constructor(private val context: Context) : Disposabl
         val manager = context.getSystemService(Context.DEVICE_POLICY_SERVICE) as DevicePolicyManager?
         return manager?.isDeviceOwnerApp(packageName) ?: false
     }
-
-    private fun bundleToString(bundle: Bundle?): String {
-        val sb = StringBuilder()
-        sb.append("Bundle{\n")
-        if (bundle != null) {
-            for (key in bundle.keySet()) {
-                sb.append(key).append(": \"").append(bundle.get(key)).append("\"\n")
-            }
-        }
-        sb.append("}")
-        return sb.toString()
-    }
 }
 
 private enum class State {
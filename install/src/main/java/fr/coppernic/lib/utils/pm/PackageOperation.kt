@@ -0,0 +1,91 @@
+package fr.coppernic.lib.utils.pm
+
+import io.reactivex.Single
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Package operation in progress, completed with its result event.
+ *
+ * Each operation is awaited on its own, whatever the number of operations running at the same time.
+ */
+class PackageOperation internal constructor(private val onCancel: (PackageOperation) -> Unit) {
+
+    private val done = CountDownLatch(1)
+    private val listeners = ArrayList<PackageEventListener>()
+    @Volatile
+    private var event: PackageEvent? = null
+
+    /**
+     * Result of operation, null while it is running
+     */
+    val result: PackageEvent?
+        get() = event
+
+    val isDone: Boolean
+        get() = event != null
+
+    /**
+     * Wait for result of operation
+     *
+     * @return Result, or null if operation did not end in time
+     * @throws InterruptedException
+     */
+    @Throws(InterruptedException::class)
+    fun await(timeout: Long, unit: TimeUnit): PackageEvent? {
+        done.await(timeout, unit)
+        return event
+    }
+
+    /**
+     * Call listener with result of operation, immediately if it is already done
+     */
+    fun whenDone(listener: PackageEventListener) {
+        val e = synchronized(this) {
+            if (event == null) {
+                listeners.add(listener)
+            }
+            event
+        }
+        if (e != null) {
+            listener.onPackageEvent(e)
+        }
+    }
+
+    /**
+     * @return Single emitting result of operation
+     */
+    fun toSingle(): Single<PackageEvent> {
+        return Single.create { emitter ->
+            whenDone(object : PackageEventListener {
+                override fun onPackageEvent(event: PackageEvent) {
+                    emitter.onSuccess(event)
+                }
+            })
+        }
+    }
+
+    /**
+     * Stop waiting for result. Operation itself is not cancelled.
+     */
+    fun cancel() {
+        onCancel(this)
+    }
+
+    internal fun complete(e: PackageEvent): Boolean {
+        val toCall = synchronized(this) {
+            if (event != null) {
+                return false
+            }
+            event = e
+            val l = ArrayList(listeners)
+            listeners.clear()
+            l
+        }
+        done.countDown()
+        for (l in toCall) {
+            l.onPackageEvent(e)
+        }
+        return true
+    }
+}
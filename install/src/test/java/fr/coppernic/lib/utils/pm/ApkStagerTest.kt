@@ -0,0 +1,253 @@
+package fr.coppernic.lib.utils.pm
+
+import android.content.Context
+import android.content.pm.PackageInstaller
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.mock
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.security.MessageDigest
+import java.util.Random
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class ApkStagerTest {
+
+    companion object {
+        private const val SIZE = 600 * 1024
+        private const val SYNC_STEP = 128 * 1024L
+    }
+
+    /**
+     * Sessions of a package installer, written in files
+     */
+    private class Sessions(private val dir: File) {
+        val installer: PackageInstaller = mock(PackageInstaller::class.java)
+        val files = HashMap<Int, File>()
+        val created = ArrayList<Int>()
+        val abandoned = ArrayList<Int>()
+        val writeOffsets = ArrayList<Long>()
+        /**
+         * Bytes that can be written before writing fails, negative for no limit
+         */
+        var writeLimit = -1L
+
+        init {
+            doAnswer {
+                val id = created.size + 1
+                created.add(id)
+                files[id] = File(dir, "session$id").apply { createNewFile() }
+                id
+            }.`when`(installer).createSession(any())
+            doAnswer { invocation -> session(invocation.getArgument(0)) }.`when`(installer).openSession(anyInt())
+            doAnswer { invocation ->
+                val id = invocation.getArgument<Int>(0)
+                if (files.containsKey(id)) mock(PackageInstaller.SessionInfo::class.java) else null
+            }.`when`(installer).getSessionInfo(anyInt())
+            doAnswer { invocation ->
+                val id = invocation.getArgument<Int>(0)
+                abandoned.add(id)
+                files.remove(id)
+            }.`when`(installer).abandonSession(anyInt())
+        }
+
+        private fun session(id: Int): PackageInstaller.Session {
+            val file = files[id] ?: throw SecurityException("No session $id")
+            val session = mock(PackageInstaller.Session::class.java)
+            doAnswer { invocation ->
+                val offset = invocation.getArgument<Long>(1)
+                writeOffsets.add(offset)
+                RandomAccessFile(file, "rw").use { it.setLength(offset) }
+                limited(FileOutputStream(file, true))
+            }.`when`(session).openWrite(anyString(), anyLong(), anyLong())
+            doAnswer { FileInputStream(file) }.`when`(session).openRead(anyString())
+            return session
+        }
+
+        private fun limited(out: FileOutputStream): OutputStream {
+            if (writeLimit < 0) {
+                return out
+            }
+            return object : OutputStream() {
+                var written = 0L
+
+                override fun write(b: Int) {
+                    write(byteArrayOf(b.toByte()), 0, 1)
+                }
+
+                override fun write(b: ByteArray, off: Int, len: Int) {
+                    if (written + len > writeLimit) {
+                        throw IOException("Write failure")
+                    }
+                    out.write(b, off, len)
+                    written += len
+                }
+
+                override fun close() {
+                    out.close()
+                }
+            }
+        }
+    }
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private lateinit var context: Context
+    private lateinit var sessions: Sessions
+    private lateinit var stager: ApkStager
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        sessions = Sessions(tmp.newFolder())
+        stager = ApkStager(context, sessions.installer, SYNC_STEP)
+    }
+
+    private fun content(seed: Long): ByteArray {
+        val bytes = ByteArray(SIZE)
+        Random(seed).nextBytes(bytes)
+        return bytes
+    }
+
+    private fun apk(bytes: ByteArray): File {
+        val file = File(tmp.root, "app.apk")
+        file.writeBytes(bytes)
+        return file
+    }
+
+    private fun sha256(bytes: ByteArray): String {
+        return MessageDigest.getInstance("SHA-256").digest(bytes).joinToString("") { String.format("%02x", it) }
+    }
+
+    private fun stageFailing(uri: Uri, digest: String?) {
+        sessions.writeLimit = 300 * 1024L
+        try {
+            stager.stage(uri, digest)
+            throw AssertionError("Staging did not fail")
+        } catch (expected: IOException) {
+        }
+        sessions.writeLimit = -1
+    }
+
+    @Test
+    fun stageWithDigest() {
+        val bytes = content(1)
+        val progress = ArrayList<Long>()
+
+        val id = stager.stage(Uri.fromFile(apk(bytes)), sha256(bytes)) { staged, size ->
+            assertEquals(SIZE.toLong(), size)
+            progress.add(staged)
+        }
+
+        assertArrayEquals(bytes, sessions.files.getValue(id).readBytes())
+        assertEquals(SIZE.toLong(), progress.last())
+        assertTrue(sessions.abandoned.isEmpty())
+    }
+
+    @Test
+    fun digestMismatch() {
+        val bytes = content(1)
+
+        try {
+            stager.stage(Uri.fromFile(apk(bytes)), sha256(content(2)))
+            throw AssertionError("Digest not checked")
+        } catch (e: PackageException) {
+            assertEquals(INSTALL_FAILED_VERIFICATION_FAILURE, e.returnCode)
+        }
+
+        assertEquals(sessions.created, sessions.abandoned)
+    }
+
+    @Test
+    fun resumeWithDigest() {
+        val bytes = content(1)
+        val uri = Uri.fromFile(apk(bytes))
+        stageFailing(uri, sha256(bytes))
+
+        val id = stager.stage(uri, sha256(bytes))
+
+        assertEquals(listOf(id), sessions.created)
+        // Resumed from last fsync
+        assertEquals(listOf(0L, 2 * SYNC_STEP), sessions.writeOffsets)
+        assertArrayEquals(bytes, sessions.files.getValue(id).readBytes())
+    }
+
+    @Test
+    fun resumeUnchangedFile() {
+        val bytes = content(1)
+        val uri = Uri.fromFile(apk(bytes))
+        stageFailing(uri, null)
+
+        val id = stager.stage(uri)
+
+        assertEquals(listOf(id), sessions.created)
+        assertEquals(listOf(0L, 2 * SYNC_STEP), sessions.writeOffsets)
+        assertArrayEquals(bytes, sessions.files.getValue(id).readBytes())
+    }
+
+    @Test
+    fun doNotResumeChangedFile() {
+        val file = apk(content(1))
+        val uri = Uri.fromFile(file)
+        stageFailing(uri, null)
+        // Another apk of the same size
+        val bytes = content(2)
+        file.writeBytes(bytes)
+        file.setLastModified(file.lastModified() + 10_000)
+
+        val id = stager.stage(uri)
+
+        assertEquals(2, sessions.created.size)
+        assertEquals(listOf(sessions.created[0]), sessions.abandoned)
+        assertEquals(listOf(0L, 0L), sessions.writeOffsets)
+        assertArrayEquals(bytes, sessions.files.getValue(id).readBytes())
+    }
+
+    @Test
+    fun streamFallback() {
+        val bytes = content(1)
+        val uri = Uri.parse("content://fr.coppernic.test/app.apk")
+        shadowOf(context.contentResolver).registerInputStream(uri, ByteArrayInputStream(bytes))
+        var lastSize = 0L
+
+        val id = stager.stage(uri, sha256(bytes)) { _, size -> lastSize = size }
+
+        assertEquals(-1L, lastSize)
+        assertArrayEquals(bytes, sessions.files.getValue(id).readBytes())
+    }
+
+    @Test
+    fun streamIsNotResumed() {
+        val bytes = content(1)
+        val uri = Uri.parse("content://fr.coppernic.test/app.apk")
+        shadowOf(context.contentResolver).registerInputStream(uri, ByteArrayInputStream(bytes))
+        stageFailing(uri, sha256(bytes))
+
+        assertEquals(sessions.created, sessions.abandoned)
+        assertFalse(sessions.files.containsKey(sessions.created[0]))
+    }
+}
@@ -0,0 +1,176 @@
+package fr.coppernic.lib.utils.pm
+
+import android.net.Uri
+import io.reactivex.observers.TestObserver
+import org.awaitility.Awaitility.await
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.mock
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class InstallQueueTest {
+
+    private class FakeBackend : InstallBackend {
+        val uris = CopyOnWriteArrayList<Uri>()
+        val stageDelays = ConcurrentHashMap<Int, Long>()
+        val stageErrors = ConcurrentHashMap<Int, Exception>()
+        val returnCodes = ConcurrentHashMap<Int, Int>()
+        val committed = CopyOnWriteArrayList<Int>()
+        val abandoned = CopyOnWriteArrayList<Int>()
+        val staging = AtomicInteger()
+        val maxStaging = AtomicInteger()
+
+        fun newUri(): Uri {
+            val uri = mock(Uri::class.java)
+            uris.add(uri)
+            return uri
+        }
+
+        override fun sizeOf(uri: Uri): Long {
+            return 10
+        }
+
+        override fun stage(uri: Uri, expectedDigest: String?, algorithm: String, progress: (Long, Long) -> Unit): Int {
+            val index = uris.indexOf(uri)
+            maxStaging.accumulateAndGet(staging.incrementAndGet()) { a, b -> Math.max(a, b) }
+            try {
+                Thread.sleep(stageDelays[index] ?: 0)
+                stageErrors[index]?.let { throw it }
+                progress(10, 10)
+                return sessionOf(index)
+            } finally {
+                staging.decrementAndGet()
+            }
+        }
+
+        override fun commit(sessionId: Int): PackageOperation {
+            committed.add(sessionId)
+            val op = PackageOperation { }
+            op.complete(PackageEvent(PackageEvent.Type.INSTALLED, "app$sessionId", sessionId,
+                    returnCodes[sessionId - SESSION_BASE] ?: INSTALL_SUCCEEDED, null))
+            return op
+        }
+
+        override fun abandon(sessionId: Int) {
+            abandoned.add(sessionId)
+        }
+
+        fun sessionOf(index: Int): Int {
+            return SESSION_BASE + index
+        }
+
+        companion object {
+            const val SESSION_BASE = 100
+        }
+    }
+
+    private val backend = FakeBackend()
+
+    private fun newQueue(stopOnFailure: Boolean = true): InstallQueue {
+        return InstallQueue(backend, 2, stopOnFailure, 1000)
+    }
+
+    private fun run(queue: InstallQueue): List<InstallEvent> {
+        val observer = queue.install().test()
+        assertTrue(observer.awaitTerminalEvent(5, TimeUnit.SECONDS))
+        observer.assertComplete()
+        return observer.values()
+    }
+
+    private fun results(events: List<InstallEvent>): List<InstallEvent.Result> {
+        return events.filterIsInstance<InstallEvent.Result>()
+    }
+
+    @Test
+    fun commitInOrderOfQueue() {
+        val queue = newQueue()
+        for (i in 0 until 4) {
+            queue.add(backend.newUri())
+            // Last apks are staged first
+            backend.stageDelays[i] = (4 - i) * 50L
+        }
+
+        val events = run(queue)
+
+        assertEquals((0 until 4).map { backend.sessionOf(it) }, backend.committed)
+        assertEquals(listOf(0, 1, 2, 3), results(events).map { it.item.index })
+        assertTrue(results(events).all { it.isSuccess })
+        assertEquals(InstallEvent.Finished(4, 0), events.last())
+        assertEquals(4, events.filterIsInstance<InstallEvent.Progress>().size)
+        assertEquals(2, backend.maxStaging.get())
+        assertTrue(backend.abandoned.isEmpty())
+    }
+
+    @Test
+    fun queueClosedOnceStarted() {
+        val queue = newQueue()
+        val item = queue.add(backend.newUri())
+
+        val events = run(queue)
+
+        assertEquals(item, results(events).single().item)
+        try {
+            queue.add(backend.newUri())
+            throw AssertionError("Apk added to a started queue")
+        } catch (expected: IllegalStateException) {
+        }
+        queue.install().test().assertError(IllegalStateException::class.java)
+    }
+
+    @Test
+    fun failureKeepsReturnCode() {
+        val queue = newQueue()
+        for (i in 0 until 3) {
+            queue.add(backend.newUri())
+        }
+        backend.stageErrors[1] = PackageException("Digest mismatch", INSTALL_FAILED_VERIFICATION_FAILURE)
+
+        val events = run(queue)
+
+        assertEquals(listOf(INSTALL_SUCCEEDED, INSTALL_FAILED_VERIFICATION_FAILURE, INSTALL_FAILED_ABORTED),
+                results(events).map { it.returnCode })
+        assertEquals(InstallEvent.Finished(1, 2), events.last())
+        assertEquals(listOf(backend.sessionOf(0)), backend.committed)
+        // Third apk may have been staged before being aborted
+        assertTrue(backend.abandoned.all { it == backend.sessionOf(2) })
+    }
+
+    @Test
+    fun failureDoesNotStopQueue() {
+        val queue = newQueue(stopOnFailure = false)
+        for (i in 0 until 3) {
+            queue.add(backend.newUri())
+        }
+        backend.returnCodes[0] = INSTALL_FAILED_INVALID_APK
+        backend.stageErrors[1] = PackageException("Cannot read apk")
+
+        val events = run(queue)
+
+        assertEquals(listOf(INSTALL_FAILED_INVALID_APK, INSTALL_FAILED_INTERNAL_ERROR, INSTALL_SUCCEEDED),
+                results(events).map { it.returnCode })
+        assertEquals(InstallEvent.Finished(1, 2), events.last())
+        assertEquals(listOf(backend.sessionOf(0), backend.sessionOf(2)), backend.committed)
+    }
+
+    @Test
+    fun disposeCancelsQueue() {
+        val queue = newQueue()
+        for (i in 0 until 2) {
+            queue.add(backend.newUri())
+            backend.stageDelays[i] = 5000L
+        }
+        val observer = TestObserver<InstallEvent>()
+        queue.install().subscribe(observer)
+
+        observer.dispose()
+
+        assertTrue(queue.isDisposed)
+        // Interrupted stages are abandoned
+        await().until { backend.staging.get() == 0 }
+        assertTrue(backend.committed.isEmpty())
+    }
+}
@@ -6,14 +6,67 @@ import io.reactivex.CompletableEmitter
 import io.reactivex.FlowableEmitter
 import io.reactivex.ObservableEmitter
 import io.reactivex.SingleEmitter
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Kind of emitter, used to count dropped emissions
+ */
+enum class EmitterType {
+    COMPLETABLE,
+    SINGLE,
+    OBSERVABLE,
+    FLOWABLE
+}
+
+/**
+ * Counters of emissions dropped because emitter was null or disposed.
+ *
+ * Drops are logged when [LogDefines.verbose] is set, at most once per second and per emitter type,
+ * with the number of drops. Message is only formatted when it is logged.
+ */
+object DroppedEmissions {
+    private val LOG_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1)
+
+    private val counters = AtomicLongArray(EmitterType.values().size)
+    private val lastLogs = AtomicLongArray(EmitterType.values().size)
+
+    /**
+     * @return Number of emissions dropped by emitters of this type
+     */
+    @JvmStatic
+    fun get(type: EmitterType): Long {
+        return counters.get(type.ordinal)
+    }
+
+    @JvmStatic
+    fun reset() {
+        for (i in 0 until counters.length()) {
+            counters.set(i, 0)
+        }
+    }
+
+    internal fun drop(type: EmitterType, what: String, count: Long = 1, obj: Any? = null) {
+        val total = counters.addAndGet(type.ordinal, count)
+        if (LogDefines.verbose) {
+            val now = System.nanoTime()
+            val last = lastLogs.get(type.ordinal)
+            if ((last == 0L || now - last >= LOG_INTERVAL_NS) && lastLogs.compareAndSet(type.ordinal, last, now)) {
+                if (obj == null) {
+                    LOG.warn("{} emitter is disposed, cannot do {}, {} dropped", type, what, total)
+                } else {
+                    LOG.warn("{} emitter is disposed, cannot do {} {}, {} dropped", type, what, obj, total)
+                }
+            }
+        }
+    }
+}
 
 fun CompletableEmitter?.complete() {
     if (this != null && !isDisposed) {
         onComplete()
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onSuccess")
-        }
+        DroppedEmissions.drop(EmitterType.COMPLETABLE, "onComplete")
     }
 }
 
@@ -21,9 +74,7 @@ fun CompletableEmitter?.error(obj: Throwable) {
     if (this != null && !isDisposed) {
         onError(obj)
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onError $obj")
-        }
+        DroppedEmissions.drop(EmitterType.COMPLETABLE, "onError", obj = obj)
     }
 }
 
@@ -31,9 +82,7 @@ fun <T> SingleEmitter<T>?.success(obj: T) {
     if (this != null && !isDisposed) {
         onSuccess(obj)
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onSuccess")
-        }
+        DroppedEmissions.drop(EmitterType.SINGLE, "onSuccess")
     }
 }
 
@@ -41,9 +90,7 @@ fun <T> SingleEmitter<T>?.error(obj: Throwable) {
     if (this != null && !isDisposed) {
         onError(obj)
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onError $obj")
-        }
+        DroppedEmissions.drop(EmitterType.SINGLE, "onError", obj = obj)
     }
 }
 
@@ -51,19 +98,34 @@ fun <T> ObservableEmitter<T>?.next(obj: T) {
     if (this != null && !isDisposed) {
         onNext(obj)
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onSuccess")
+        DroppedEmissions.drop(EmitterType.OBSERVABLE, "onNext")
+    }
+}
+
+/**
+ * Emit all items, stopping as soon as emitter is disposed
+ *
+ * @return Number of items emitted
+ */
+fun <T : Any> ObservableEmitter<T>?.nextAll(items: Iterable<T>): Int {
+    var sent = 0
+    val it = items.iterator()
+    while (it.hasNext()) {
+        if (this == null || isDisposed) {
+            DroppedEmissions.drop(EmitterType.OBSERVABLE, "onNext", remaining(items, sent))
+            break
         }
+        onNext(it.next())
+        sent++
     }
+    return sent
 }
 
 fun <T> ObservableEmitter<T>?.complete() {
     if (this != null && !isDisposed) {
         onComplete()
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onSuccess")
-        }
+        DroppedEmissions.drop(EmitterType.OBSERVABLE, "onComplete")
     }
 }
 
@@ -71,9 +133,7 @@ fun <T> ObservableEmitter<T>?.error(obj: Throwable) {
     if (this != null && !isDisposed) {
         onError(obj)
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onError $obj")
-        }
+        DroppedEmissions.drop(EmitterType.OBSERVABLE, "onError", obj = obj)
     }
 }
 
@@ -81,19 +141,34 @@ fun <T> FlowableEmitter<T>?.next(obj: T) {
     if (this != null && !isCancelled) {
         onNext(obj)
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onSuccess")
+        DroppedEmissions.drop(EmitterType.FLOWABLE, "onNext")
+    }
+}
+
+/**
+ * Emit all items, stopping as soon as emitter is cancelled
+ *
+ * @return Number of items emitted
+ */
+fun <T : Any> FlowableEmitter<T>?.nextAll(items: Iterable<T>): Int {
+    var sent = 0
+    val it = items.iterator()
+    while (it.hasNext()) {
+        if (this == null || isCancelled) {
+            DroppedEmissions.drop(EmitterType.FLOWABLE, "onNext", remaining(items, sent))
+            break
         }
+        onNext(it.next())
+        sent++
     }
+    return sent
 }
 
 fun <T> FlowableEmitter<T>?.complete() {
     if (this != null && !isCancelled) {
         onComplete()
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onSuccess")
-        }
+        DroppedEmissions.drop(EmitterType.FLOWABLE, "onComplete")
     }
 }
 
@@ -101,9 +176,17 @@ fun <T> FlowableEmitter<T>?.error(obj: Throwable) {
     if (this != null && !isCancelled) {
         onError(obj)
     } else {
-        if (LogDefines.verbose) {
-            LOG.warn("Emitter is disposed, cannot do onError $obj")
-        }
+        DroppedEmissions.drop(EmitterType.FLOWABLE, "onError", obj = obj)
     }
 }
 
+/**
+ * Number of items not emitted yet. Other iterables may be lazy or endless and are never iterated
+ * further: they count as one dropped item.
+ */
+private fun <T> remaining(items: Iterable<T>, sent: Int): Long {
+    if (items is Collection<T>) {
+        return (items.size - sent).toLong()
+    }
+    return 1
+}
@@ -0,0 +1,79 @@
+package fr.coppernic.lib.utils.rx.io
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Chunk of bytes read from a stream.
+ *
+ * [buffer] is ready to be read, from position 0 to its limit. Chunk shall be released once it is
+ * not used anymore, so that its buffer is reused for next reads. A chunk that is not released is
+ * only garbage collected.
+ */
+class ByteChunk internal constructor(private val pool: ChunkPool, private val data: ByteBuffer) {
+
+    private val released = AtomicBoolean(false)
+
+    val buffer: ByteBuffer
+        get() {
+            check(!released.get()) { "Chunk released" }
+            return data
+        }
+
+    /**
+     * Number of bytes in chunk
+     */
+    val size: Int
+        get() = buffer.limit()
+
+    /**
+     * @return Copy of bytes of chunk
+     */
+    fun toByteArray(): ByteArray {
+        val b = buffer
+        return b.array().copyOfRange(b.arrayOffset(), b.arrayOffset() + b.limit())
+    }
+
+    /**
+     * Give buffer back to pool. Chunk cannot be used anymore. Releasing twice has no effect.
+     */
+    fun release() {
+        if (released.compareAndSet(false, true)) {
+            pool.recycle(data)
+        }
+    }
+}
+
+/**
+ * Pool of buffers of the same size, reused by [ByteChunk]s.
+ *
+ * @param chunkSize Size of buffers
+ * @param capacity Maximum number of buffers kept
+ */
+class ChunkPool(val chunkSize: Int, capacity: Int) {
+
+    private val buffers = ArrayBlockingQueue<ByteBuffer>(Math.max(1, capacity))
+
+    init {
+        require(chunkSize > 0) { "Chunk size shall be positive" }
+    }
+
+    /**
+     * @return Cleared buffer, from pool or newly allocated
+     */
+    internal fun acquire(): ByteBuffer {
+        val b = buffers.poll() ?: return ByteBuffer.allocate(chunkSize)
+        b.clear()
+        return b
+    }
+
+    internal fun recycle(buffer: ByteBuffer) {
+        // Dropped when pool is full
+        buffers.offer(buffer)
+    }
+
+    internal fun chunk(buffer: ByteBuffer): ByteChunk {
+        return ByteChunk(this, buffer)
+    }
+}
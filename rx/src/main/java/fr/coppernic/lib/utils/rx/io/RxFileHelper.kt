@@ -0,0 +1,113 @@
+package fr.coppernic.lib.utils.rx.io
+
+import fr.coppernic.lib.utils.io.AtomicWriter
+import fr.coppernic.lib.utils.io.FileHelper
+import fr.coppernic.lib.utils.io.IoExecutor
+import fr.coppernic.lib.utils.io.TreeDeleter
+import fr.coppernic.lib.utils.rx.complete
+import fr.coppernic.lib.utils.rx.next
+import fr.coppernic.lib.utils.rx.success
+import io.reactivex.BackpressureStrategy
+import io.reactivex.Completable
+import io.reactivex.Flowable
+import io.reactivex.Scheduler
+import io.reactivex.Single
+import io.reactivex.schedulers.Schedulers
+import java.io.File
+
+/**
+ * Progress of a copy
+ *
+ * @param done Number of bytes copied so far
+ * @param total Total number of bytes to copy
+ */
+data class CopyProgress(val done: Long, val total: Long)
+
+/**
+ * Rx variants of [FileHelper] operations.
+ *
+ * Operations run on [scheduler], backed by [IoExecutor.getDefault]. Disposing a subscription
+ * interrupts the thread, which stops copies, reads and writes in flight. Errors occurring after
+ * disposal are dropped instead of being sent to RxJavaPlugins.
+ */
+object RxFileHelper {
+
+    /**
+     * Interruptible scheduler on default [IoExecutor]
+     */
+    @JvmStatic
+    val scheduler: Scheduler = Schedulers.from(IoExecutor.getDefault().executorService, true)
+
+    /**
+     * Copy content of a file into another
+     *
+     * @return Number of bytes copied
+     */
+    @JvmStatic
+    fun copy(src: File, dest: File): Single<Long> {
+        return single { IoExecutor.copyFile(src, dest, null) }
+    }
+
+    /**
+     * Copy content of a file into another and follow its progress.
+     *
+     * Only latest progress is kept when downstream is slow.
+     */
+    @JvmStatic
+    fun copyWithProgress(src: File, dest: File): Flowable<CopyProgress> {
+        return Flowable.create<CopyProgress>({ emitter ->
+            try {
+                IoExecutor.copyFile(src, dest) { done, total ->
+                    emitter.next(CopyProgress(done, total))
+                }
+                emitter.complete()
+            } catch (e: Exception) {
+                emitter.tryOnError(e)
+            }
+        }, BackpressureStrategy.LATEST).subscribeOn(scheduler)
+    }
+
+    /**
+     * Compute sha1 of a file, in the same format as [FileHelper.getSha1FromFile]
+     */
+    @JvmStatic
+    fun getSha1(f: File): Single<String> {
+        return single { IoExecutor.sha1(f) }
+    }
+
+    /**
+     * Write a file atomically, see [AtomicWriter.write]
+     */
+    @JvmStatic
+    fun save(f: File, data: ByteArray): Completable {
+        return single { AtomicWriter.write(f, data) }.ignoreElement()
+    }
+
+    /**
+     * Read a file, see [FileHelper.readFully]
+     */
+    @JvmStatic
+    fun read(f: File): Single<ByteArray> {
+        return single { FileHelper.readFully(f) }
+    }
+
+    /**
+     * Clear a directory, see [TreeDeleter.delete]
+     */
+    @JvmStatic
+    fun clear(dir: File, recursive: Boolean, deleteSelf: Boolean): Single<TreeDeleter.Report> {
+        return single { TreeDeleter.getDefault().delete(dir, recursive, deleteSelf) }
+    }
+
+    private fun <T> single(block: () -> T): Single<T> {
+        return Single.create<T> { emitter ->
+            val value = try {
+                block()
+            } catch (e: Exception) {
+                emitter.tryOnError(e)
+                return@create
+            }
+            emitter.success(value)
+        }.subscribeOn(scheduler)
+    }
+}
@@ -0,0 +1,160 @@
+package fr.coppernic.lib.utils.rx.io
+
+import fr.coppernic.lib.utils.io.Closeables
+import io.reactivex.Emitter
+import io.reactivex.Flowable
+import io.reactivex.Scheduler
+import io.reactivex.functions.BiConsumer
+import io.reactivex.functions.Consumer
+import io.reactivex.schedulers.Schedulers
+import java.io.Closeable
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.ReadableByteChannel
+import java.util.concurrent.Callable
+
+const val DEFAULT_CHUNK_SIZE = 64 * 1024
+const val DEFAULT_PREFETCH = 4
+
+/**
+ * Flowable sources of byte streams.
+ *
+ * Chunks are read only when they are requested: at most [prefetch][DEFAULT_PREFETCH] chunks are read
+ * ahead of subscriber, which bounds memory whatever its speed. Chunk buffers come from a [ChunkPool]
+ * and are reused once subscriber has released them.
+ *
+ * Reads are blocking, they are done on [Schedulers.io] unless another scheduler is given. A sensor or
+ * serial stream may block a thread for its whole life, so [RxFileHelper.scheduler], whose few threads
+ * are kept for file operations, is not used by default. Null scheduler reads in the thread requesting
+ * chunks. Stream is closed when flowable terminates or is cancelled.
+ */
+object RxStreams {
+
+    /**
+     * @param input Stream to read
+     * @param chunkSize Maximum size of chunks
+     * @param prefetch Number of chunks read ahead of subscriber
+     * @param scheduler Scheduler reading stream
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun fromInputStream(input: InputStream,
+                        chunkSize: Int = DEFAULT_CHUNK_SIZE,
+                        prefetch: Int = DEFAULT_PREFETCH,
+                        scheduler: Scheduler? = Schedulers.io()): Flowable<ByteChunk> {
+        val pool = ChunkPool(chunkSize, prefetch + 1)
+        return source(input, prefetch, scheduler) { emitter ->
+            val b = pool.acquire()
+            read(pool, b, emitter) {
+                val n = input.read(b.array(), b.arrayOffset(), b.capacity())
+                if (n > 0) {
+                    b.position(n)
+                }
+                n
+            }
+        }
+    }
+
+    /**
+     * @param channel Blocking channel to read
+     * @param chunkSize Maximum size of chunks
+     * @param prefetch Number of chunks read ahead of subscriber
+     * @param scheduler Scheduler reading channel
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun fromChannel(channel: ReadableByteChannel,
+                    chunkSize: Int = DEFAULT_CHUNK_SIZE,
+                    prefetch: Int = DEFAULT_PREFETCH,
+                    scheduler: Scheduler? = Schedulers.io()): Flowable<ByteChunk> {
+        val pool = ChunkPool(chunkSize, prefetch + 1)
+        return source(channel, prefetch, scheduler) { emitter ->
+            val b = pool.acquire()
+            read(pool, b, emitter) { channel.read(b) }
+        }
+    }
+
+    /**
+     * Read a file channel from a position, without moving channel position.
+     *
+     * @param channel File channel to read
+     * @param position Position of first byte to read
+     * @param chunkSize Maximum size of chunks
+     * @param prefetch Number of chunks read ahead of subscriber
+     * @param scheduler Scheduler reading channel
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun fromFileChannel(channel: FileChannel,
+                        position: Long = 0,
+                        chunkSize: Int = DEFAULT_CHUNK_SIZE,
+                        prefetch: Int = DEFAULT_PREFETCH,
+                        scheduler: Scheduler? = Schedulers.io()): Flowable<ByteChunk> {
+        val pool = ChunkPool(chunkSize, prefetch + 1)
+        return Flowable.defer {
+            var pos = position
+            source(channel, prefetch, scheduler) { emitter ->
+                val b = pool.acquire()
+                read(pool, b, emitter) {
+                    val n = channel.read(b, pos)
+                    if (n > 0) {
+                        pos += n
+                    }
+                    n
+                }
+            }
+        }
+    }
+
+    /**
+     * @param file File to read
+     * @param chunkSize Maximum size of chunks
+     * @param prefetch Number of chunks read ahead of subscriber
+     * @param scheduler Scheduler reading file
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun fromFile(file: File,
+                 chunkSize: Int = DEFAULT_CHUNK_SIZE,
+                 prefetch: Int = DEFAULT_PREFETCH,
+                 scheduler: Scheduler? = Schedulers.io()): Flowable<ByteChunk> {
+        // Opened on subscription, so that each subscriber reads whole file
+        val flowable = Flowable.defer {
+            fromFileChannel(FileInputStream(file).channel, 0, chunkSize, prefetch, null)
+        }
+        return if (scheduler == null) flowable else flowable.subscribeOn(scheduler)
+    }
+
+    private inline fun read(pool: ChunkPool, b: ByteBuffer, emitter: Emitter<ByteChunk>, op: () -> Int) {
+        val n = try {
+            op()
+        } catch (e: IOException) {
+            pool.recycle(b)
+            emitter.onError(e)
+            return
+        }
+        if (n < 0) {
+            pool.recycle(b)
+            emitter.onComplete()
+        } else {
+            b.flip()
+            emitter.onNext(pool.chunk(b))
+        }
+    }
+
+    private fun source(resource: Closeable,
+                       prefetch: Int,
+                       scheduler: Scheduler?,
+                       generator: (Emitter<ByteChunk>) -> Unit): Flowable<ByteChunk> {
+        val flowable = Flowable.generate<ByteChunk, Closeable>(
+                Callable { resource },
+                BiConsumer { _, emitter -> generator(emitter) },
+                Consumer { Closeables.closeQuietly(it) })
+                .rebatchRequests(Math.max(1, prefetch))
+        return if (scheduler == null) flowable else flowable.subscribeOn(scheduler)
+    }
+}
@@ -4,7 +4,10 @@ import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
 import android.content.ServiceConnection
+import android.os.Handler
 import android.os.IBinder
+import android.os.Looper
+import android.os.SystemClock
 import fr.coppernic.lib.utils.rx.error
 import fr.coppernic.lib.utils.rx.error.RxUtilsException
 import fr.coppernic.lib.utils.rx.log.LogDefines
@@ -19,48 +22,129 @@ import java.util.*
 abstract class BaseServiceManager<T> {
     companion object {
         var counter = 0
+
+        const val DEFAULT_IDLE_TIMEOUT_MS = 5_000L
+        const val DEFAULT_REBIND_MIN_DELAY_MS = 500L
+        const val DEFAULT_REBIND_MAX_DELAY_MS = 30_000L
+        const val DEFAULT_PREWARM_HOLD_MS = 60_000L
     }
 
     private val connectorMap: HashMap<T, LocalServiceConnection> = HashMap()
+    private val handler = Handler(Looper.getMainLooper())
+    private var binding: SharedConnection? = null
+    private var disconnectCount = 0
     var emitter: SingleEmitter<T>? = null
 
+    /**
+     * Hook receiving bind latency, disconnections and connector lifetimes
+     */
+    @Volatile
+    var instrumentation: ServiceInstrumentation? = null
+
+    /**
+     * Number of unexpected disconnections of service
+     */
+    val disconnections: Int
+        @Synchronized get() = disconnectCount
+
+    /**
+     * Pool mode.
+     *
+     * When true, one binding to service is shared by all connectors, that are then the same object.
+     * Subscribers arriving while service is connecting all get the connector once it is connected.
+     * Each connector shall be closed, binding is released [idleTimeoutMs] after last one is closed.
+     * When service is disconnected while connectors are in use, it is bound again with an
+     * exponential backoff.
+     *
+     * When false, a new binding is made for each connector.
+     */
+    @Volatile
+    var pooled = false
+
+    /**
+     * Time a pooled binding is kept after its last connector is closed
+     */
+    open val idleTimeoutMs: Long = DEFAULT_IDLE_TIMEOUT_MS
+
+    /**
+     * First delay before binding again to a disconnected service, doubled at each attempt
+     */
+    open val rebindMinDelayMs: Long = DEFAULT_REBIND_MIN_DELAY_MS
+
+    /**
+     * Maximum delay before binding again. Delay goes back to [rebindMinDelayMs] once service has
+     * stayed connected for this time.
+     */
+    open val rebindMaxDelayMs: Long = DEFAULT_REBIND_MAX_DELAY_MS
+
     @Synchronized
     fun getConnector(c: Context): Single<T> {
+        if (pooled) {
+            return getPooledConnector(c)
+        }
         return Single.create { singleEmitter ->
             emitter = singleEmitter
-            connectToService(c)
+            connectToService(c, singleEmitter)
         }
     }
 
     @Synchronized
     fun close(connector: T) {
-        connectorMap.remove(connector)?.close()
+        val shared = binding
+        if (shared != null && shared.issued.contains(connector)) {
+            shared.release()
+        } else {
+            connectorMap.remove(connector)?.close()
+        }
     }
 
     @Synchronized
     fun isClosed(connector: T): Boolean {
+        val shared = binding
+        if (shared != null && shared.issued.contains(connector)) {
+            return shared.refs == 0
+        }
         return connectorMap[connector] == null
     }
 
+    /**
+     * Bind to service in background and keep binder, so that next [getConnector] does not wait for
+     * it. Typically called at application start. It switches manager to [pooled] mode.
+     *
+     * @param c Context
+     * @param holdMs Time binder is kept if no connector is asked
+     */
+    @JvmOverloads
+    @Synchronized
+    fun prewarm(c: Context, holdMs: Long = DEFAULT_PREWARM_HOLD_MS) {
+        pooled = true
+        val shared = binding ?: SharedConnection(c.applicationContext).also { binding = it }
+        shared.prewarm(holdMs)
+    }
+
     abstract fun getAction(): String?
 
     abstract fun createConnector(service: IBinder?): T
 
     abstract fun getServicePackage(context: Context?): String
 
-    private fun connectToService(c: Context) {
-        if (LogDefines.verbose) {
-            LOG.trace("Connecting to service")
-        }
+    private fun getBindIntent(c: Context): Intent {
         val bindIntent = Intent()
         bindIntent.action = getAction()
         val pack = getServicePackage(c)
         if (pack.isNotEmpty()) {
             bindIntent.setPackage(pack)
         }
+        return bindIntent
+    }
+
+    private fun connectToService(c: Context, singleEmitter: SingleEmitter<T>) {
+        if (LogDefines.verbose) {
+            LOG.trace("Connecting to service")
+        }
         //Use a new Service connection each time
-        if (!c.bindService(bindIntent, LocalServiceConnection(c), Context.BIND_AUTO_CREATE)) {
-            emitter.error(RxUtilsException("Service not found"))
+        if (!c.bindService(getBindIntent(c), LocalServiceConnection(c, singleEmitter), Context.BIND_AUTO_CREATE)) {
+            singleEmitter.error(RxUtilsException("Service not found"))
         } else {
             if (LogDefines.verbose) {
                 LOG.trace("Connect to service OK")
@@ -68,18 +152,40 @@ abstract class BaseServiceManager<T> {
         }
     }
 
-    inner class LocalServiceConnection(context: Context) : ServiceConnection, Closeable {
+    private fun getPooledConnector(c: Context): Single<T> {
+        return Single.create { singleEmitter ->
+            val connector = synchronized(this) {
+                val shared = binding ?: SharedConnection(c.applicationContext).also { binding = it }
+                shared.acquire(singleEmitter)
+            }
+            if (connector != null) {
+                singleEmitter.success(connector)
+            }
+        }
+    }
+
+    inner class LocalServiceConnection(context: Context,
+                                       private val singleEmitter: SingleEmitter<T>? = null)
+        : ServiceConnection, Closeable {
         private val contextRef: WeakReference<Context> = WeakReference(context)
         private val tag = "LocalServiceConnection" + ++counter
+        private val bindStart = SystemClock.elapsedRealtime()
+        @Volatile
+        private var connectedAt = 0L
+
         override fun onServiceConnected(name: ComponentName, service: IBinder) {
             if (LogDefines.verbose) {
                 LOG.trace("$tag: Create new connector")
             }
+            connectedAt = SystemClock.elapsedRealtime()
+            instrumentation?.onServiceBound(getAction(), connectedAt - bindStart, false)
             //Create a new GpioConnection with this binder
             val connector = createConnector(service)
             //Register this connection for future disconnection.
-            connectorMap[connector] = this
-            emitter.success(connector)
+            synchronized(this@BaseServiceManager) {
+                connectorMap[connector] = this
+            }
+            (singleEmitter ?: emitter).success(connector)
         }
 
         override fun onServiceDisconnected(name: ComponentName) {
@@ -91,15 +197,20 @@ abstract class BaseServiceManager<T> {
                 LOG.trace("$tag: Service disconnected")
             }
             //Notify that an error occurred. Will be discarded if single already completed.
-            emitter.error(RxUtilsException("Service unexpectedly disconnected"))
+            (singleEmitter ?: emitter).error(RxUtilsException("Service unexpectedly disconnected"))
             //Remove this service connection from map because there is no more connection.
-            val it: MutableIterator<Map.Entry<T, LocalServiceConnection>> = connectorMap.entries.iterator()
-            while (it.hasNext()) {
-                val entry = it.next()
-                if (entry.value === this) {
-                    it.remove()
+            val count = synchronized(this@BaseServiceManager) {
+                val it: MutableIterator<Map.Entry<T, LocalServiceConnection>> = connectorMap.entries.iterator()
+                while (it.hasNext()) {
+                    val entry = it.next()
+                    if (entry.value === this) {
+                        it.remove()
+                    }
                 }
+                ++disconnectCount
             }
+            instrumentation?.onServiceDisconnected(getAction(), count)
+            released()
         }
 
         override fun close() {
@@ -111,6 +222,198 @@ abstract class BaseServiceManager<T> {
                 c.unbindService(this)
                 contextRef.clear()
             }
+            released()
+        }
+
+        private fun released() {
+            val at = connectedAt
+            if (at > 0) {
+                connectedAt = 0
+                instrumentation?.onConnectorReleased(getAction(), SystemClock.elapsedRealtime() - at)
+            }
+        }
+    }
+
+    /**
+     * Binding shared by pooled connectors. All fields are guarded by the manager lock.
+     */
+    private inner class SharedConnection(private val context: Context) : ServiceConnection {
+        private val tag = "SharedConnection" + ++counter
+        private val waiting = ArrayList<SingleEmitter<T>>()
+        private var bound = false
+        private var attempts = 0
+        private var bindStart = 0L
+        private var connectedAt = 0L
+        @Volatile
+        private var prewarmHoldMs = -1L
+        var connector: T? = null
+        var refs = 0
+
+        /**
+         * Connectors given since binding was made, several if service has been reconnected
+         */
+        val issued = HashSet<T>()
+
+        private val unbindIfIdle = Runnable {
+            var lifetime = -1L
+            synchronized(this@BaseServiceManager) {
+                if (refs == 0 && waiting.isEmpty()) {
+                    if (LogDefines.verbose) {
+                        LOG.trace("$tag: Idle, unbind")
+                    }
+                    if (connector != null) {
+                        lifetime = releasedAfter()
+                    }
+                    unbind()
+                    issued.clear()
+                    connector = null
+                    attempts = 0
+                    if (binding === this) {
+                        binding = null
+                    }
+                }
+            }
+            if (lifetime >= 0) {
+                instrumentation?.onConnectorReleased(getAction(), lifetime)
+            }
+        }
+
+        private val rebind = Runnable {
+            synchronized(this@BaseServiceManager) {
+                if (binding === this && !bound && (refs > 0 || waiting.isNotEmpty())) {
+                    bind()
+                }
+            }
+        }
+
+        /**
+         * @return Connector if already connected, null if emitter will get it once connected
+         */
+        fun acquire(singleEmitter: SingleEmitter<T>): T? {
+            handler.removeCallbacks(unbindIfIdle)
+            val c = connector
+            if (c != null) {
+                refs++
+                return c
+            }
+            waiting.add(singleEmitter)
+            singleEmitter.setCancellable {
+                synchronized(this@BaseServiceManager) {
+                    waiting.remove(singleEmitter)
+                }
+            }
+            if (!bound) {
+                bind()
+            }
+            return null
+        }
+
+        fun prewarm(holdMs: Long) {
+            if (connector == null && !bound) {
+                prewarmHoldMs = holdMs
+                bind()
+            }
+        }
+
+        fun release() {
+            if (refs > 0 && --refs == 0) {
+                handler.postDelayed(unbindIfIdle, idleTimeoutMs)
+            }
+        }
+
+        override fun onServiceConnected(name: ComponentName, service: IBinder) {
+            if (LogDefines.verbose) {
+                LOG.trace("$tag: Create shared connector")
+            }
+            val c = createConnector(service)
+            val now = SystemClock.elapsedRealtime()
+            val prewarmed = prewarmHoldMs >= 0
+            val toNotify = synchronized(this@BaseServiceManager) {
+                connector = c
+                connectedAt = now
+                issued.add(c)
+                val l = waiting.filter { !it.isDisposed }
+                waiting.clear()
+                refs += l.size
+                if (refs == 0) {
+                    handler.postDelayed(unbindIfIdle, if (prewarmed) prewarmHoldMs else idleTimeoutMs)
+                }
+                prewarmHoldMs = -1
+                l
+            }
+            instrumentation?.onServiceBound(getAction(), now - bindStart, prewarmed)
+            for (e in toNotify) {
+                e.success(c)
+            }
+        }
+
+        override fun onServiceDisconnected(name: ComponentName) {
+            if (LogDefines.verbose) {
+                LOG.trace("$tag: Service disconnected")
+            }
+            val (count, lifetime) = synchronized(this@BaseServiceManager) {
+                val lifetime = if (connector != null) releasedAfter() else -1L
+                // Android calls onServiceConnected before each disconnection, so attempts are only
+                // reset once service has been stable, not to rebind a crashing service too often.
+                if (lifetime >= rebindMaxDelayMs) {
+                    attempts = 0
+                }
+                connector = null
+                unbind()
+                if (refs > 0 || waiting.isNotEmpty()) {
+                    val delay = Math.min(rebindMaxDelayMs, rebindMinDelayMs shl Math.min(attempts, 16))
+                    attempts++
+                    if (LogDefines.verbose) {
+                        LOG.trace("$tag: Bind again in $delay ms")
+                    }
+                    handler.postDelayed(rebind, delay)
+                } else if (binding === this) {
+                    binding = null
+                }
+                Pair(++disconnectCount, lifetime)
+            }
+            instrumentation?.let {
+                it.onServiceDisconnected(getAction(), count)
+                if (lifetime >= 0) {
+                    it.onConnectorReleased(getAction(), lifetime)
+                }
+            }
+        }
+
+        private fun bind() {
+            if (LogDefines.verbose) {
+                LOG.trace("$tag: Connecting to service")
+            }
+            bindStart = SystemClock.elapsedRealtime()
+            bound = context.bindService(getBindIntent(context), this, Context.BIND_AUTO_CREATE)
+            if (!bound) {
+                val toNotify = ArrayList(waiting)
+                waiting.clear()
+                try {
+                    context.unbindService(this)
+                } catch (ignore: IllegalArgumentException) {
+                }
+                if (binding === this) {
+                    binding = null
+                }
+                for (e in toNotify) {
+                    e.error(RxUtilsException("Service not found"))
+                }
+            }
+        }
+
+        private fun releasedAfter(): Long {
+            return SystemClock.elapsedRealtime() - connectedAt
+        }
+
+        private fun unbind() {
+            if (bound) {
+                bound = false
+                try {
+                    context.unbindService(this)
+                } catch (ignore: IllegalArgumentException) {
+                }
+            }
         }
     }
 }
@@ -0,0 +1,33 @@
+package fr.coppernic.lib.utils.rx.service
+
+/**
+ * Hook receiving connection metrics of a [BaseServiceManager].
+ *
+ * Methods are mostly called from main thread, they shall return quickly.
+ */
+interface ServiceInstrumentation {
+    /**
+     * Service is connected
+     *
+     * @param action Action of service
+     * @param latencyMs Time between bindService and onServiceConnected
+     * @param prewarmed true if binding was made by [BaseServiceManager.prewarm]
+     */
+    fun onServiceBound(action: String?, latencyMs: Long, prewarmed: Boolean)
+
+    /**
+     * Service has been unexpectedly disconnected
+     *
+     * @param action Action of service
+     * @param count Number of disconnections since manager creation
+     */
+    fun onServiceDisconnected(action: String?, count: Int)
+
+    /**
+     * A connector is not usable anymore, because it has been closed or service has been disconnected
+     *
+     * @param action Action of service
+     * @param lifetimeMs Time since connector creation
+     */
+    fun onConnectorReleased(action: String?, lifetimeMs: Long)
+}
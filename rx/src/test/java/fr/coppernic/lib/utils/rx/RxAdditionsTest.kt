@@ -0,0 +1,54 @@
+package fr.coppernic.lib.utils.rx
+
+import io.reactivex.Flowable
+import io.reactivex.FlowableEmitter
+import io.reactivex.Observable
+import io.reactivex.ObservableEmitter
+import io.reactivex.BackpressureStrategy
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Before
+import org.junit.Test
+
+class RxAdditionsTest {
+
+    @Before
+    fun before() {
+        DroppedEmissions.reset()
+    }
+
+    @Test
+    fun nextAll() {
+        var emitter: ObservableEmitter<Int>? = null
+        val observer = Observable.create<Int> { emitter = it }.test()
+
+        assertThat(emitter.nextAll(listOf(1, 2, 3)), equalTo(3))
+        observer.assertValues(1, 2, 3)
+        assertThat(DroppedEmissions.get(EmitterType.OBSERVABLE), equalTo(0L))
+
+        observer.dispose()
+        assertThat(emitter.nextAll(listOf(4, 5)), equalTo(0))
+        // Iterables that are not collections are not iterated to count drops
+        assertThat(emitter.nextAll((6..8).asIterable()), equalTo(0))
+        assertThat(emitter.nextAll(generateSequence(0) { it + 1 }.asIterable()), equalTo(0))
+        assertThat(DroppedEmissions.get(EmitterType.OBSERVABLE), equalTo(4L))
+    }
+
+    @Test
+    fun droppedByType() {
+        var emitter: FlowableEmitter<Int>? = null
+        val subscriber = Flowable.create<Int>({ emitter = it }, BackpressureStrategy.BUFFER).test()
+        emitter.next(1)
+        subscriber.cancel()
+        emitter.next(2)
+        emitter.complete()
+
+        val nullEmitter: ObservableEmitter<Int>? = null
+        nullEmitter.next(1)
+
+        subscriber.assertValues(1)
+        assertThat(DroppedEmissions.get(EmitterType.FLOWABLE), equalTo(2L))
+        assertThat(DroppedEmissions.get(EmitterType.OBSERVABLE), equalTo(1L))
+        assertThat(DroppedEmissions.get(EmitterType.SINGLE), equalTo(0L))
+    }
+}
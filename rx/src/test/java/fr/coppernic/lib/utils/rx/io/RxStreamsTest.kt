@@ -0,0 +1,110 @@
+package fr.coppernic.lib.utils.rx.io
+
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.lessThanOrEqualTo
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.Random
+
+class RxStreamsTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val data = ByteArray(200 * 1024).also { Random(42).nextBytes(it) }
+
+    private class CountingStream(private val input: InputStream) : InputStream() {
+        var reads = 0
+        var closed = false
+
+        override fun read(): Int {
+            throw UnsupportedOperationException()
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            reads++
+            return input.read(b, off, len)
+        }
+
+        override fun close() {
+            closed = true
+        }
+    }
+
+    @Test
+    fun inputStream() {
+        val out = ByteArrayOutputStream()
+        val stream = CountingStream(ByteArrayInputStream(data))
+        RxStreams.fromInputStream(stream, 64 * 1024, 2, null)
+                .blockingForEach {
+                    out.write(it.toByteArray())
+                    it.release()
+                }
+        assertThat(out.toByteArray(), equalTo(data))
+        assertThat(stream.closed, equalTo(true))
+    }
+
+    @Test
+    fun readOnDemand() {
+        val stream = CountingStream(ByteArrayInputStream(data))
+        val subscriber = RxStreams.fromInputStream(stream, 1024, 4, null).test(0)
+        // Only prefetch chunks are read ahead
+        assertThat(stream.reads, lessThanOrEqualTo(4))
+
+        subscriber.request(1)
+        subscriber.assertValueCount(1)
+        assertThat(stream.reads, lessThanOrEqualTo(5))
+
+        subscriber.cancel()
+        assertThat(stream.closed, equalTo(true))
+    }
+
+    @Test
+    fun channel() {
+        val out = ByteArrayOutputStream()
+        val stream = CountingStream(ByteArrayInputStream(data))
+        RxStreams.fromChannel(Channels.newChannel(stream), 4096, 2, null)
+                .blockingForEach {
+                    out.write(it.toByteArray())
+                    it.release()
+                }
+        assertThat(out.toByteArray(), equalTo(data))
+        assertThat(stream.closed, equalTo(true))
+    }
+
+    @Test
+    fun reuseBuffers() {
+        val buffers = Collections.newSetFromMap(IdentityHashMap<ByteBuffer, Boolean>())
+        val subscriber = RxStreams.fromInputStream(ByteArrayInputStream(data), 1024, 2, null).test(0)
+        while (subscriber.valueCount() < 200) {
+            subscriber.request(1)
+            val chunk = subscriber.values().last()
+            buffers.add(chunk.buffer)
+            chunk.release()
+        }
+        // Released buffers are read again, only chunks read ahead need other buffers
+        assertThat(buffers.size, lessThanOrEqualTo(3))
+    }
+
+    @Test
+    fun file() {
+        val f = folder.newFile()
+        f.writeBytes(data)
+        val out = ByteArrayOutputStream()
+        RxStreams.fromFile(f, 4096, 4, null)
+                .blockingForEach {
+                    out.write(it.toByteArray())
+                    it.release()
+                }
+        assertThat(out.toByteArray(), equalTo(data))
+    }
+}
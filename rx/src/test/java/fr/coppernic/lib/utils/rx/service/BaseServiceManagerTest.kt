@@ -0,0 +1,325 @@
+package fr.coppernic.lib.utils.rx.service
+
+import android.content.ComponentName
+import android.content.Context
+import android.content.ContextWrapper
+import android.content.Intent
+import android.content.ServiceConnection
+import android.os.Binder
+import android.os.IBinder
+import android.os.Looper
+import androidx.test.core.app.ApplicationProvider
+import fr.coppernic.lib.utils.rx.error.RxUtilsException
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.sameInstance
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.LooperMode
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+@LooperMode(LooperMode.Mode.PAUSED)
+@Config(sdk = [28])
+class BaseServiceManagerTest {
+
+    class Connector(val binder: IBinder?)
+
+    private class TestManager : BaseServiceManager<Connector>() {
+        override val idleTimeoutMs = 100L
+        override val rebindMinDelayMs = 50L
+        override val rebindMaxDelayMs = 150L
+
+        override fun getAction(): String? = "fr.coppernic.test.ACTION"
+
+        override fun createConnector(service: IBinder?): Connector = Connector(service)
+
+        override fun getServicePackage(context: Context?): String = "fr.coppernic.test"
+    }
+
+    /**
+     * Records bindings instead of binding to a real service
+     */
+    private class FakeContext(base: Context) : ContextWrapper(base) {
+        val bound = ArrayList<ServiceConnection>()
+        var binds = 0
+        var unbinds = 0
+        var bindResult = true
+
+        override fun getApplicationContext(): Context = this
+
+        override fun bindService(service: Intent, conn: ServiceConnection, flags: Int): Boolean {
+            binds++
+            if (bindResult) {
+                bound.add(conn)
+            }
+            return bindResult
+        }
+
+        override fun unbindService(conn: ServiceConnection) {
+            if (!bound.remove(conn)) {
+                throw IllegalArgumentException("Service not registered")
+            }
+            unbinds++
+        }
+
+        fun connect() {
+            bound.last().onServiceConnected(NAME, Binder())
+        }
+
+        fun disconnect() {
+            bound.last().onServiceDisconnected(NAME)
+        }
+    }
+
+    private class Events : ServiceInstrumentation {
+        val bound = ArrayList<Boolean>()
+        val disconnections = ArrayList<Int>()
+        val releases = ArrayList<Long>()
+
+        override fun onServiceBound(action: String?, latencyMs: Long, prewarmed: Boolean) {
+            bound.add(prewarmed)
+        }
+
+        override fun onServiceDisconnected(action: String?, count: Int) {
+            disconnections.add(count)
+        }
+
+        override fun onConnectorReleased(action: String?, lifetimeMs: Long) {
+            releases.add(lifetimeMs)
+        }
+    }
+
+    companion object {
+        private val NAME = ComponentName("fr.coppernic.test", "TestService")
+    }
+
+    private lateinit var context: FakeContext
+    private lateinit var manager: TestManager
+    private lateinit var events: Events
+
+    @Before
+    fun setUp() {
+        context = FakeContext(ApplicationProvider.getApplicationContext())
+        manager = TestManager()
+        events = Events()
+        manager.instrumentation = events
+    }
+
+    private fun idle(ms: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(ms, TimeUnit.MILLISECONDS)
+    }
+
+    @Test
+    fun closeAndIsClosed() {
+        val observer = manager.getConnector(context).test()
+        context.connect()
+        val connector = observer.values()[0]
+        assertThat(manager.isClosed(connector), equalTo(false))
+
+        manager.close(connector)
+
+        assertThat(manager.isClosed(connector), equalTo(true))
+        assertThat(context.unbinds, equalTo(1))
+        assertThat(events.releases.size, equalTo(1))
+    }
+
+    @Test
+    fun bindingPerConnector() {
+        manager.getConnector(context).test()
+        manager.getConnector(context).test()
+        assertThat(context.binds, equalTo(2))
+    }
+
+    @Test
+    fun serviceNotFound() {
+        context.bindResult = false
+        manager.pooled = true
+        manager.getConnector(context).test().assertError(RxUtilsException::class.java)
+    }
+
+    @Test
+    fun pooledSingleBind() {
+        manager.pooled = true
+        val o1 = manager.getConnector(context).test()
+        val o2 = manager.getConnector(context).test()
+        o1.assertNoValues()
+        o2.assertNoValues()
+        assertThat(context.binds, equalTo(1))
+
+        context.connect()
+
+        o1.assertValueCount(1)
+        o2.assertValueCount(1)
+        assertThat(o1.values()[0], sameInstance(o2.values()[0]))
+        // Connected, next connector is given without binding
+        manager.getConnector(context).test().assertValueCount(1)
+        assertThat(context.binds, equalTo(1))
+        assertThat(events.bound, equalTo(listOf(false)))
+    }
+
+    @Test
+    fun pooledDisposeWaiting() {
+        manager.pooled = true
+        val o1 = manager.getConnector(context).test()
+        val o2 = manager.getConnector(context).test()
+        o1.dispose()
+
+        context.connect()
+
+        o1.assertNoValues()
+        o2.assertValueCount(1)
+        // Only o2 holds connector
+        val connector = o2.values()[0]
+        manager.close(connector)
+        assertThat(manager.isClosed(connector), equalTo(true))
+    }
+
+    @Test
+    fun pooledCloseAndIsClosed() {
+        manager.pooled = true
+        val o1 = manager.getConnector(context).test()
+        val o2 = manager.getConnector(context).test()
+        context.connect()
+        val connector = o1.values()[0]
+
+        manager.close(connector)
+        assertThat(manager.isClosed(connector), equalTo(false))
+        manager.close(o2.values()[0])
+        assertThat(manager.isClosed(connector), equalTo(true))
+        // Binding is kept until idle timeout
+        assertThat(context.unbinds, equalTo(0))
+    }
+
+    @Test
+    fun pooledIdleUnbind() {
+        manager.pooled = true
+        val observer = manager.getConnector(context).test()
+        context.connect()
+        manager.close(observer.values()[0])
+
+        idle(50)
+        assertThat(context.unbinds, equalTo(0))
+        // Getting a connector again cancels unbind
+        val again = manager.getConnector(context).test()
+        idle(200)
+        assertThat(context.unbinds, equalTo(0))
+
+        manager.close(again.values()[0])
+        idle(100)
+        assertThat(context.unbinds, equalTo(1))
+        assertThat(events.releases.size, equalTo(1))
+
+        manager.getConnector(context).test()
+        assertThat(context.binds, equalTo(2))
+    }
+
+    @Test
+    fun pooledRebindWithBackoff() {
+        manager.pooled = true
+        manager.getConnector(context).test()
+        context.connect()
+
+        // Service crashes right after each connection
+        context.disconnect()
+        assertThat(context.unbinds, equalTo(1))
+        idle(49)
+        assertThat(context.binds, equalTo(1))
+        idle(1)
+        assertThat(context.binds, equalTo(2))
+
+        // Delay is doubled
+        context.connect()
+        context.disconnect()
+        idle(99)
+        assertThat(context.binds, equalTo(2))
+        idle(1)
+        assertThat(context.binds, equalTo(3))
+
+        // Capped by max delay
+        context.connect()
+        context.disconnect()
+        idle(149)
+        assertThat(context.binds, equalTo(3))
+        idle(1)
+        assertThat(context.binds, equalTo(4))
+
+        context.connect()
+        context.disconnect()
+        idle(149)
+        assertThat(context.binds, equalTo(4))
+        idle(1)
+        assertThat(context.binds, equalTo(5))
+
+        assertThat(manager.disconnections, equalTo(4))
+        assertThat(events.disconnections, equalTo(listOf(1, 2, 3, 4)))
+    }
+
+    @Test
+    fun pooledBackoffResetWhenStable() {
+        manager.pooled = true
+        manager.getConnector(context).test()
+        context.connect()
+        context.disconnect()
+        idle(50)
+        context.connect()
+        context.disconnect()
+        idle(100)
+        assertThat(context.binds, equalTo(3))
+
+        // Connected for max delay, next rebind is made after min delay again
+        context.connect()
+        idle(150)
+        context.disconnect()
+        idle(49)
+        assertThat(context.binds, equalTo(3))
+        idle(1)
+        assertThat(context.binds, equalTo(4))
+    }
+
+    @Test
+    fun pooledNoRebindWhenUnused() {
+        manager.pooled = true
+        val observer = manager.getConnector(context).test()
+        context.connect()
+        manager.close(observer.values()[0])
+
+        context.disconnect()
+        idle(1000)
+
+        assertThat(context.binds, equalTo(1))
+    }
+
+    @Test
+    fun prewarm() {
+        manager.prewarm(context, 300)
+        assertThat(manager.pooled, equalTo(true))
+        assertThat(context.binds, equalTo(1))
+        context.connect()
+        assertThat(events.bound, equalTo(listOf(true)))
+
+        // Binder is ready
+        val observer = manager.getConnector(context).test()
+        observer.assertValueCount(1)
+        assertThat(context.binds, equalTo(1))
+
+        manager.close(observer.values()[0])
+        idle(100)
+        assertThat(context.unbinds, equalTo(1))
+    }
+
+    @Test
+    fun prewarmHold() {
+        manager.prewarm(context, 300)
+        context.connect()
+
+        idle(299)
+        assertThat(context.unbinds, equalTo(0))
+        idle(1)
+        assertThat(context.unbinds, equalTo(1))
+    }
+}